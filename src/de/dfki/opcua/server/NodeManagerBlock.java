@@ -1,6 +1,16 @@
 package de.dfki.opcua.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opcfoundation.ua.builtintypes.DataValue;
 import org.opcfoundation.ua.builtintypes.DateTime;
@@ -14,7 +24,9 @@ import org.opcfoundation.ua.builtintypes.UnsignedInteger;
 import org.opcfoundation.ua.builtintypes.Variant;
 import org.opcfoundation.ua.common.ServiceResultException;
 import org.opcfoundation.ua.core.AccessLevel;
+import org.opcfoundation.ua.core.AggregateConfiguration;
 import org.opcfoundation.ua.core.Attributes;
+import org.opcfoundation.ua.core.HistoryData;
 import org.opcfoundation.ua.core.Identifiers;
 import org.opcfoundation.ua.core.NodeClass;
 import org.opcfoundation.ua.core.StatusCodes;
@@ -28,18 +40,33 @@ import com.prosysopc.ua.nodes.UaNode;
 import com.prosysopc.ua.nodes.UaReference;
 import com.prosysopc.ua.nodes.UaVariable;
 import com.prosysopc.ua.server.IoManager;
+import com.prosysopc.ua.server.MonitoredDataItem;
 import com.prosysopc.ua.server.NodeManager;
 import com.prosysopc.ua.server.ServiceContext;
+import com.prosysopc.ua.server.Subscription;
 import com.prosysopc.ua.server.UaServer;
 
+import de.dfki.omm.impl.OMMBlockImpl;
 import de.dfki.omm.impl.rest.OMMRestImpl;
 import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.types.GenericTypedValue;
 import de.dfki.omm.types.OMMEntity;
 import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
 import de.dfki.omm.types.TypedValue;
 //import de.dfki.oms.security.omm.OMMSecurityBlock;
+import de.dfki.opcua.server.cache.AdaptiveTtl;
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+import de.dfki.opcua.server.cache.BlockChangeSet;
+import de.dfki.opcua.server.cache.PayloadStore;
+import de.dfki.opcua.server.cache.RenderedValueCache;
+import de.dfki.opcua.server.event.OmmEventType;
+import de.dfki.opcua.server.history.Aggregate;
+import de.dfki.opcua.server.history.BlockHistory;
+import de.dfki.opcua.server.history.HistoryManagerAdapter;
 import de.dfki.opcua.server.method.OmsMethodDeleteBlock;
+import de.dfki.opcua.server.subscription.NotificationQueues;
+import de.dfki.opcua.server.subscription.PayloadFilter;
 
 /**
  * A NodeManager for the block level of an OMS. <br/>
@@ -52,50 +79,127 @@ import de.dfki.opcua.server.method.OmsMethodDeleteBlock;
 public class NodeManagerBlock extends NodeManager {
 
 	// OPC UA data
+	private NodeManagerOmm memoryNodeManager;
 	private ExpandedNodeId memoryFolder;
 	private ExpandedNodeId blockObject;
+	private final ExpandedNodeId[] variableNodeIds; // in the order of BlockChangeDetector.VARIABLES
+	private final QualifiedName[] variableBrowseNames; // in the order of BlockChangeDetector.VARIABLES
+	private final QualifiedName blockBrowseName; // names of the block object (the variable display names are pooled)
+	private final LocalizedText blockDisplayName;
+	private final LocalizedText blockDescription;
 	private OmsMethodDeleteBlock deleteBlockMethod;
 	private ExpandedNodeId deleteBlockMethodId;
 	
 	// OMS data
 	private String blockId; 
-	private OMMBlock block;
+	private volatile OMMBlock block; // replaced on memory refresh, without its payload while the payload is stored
+	private volatile boolean payloadStored = false;
+	private PayloadStore payloadStore;
+	private RenderedValueCache renderedValues = new RenderedValueCache();
+	private AdaptiveTtl revalidation;
+	private Executor revalidator;
+	private final AtomicBoolean revalidating = new AtomicBoolean(false);
+	private BlockChangeDetector changeDetector;
+	private IoManagerBlock ioManager;
+	private final CopyOnWriteArrayList<MonitoredDataItem> monitoredItems = new CopyOnWriteArrayList<MonitoredDataItem>();
+	private final ConcurrentHashMap<MonitoredDataItem, PayloadFilter> payloadFilters = new ConcurrentHashMap<MonitoredDataItem, PayloadFilter>();
+	private NotificationQueues notificationQueues;
+	private BlockHistory history;
 	
 	/**
 	 * Constructor.
 	 * 
 	 * @param server The server containing this NodeManager
 	 * @param namespace The namespace for this NodeManager
-	 * @param memoryFolder ID of the memory folder containing this block
+	 * @param memoryNodeManager The NodeManager of the memory containing this block
 	 * @param block The OMMBlock object modeled by this NodeManager
-	 * @param omm The OMMRestImpl containing this block
+	 * @param context Resources shared by all node managers of the modeled OMS
 	 */
-	public NodeManagerBlock(UaServer server, String namespace, ExpandedNodeId memoryFolder, OMMBlock block, OMMRestImpl omm) {
+	public NodeManagerBlock(UaServer server, String namespace, NodeManagerOmm memoryNodeManager, OMMBlock block, OmsContext context) {
 		
 		super(server, namespace);
 		
 		// initialize data
-		this.memoryFolder = memoryFolder;
-		this.block = block;
+		this.memoryNodeManager = memoryNodeManager;
+		this.memoryFolder = memoryNodeManager.getMemoryFolder();
+		this.payloadStore = context.getPayloadStore();
+		this.notificationQueues = context.getNotificationQueues();
+		this.revalidator = context.getRevalidator();
+		this.history = new BlockHistory(BlockHistory.DEFAULT_MAX_VALUES, context.getHistoryLog(), getNamespaceUri());
+		history.setBlockType(OmsParser.parseType(block));
+		revalidation = new AdaptiveTtl(context.getMinBlockRevalidationInterval(), context.getMaxBlockRevalidationInterval(), context.getMemoryRefreshInterval());
+		revalidation.observe(OmsParser.getTimeOfLastChange(block));
+		changeDetector = new BlockChangeDetector(block);
 		blockId = block.getID();
-//		if (!(block instanceof OMMSecurityBlock)) buildDeletionMethod(omm);
-		buildDeletionMethod(omm);
+		variableNodeIds = createVariableNodeIds(getNamespaceIndex());
+		variableBrowseNames = createVariableBrowseNames(getNamespaceIndex());
+		blockBrowseName = new QualifiedName(getNamespaceIndex(), blockId);
+		blockDisplayName = new LocalizedText(blockId, LocalizedText.NO_LOCALE);
+		blockDescription = new LocalizedText("Memory Block with ID "+blockId);
+		retain(block, true);
+//		if (!(block instanceof OMMSecurityBlock)) buildDeletionMethod();
+		buildDeletionMethod();
 
 		// add IOManager (to handle basic server requests)
-		new IoManagerBlock(this);
+		ioManager = new IoManagerBlock(this);
+		
+		// add historian (to handle history reads of the block variables)
+		getHistoryManager().setListener(new HistorianBlock());
+	}
+
+	/**
+	 * Creates the NodeIds of the variable nodes of a block, which are kept by its node manager.
+	 * 
+	 * @param namespaceIndex The namespace index of the block
+	 * @return ExpandedNodeIds in the order of {@link BlockChangeDetector#VARIABLES}
+	 */
+	public static ExpandedNodeId[] createVariableNodeIds (int namespaceIndex) {
+		
+		ExpandedNodeId[] nodeIds = new ExpandedNodeId[BlockChangeDetector.VARIABLES.length];
+		for (int i = 0; i < nodeIds.length; i++) nodeIds[i] = new ExpandedNodeId(null, namespaceIndex, BlockChangeDetector.VARIABLES[i]);
+		return nodeIds;
+	}
+	
+	/**
+	 * Creates the browse names of the variable nodes of a block, which are kept by its node manager. 
+	 * (Browse names are qualified by the block's own namespace, so they cannot be shared between blocks.)
+	 * 
+	 * @param namespaceIndex The namespace index of the block
+	 * @return QualifiedNames in the order of {@link BlockChangeDetector#VARIABLES}
+	 */
+	public static QualifiedName[] createVariableBrowseNames (int namespaceIndex) {
+		
+		QualifiedName[] browseNames = new QualifiedName[BlockChangeDetector.VARIABLES.length];
+		for (int i = 0; i < browseNames.length; i++) browseNames[i] = new QualifiedName(namespaceIndex, BlockChangeDetector.VARIABLES[i]);
+		return browseNames;
+	}
+	
+	// gets the kept NodeId of a variable node
+	private ExpandedNodeId getVariableNodeId (String variable) {
+		
+		int i = indexOfVariable(variable);
+		return (i < 0) ? null : variableNodeIds[i];
+	}
+	
+	// position of a variable in BlockChangeDetector.VARIABLES (-1 if there is no such variable)
+	private static int indexOfVariable (String variable) {
+		
+		for (int i = 0; i < BlockChangeDetector.VARIABLES.length; i++) {
+			if (BlockChangeDetector.VARIABLES[i].equals(variable)) return i;
+		}
+		return -1;
 	}
 
 	/**
 	 * Creates and adds a deletion method to this block.
 	 *
-	 * @param omm
 	 * @throws StatusException 
 	 */
-	private void buildDeletionMethod (OMMRestImpl omm) {
+	private void buildDeletionMethod () {
 
 		// new method
 		NodeId deleteBlockId = new NodeId(getNamespaceIndex(), "Delete Block");
-		deleteBlockMethod = new OmsMethodDeleteBlock(omm, block, getNodeManagerTable().getNodeManagerRoot(), deleteBlockId, "Delete Block", Locale.ENGLISH);
+		deleteBlockMethod = new OmsMethodDeleteBlock(memoryNodeManager.getMemoryURL(), blockId, getNodeManagerTable().getNodeManagerRoot(), deleteBlockId, "Delete Block", Locale.ENGLISH);
 
 		// set method node
 		deleteBlockMethodId = new ExpandedNodeId(deleteBlockId);
@@ -119,8 +223,10 @@ public class NodeManagerBlock extends NodeManager {
 		for (DiagnosticInfo d : dInfos) System.out.print(d.toString()); System.out.println("");
 		
 		try {
-			if (callingNode.equals(getNamespaceTable().toNodeId(deleteBlockMethodId))) 
+			if (callingNode.equals(getNamespaceTable().toNodeId(deleteBlockMethodId))) {
 				deleteBlockMethod.execute();
+				memoryNodeManager.refreshBlocksNow(); // announces the deletion
+			}
 		} catch (ServiceResultException e) {
 			e.printStackTrace();
 		}
@@ -130,12 +236,16 @@ public class NodeManagerBlock extends NodeManager {
 	
 	@Override
 	protected QualifiedName getBrowseName(ExpandedNodeId nodeId, UaNode node) {
-		return new QualifiedName(getNamespaceIndex(), nodeId.getValue().toString());
+		String name = nodeId.getValue().toString();
+		if (name.equals(blockId)) return blockBrowseName;
+		int i = indexOfVariable(name);
+		return (i < 0) ? new QualifiedName(getNamespaceIndex(), name) : variableBrowseNames[i];
 	}
 
 	@Override
 	protected LocalizedText getDisplayName(ExpandedNodeId nodeId, UaNode targetNode, Locale locale) {
-		return new LocalizedText(nodeId.getValue().toString(), LocalizedText.NO_LOCALE);
+		String name = nodeId.getValue().toString();
+		return name.equals(blockId) ? blockDisplayName : OmsInternPool.getDisplayName(name);
 	}
 
 	@Override
@@ -168,34 +278,34 @@ public class NodeManagerBlock extends NodeManager {
 			// Inverse reference to the memory folder
 			references[0] = new OmsReference(memoryFolder, blockObject, Identifiers.Organizes, this);
 			// Type definition reference
-			references[1] = new OmsReference(blockObject, new ExpandedNodeId(Identifiers.BaseObjectType), Identifiers.HasTypeDefinition, this);
+			references[1] = new OmsReference(blockObject, OmsInternPool.getNodeId(Identifiers.BaseObjectType), Identifiers.HasTypeDefinition, this);
 
 			// Block variables
 			// Contributors
-			references[2] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Contributors"), Identifiers.HasComponent, this);
+			references[2] = new OmsReference(blockObject, getVariableNodeId("Contributors"), Identifiers.HasComponent, this);
 			// Creator
-			references[3] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Creator"), Identifiers.HasComponent, this);
+			references[3] = new OmsReference(blockObject, getVariableNodeId("Creator"), Identifiers.HasComponent, this);
 			// Description
-			references[4] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Description"), Identifiers.HasComponent, this);
+			references[4] = new OmsReference(blockObject, getVariableNodeId("Description"), Identifiers.HasComponent, this);
 			// Format
-			references[5] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Format"), Identifiers.HasComponent, this);
+			references[5] = new OmsReference(blockObject, getVariableNodeId("Format"), Identifiers.HasComponent, this);
 			// ID
-			references[6] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "ID"), Identifiers.HasComponent, this);
+			references[6] = new OmsReference(blockObject, getVariableNodeId("ID"), Identifiers.HasComponent, this);
 			// Namespace
-			references[7] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Namespace"), Identifiers.HasComponent, this);
+			references[7] = new OmsReference(blockObject, getVariableNodeId("Namespace"), Identifiers.HasComponent, this);
 			// Payload or Link
 			if (block.isLinkBlock()) 
-				references[8] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Link"), Identifiers.HasComponent, this);
+				references[8] = new OmsReference(blockObject, getVariableNodeId("Link"), Identifiers.HasComponent, this);
 			else 
-				references[8] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Payload"), Identifiers.HasComponent, this);
+				references[8] = new OmsReference(blockObject, getVariableNodeId("Payload"), Identifiers.HasComponent, this);
 			// PrimaryID
-			references[9] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "PrimaryID"), Identifiers.HasComponent, this);
+			references[9] = new OmsReference(blockObject, getVariableNodeId("PrimaryID"), Identifiers.HasComponent, this);
 			// Subject
-			references[10] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Subject"), Identifiers.HasComponent, this);
+			references[10] = new OmsReference(blockObject, getVariableNodeId("Subject"), Identifiers.HasComponent, this);
 			// Title
-			references[11] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Title"), Identifiers.HasComponent, this);
+			references[11] = new OmsReference(blockObject, getVariableNodeId("Title"), Identifiers.HasComponent, this);
 			// Type
-			references[12] = new OmsReference(blockObject, new ExpandedNodeId(null, getNamespaceIndex(), "Type"), Identifiers.HasComponent, this);
+			references[12] = new OmsReference(blockObject, getVariableNodeId("Type"), Identifiers.HasComponent, this);
 
 			// Block deletion method
 //			if (!(block instanceof OMMSecurityBlock))
@@ -214,7 +324,7 @@ public class NodeManagerBlock extends NodeManager {
 			// Inverse reference to the block
 			references[0] = new OmsReference(blockObject, variable, Identifiers.HasComponent, this);
 			// Type definition reference
-			references[1] = new OmsReference(variable, new ExpandedNodeId(Identifiers.VariableNode), Identifiers.HasTypeDefinition, this);
+			references[1] = new OmsReference(variable, OmsInternPool.getNodeId(Identifiers.VariableNode), Identifiers.HasTypeDefinition, this);
 
 			return references;
 		}
@@ -305,6 +415,316 @@ public class NodeManagerBlock extends NodeManager {
 		this.blockObject = blockObject;
 	}
 	
+	// downloads the current version of the block on its own (null if it could not be downloaded)
+	private OMMBlock fetch () {
+		
+		OMMRestImpl singleAccess = new OMMRestImpl(memoryNodeManager.getMemoryURL(), OMMRestAccessMode.SingleAccess, null);
+		try {
+			return singleAccess.getBlock(blockId);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Makes a downloaded version of the block the known one. 
+	 * A payload large enough for the payload store is moved there, and the known version is kept as a copy without it, so 
+	 * the payload is held once and off the heap. Smaller payloads stay in the known version.
+	 * 
+	 * @param full The downloaded block including its payload
+	 * @param storePayload Whether the payload has to be (re-)stored, false if the store already holds this payload
+	 */
+	private void retain (OMMBlock full, boolean storePayload) {
+		
+		if (storePayload) payloadStored = payloadStore.put(memoryNodeManager.getMemoryName(), blockId, OmsParser.parsePayload(full));
+		if (!payloadStored) {
+			block = full;
+			return;
+		}
+		
+		changeDetector.prime(full); // the payload hash cannot be computed from the copy anymore
+		block = withoutPayload(full);
+	}
+	
+	// copies a block without its payload (the block itself if it cannot be copied)
+	private static OMMBlock withoutPayload (OMMBlock full) {
+		
+		try {
+			OMMBlock copy = OMMBlockImpl.create(full.getID(), full.getPrimaryID(), full.getNamespace(), full.getType(), full.getTitle(), 
+					full.getDescription(), full.getContributors(), full.getCreator(), full.getFormat(), full.getSubject(), null, null, full.getLink(), null);
+			if (copy != null) return copy;
+		}
+		catch (Exception e) {
+			System.err.println("Block "+full.getID()+" could not be copied without its payload.");
+			e.printStackTrace();
+		}
+		return full;
+	}
+	
+	/**
+	 * Gets the ExpandedNodeId of the block object handled by this NodeManager.
+	 * 
+	 * @return The block object's ExpandedNodeId
+	 */
+	public ExpandedNodeId getBlockObject () {
+		return blockObject;
+	}
+	
+	/**
+	 * Gets the currently known version of the block handled by this NodeManager. 
+	 * (The payload of a block is only included if it is too small for the payload store, see {@link #readPayload()}.)
+	 * 
+	 * @return The OMMBlock
+	 */
+	public OMMBlock getBlock () {
+		return block;
+	}
+	
+	/**
+	 * Replaces the modeled block with a freshly downloaded version of it. 
+	 * Only the cached values of changed variables are dropped, and only monitored items of changed variables are notified.
+	 * 
+	 * @param block The downloaded OMMBlock with this manager's block ID
+	 * @return The changed variables (empty if the block has not changed)
+	 */
+	public synchronized BlockChangeSet update (OMMBlock block) {
+		
+		BlockChangeSet changes = changeDetector.detect(this.block, block);
+		if (!changes.isEmpty()) seedHistory(); // keep the previous version before it is replaced
+		if (changes.contains("Type")) history.setBlockType(OmsParser.parseType(block));
+		boolean storePayload = changes.contains("Payload") || (payloadStored && !payloadStore.contains(memoryNodeManager.getMemoryName(), blockId));
+		if (storePayload || !changes.isEmpty()) retain(block, storePayload); // an unchanged block keeps its known version
+		renderedValues.update(this.block, changes.getVariables()); // the version reads are answered from
+		revalidation.observe(changes.getTimeOfLastChange());
+		
+		if (!changes.isEmpty()) {
+			memoryNodeManager.getBlockIndex().update(blockId, block, changes.getVariables());
+			captureHistory(changes.getVariables());
+			notifyMonitoredItems(changes.getVariables());
+		}
+		if (changes.contains("Payload")) 
+			memoryNodeManager.raiseEvent(OmmEventType.PayloadChanged, blockId, OmsParser.parseLastContributor(block), changes.getTimeOfLastChange());
+		return changes;
+	}
+	
+	/**
+	 * Downloads the block again in the background if its revalidation interval has passed, so the caller is answered from 
+	 * the known version right away. The interval adapts to how often the block actually changes (see {@link AdaptiveTtl}). 
+	 * Only one revalidation of the block runs at a time.
+	 */
+	private void revalidateIfDue () {
+		
+		if (!revalidation.isDue() || !revalidating.compareAndSet(false, true)) return;
+		try {
+			revalidator.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						revalidate();
+					}
+					catch (RuntimeException e) {
+						System.err.println("Block "+blockId+" could not be revalidated.");
+						e.printStackTrace();
+					}
+					finally {
+						revalidating.set(false);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			revalidating.set(false);
+		}
+	}
+	
+	/**
+	 * Downloads the block again right away (e.g. because the OMS reported a change).
+	 */
+	void revalidate () {
+		
+		OMMBlock fetched = fetch();
+		if (fetched == null) {
+			// keep the known version (a deleted block disappears with the next block list refresh of its memory)
+			System.err.println("Block "+blockId+" could not be revalidated.");
+			revalidation.touch();
+			return;
+		}
+		
+		update(fetched);
+	}
+	
+	/**
+	 * Gets the current revalidation interval of this block.
+	 * 
+	 * @return Interval in milliseconds
+	 */
+	public long getRevalidationInterval () {
+		return revalidation.getInterval();
+	}
+	
+	// keeps track of monitored block variables (only value changes can be monitored)
+	@Override
+	protected void afterCreateMonitoredDataItem (ServiceContext serviceContext, Subscription subscription, MonitoredDataItem item) {
+		
+		if (!Attributes.Value.equals(item.getAttributeId())) return;
+		monitoredItems.add(item);
+		notificationQueues.add(item);
+		updatePayloadFilter(item);
+		updatePolling();
+	}
+	
+	@Override
+	protected void afterModifyMonitoredDataItem (ServiceContext serviceContext, Subscription subscription, MonitoredDataItem item) {
+		if (!monitoredItems.contains(item)) return;
+		notificationQueues.add(item);
+		updatePayloadFilter(item);
+		updatePolling();
+	}
+	
+	@Override
+	protected void afterDeleteMonitoredDataItem (ServiceContext serviceContext, Subscription subscription, MonitoredDataItem item) {
+		payloadFilters.remove(item);
+		notificationQueues.remove(item);
+		if (monitoredItems.remove(item)) updatePolling();
+	}
+	
+	// sets up the hash or deadband filter of an item monitoring the payload, starting from the current payload
+	private void updatePayloadFilter (MonitoredDataItem item) {
+		
+		if (!item.getNodeId().getValue().toString().equals("Payload")) return;
+		
+		PayloadFilter filter = new PayloadFilter(item.getFilter());
+		filter.accept(PayloadFilter.Sample.of(readPayload()));
+		payloadFilters.put(item, filter);
+	}
+	
+	/**
+	 * Forgets all monitored items of this block (e.g. after the block or its memory has been deleted), so they are no longer 
+	 * notified.
+	 */
+	void close () {
+		
+		for (MonitoredDataItem item : monitoredItems) {
+			payloadFilters.remove(item);
+			notificationQueues.remove(item);
+		}
+		monitoredItems.clear();
+	}
+	
+	/**
+	 * Subscribes this block's memory at the polling scheduler with the shortest sampling interval of the monitored items, 
+	 * or unsubscribes it if no items are left.
+	 */
+	private void updatePolling () {
+		
+		if (monitoredItems.isEmpty()) {
+			memoryNodeManager.unsubscribe(this);
+			return;
+		}
+		
+		double interval = Double.MAX_VALUE;
+		for (MonitoredDataItem item : monitoredItems) {
+			double samplingInterval = item.getSamplingInterval();
+			if (samplingInterval <= 0) samplingInterval = item.getSubscription().getPublishingInterval(); // "as fast as possible"
+			interval = Math.min(interval, samplingInterval);
+		}
+		memoryNodeManager.subscribe(this, interval);
+	}
+	
+	/**
+	 * Sends the current values of changed block variables to their monitored items. 
+	 * (Each value is read only once, however many items monitor it. A changed payload is also hashed and parsed only once 
+	 * and then checked against the filter of each item monitoring it. The values are passed to the items, whose queues are 
+	 * delivered with the next publishing cycle of their subscription, see {@link NotificationQueues}.)
+	 * 
+	 * @param variables Names of the changed variables
+	 */
+	private void notifyMonitoredItems (Collection<String> variables) {
+		
+		HashMap<String, DataValue> values = new HashMap<String, DataValue>();
+		PayloadFilter.Sample payloadSample = null;
+		for (MonitoredDataItem item : monitoredItems) {
+			String nodeName = item.getNodeId().getValue().toString();
+			if (!variables.contains(nodeName)) continue;
+			PayloadFilter filter = payloadFilters.get(item);
+			if (filter != null) {
+				if (payloadSample == null) payloadSample = PayloadFilter.Sample.of(readPayload());
+				if (!filter.accept(payloadSample)) continue;
+			}
+			DataValue value = values.get(nodeName);
+			if (value == null) {
+				value = new DataValue();
+				ioManager.readVariable(nodeName, value);
+				values.put(nodeName, value);
+			}
+			notificationQueues.offer(item, value);
+		}
+	}
+	
+	/**
+	 * Starts the history of the block variables with the currently known version of the block (once).
+	 */
+	private synchronized void seedHistory () {
+		
+		if (history.isSeeded()) return;
+		history.recordContributors(OmsParser.parseContributors(block));
+		captureHistory(Arrays.asList(BlockChangeDetector.VARIABLES));
+		history.setSeeded();
+	}
+	
+	/**
+	 * Adds the current values of block variables to their history. 
+	 * (The history of the contributors is taken from the block's contributor trail instead.)
+	 * 
+	 * @param variables Names of the variables
+	 */
+	private void captureHistory (Collection<String> variables) {
+		
+		if (variables.contains("Contributors")) history.recordContributors(OmsParser.parseContributors(block));
+		for (String nodeName : variables) {
+			if (nodeName.equals("Contributors")) continue;
+			DataValue value = new DataValue();
+			ioManager.readVariable(nodeName, value);
+			if (value.getStatusCode() == null || !value.getStatusCode().isBad()) history.record(nodeName, value);
+		}
+	}
+	
+	/**
+	 * Gets the block's payload, from the off-heap store if it is held there and from the known block otherwise. 
+	 * (A payload which has been evicted from the store is downloaded again and offered to the store once more.)
+	 * 
+	 * @return The payload as a String
+	 */
+	private String readPayload() {
+		
+		if (!payloadStored) return OmsParser.parsePayload(block);
+		
+		String payload = payloadStore.get(memoryNodeManager.getMemoryName(), blockId);
+		if (payload != null) return payload;
+		
+		OMMBlock fetched = fetch();
+		if (fetched == null) {
+			System.err.println("Payload of block "+blockId+" could not be fetched again.");
+			return null;
+		}
+		update(fetched);
+		return OmsParser.parsePayload(fetched);
+	}
+	
+	/**
+	 * Gets the block's payload like {@link #readPayload()}, but never downloads it: a payload which has been evicted from the 
+	 * store is reported as unknown until the next revalidation or poll of the block offers it to the store again.
+	 * 
+	 * @return The payload as a String, or null if it is not held by the server
+	 */
+	String readKnownPayload() {
+		
+		if (!payloadStored) return OmsParser.parsePayload(block);
+		return payloadStore.get(memoryNodeManager.getMemoryName(), blockId);
+	}
+	
 
 	/**
 	 * An IO Manager which provides the values for the attributes of the nodes.
@@ -409,7 +829,7 @@ public class NodeManagerBlock extends NodeManager {
 			else if (attributeId.equals(Attributes.DisplayName))
 				value = getDisplayName(expandedNodeId, node, null);
 			else if (attributeId.equals(Attributes.Description)) 
-				value = new LocalizedText(getNodeDescription(nodeName));	
+				value = isBlockVariable(nodeName) ? OmsInternPool.getDescription(getNodeDescription(nodeName)) : blockDescription; // only fixed texts are pooled
 			else if (attributeId.equals(Attributes.NodeClass))
 				value = getNodeClass(expandedNodeId, node);
 			else if (attributeId.equals(Attributes.WriteMask))
@@ -428,13 +848,13 @@ public class NodeManagerBlock extends NodeManager {
 				value = "null";
 			else if (attributeId.equals(Attributes.AccessLevel))
 				if (isReadOnly(nodeName)) {
-					value = AccessLevel.getMask(AccessLevel.READONLY);
+					value = AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.HistoryRead);
 				}
-				else value = AccessLevel.getMask(AccessLevel.READWRITE);
+				else value = AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite, AccessLevel.HistoryRead);
 			else if (attributeId.equals(Attributes.UserAccessLevel))
-				value = AccessLevel.getMask(AccessLevel.READWRITE);
+				value = AccessLevel.getMask(AccessLevel.CurrentRead, AccessLevel.CurrentWrite, AccessLevel.HistoryRead);
 			else if (attributeId.equals(Attributes.Historizing))
-				value = false;
+				value = history.contains(nodeName);
 			else if (attributeId.equals(Attributes.MinimumSamplingInterval))
 				value = "null";
 
@@ -450,38 +870,41 @@ public class NodeManagerBlock extends NodeManager {
 				NumericRange indexRange, TimestampsToReturn timestampsToReturn, DateTime minTimestamp, DataValue dataValue)
 				throws StatusException {
 
-			Object value = null;
+			revalidateIfDue();
+			readVariable(nodeId.getValue().toString(), dataValue);
+		}
+		
+		/**
+		 * Reads the current value of a block variable from the cached block.
+		 * 
+		 * @param nodeName Name of the node representing the variable
+		 * @param dataValue The DataValue to be filled
+		 */
+		void readVariable(String nodeName, DataValue dataValue) {
+
+			Variant value = null;
 			UnsignedInteger status = StatusCodes.Bad_AttributeIdInvalid;
 			
-			if (nodeId.getValue().toString().equals("Contributors")) 
-				value = OmsParser.parseContributorsAsString(block);
-			else if (nodeId.getValue().toString().equals("Creator")) 
-				value = OmsParser.parseCreator(block);
-			else if (nodeId.getValue().toString().equals("Description")) 
-				value = OmsParser.parseDescription(block);
-			else if (nodeId.getValue().toString().equals("Format")) 
-				value = OmsParser.parseFormat(block);
-			else if (nodeId.getValue().toString().equals("ID")) 
-				value = OmsParser.parseId(block);
-			else if (nodeId.getValue().toString().equals("Link")) 
-				value = OmsParser.parseLink(block);
-			else if (nodeId.getValue().toString().equals("Namespace")) 
-				value = OmsParser.parseNamespace(block);
-			else if (nodeId.getValue().toString().equals("Payload")) 
-				value = OmsParser.parsePayload(block);
-			else if (nodeId.getValue().toString().equals("PrimaryID")) 
-				value = OmsParser.parsePrimaryID(block);
-			else if (nodeId.getValue().toString().equals("Subject")) 
-				value = OmsParser.parseSubject(block);
-			else if (nodeId.getValue().toString().equals("Title")) 
-				value = OmsParser.parseTitle(block);
-			else if (nodeId.getValue().toString().equals("Type")) 
-				value = OmsParser.parseType(block);			
+			// the payload lives in the payload store, everything else is rendered once per block version
+			if (nodeName.equals("Payload")) {
+				String payload = readPayload();
+				if (payload != null) value = new Variant(payload);
+			}
+			else {
+				value = renderedValues.get(block, nodeName);
+				if (value == null) {
+					String rendered = OmsParser.parseVariable(block, nodeName);
+					if (rendered != null) {
+						value = new Variant(rendered);
+						renderedValues.put(block, nodeName, value);
+					}
+				}
+			}
 
 			if (value == null) dataValue.setStatusCode(status);
-			else dataValue.setValue(new Variant(value));
+			else dataValue.setValue(value);
 			dataValue.setServerTimestamp(DateTime.currentTime());
-			dataValue.setSourceTimestamp(OmsParser.getTimeOfLastChange(block)); // if last change is null this will be set to 01.01.1601 01:00:00.000
+			dataValue.setSourceTimestamp(renderedValues.getTimeOfLastChange(block)); // if last change is null this will be set to 01.01.1601 01:00:00.000
 		}
 		
 		// Write Node Value (in certain cases)
@@ -492,30 +915,35 @@ public class NodeManagerBlock extends NodeManager {
 			OMMEntity changer = OMMEntity.getDummyEntity();
 			String nodeName = nodeId.getValue().toString();
 			String newValue = dataValue.getValue().toString();
+			seedHistory(); // keep the version before the write
+			
+			// a known version without its payload is a local copy, so the write goes to a freshly downloaded version
+			OMMBlock target = payloadStored ? fetch() : block;
+			if (target == null) return false;
 			
 			switch (nodeName) {
 				
 			case "Description":
 				OMMMultiLangText description = new OMMMultiLangText(); 
 				description.put(Locale.getDefault(), newValue); // TODO how to choose locale? use UA method instead?
-				block.setDescription(description, changer);
+				target.setDescription(description, changer);
 				// FIXME not fully implemented in OMMBlockRestImpl
 				break;
 
 			case "Link":
 				TypedValue newLink = new GenericTypedValue("url", newValue);
-				block.setLink(newLink, changer);
+				target.setLink(newLink, changer);
 				break;
 				
 			case "Payload":
 				TypedValue newPayload = new GenericTypedValue("text/plain", newValue);
-				block.setPayload(newPayload, changer);
+				target.setPayload(newPayload, changer);
 				break;
 
 			case "Title":
 				OMMMultiLangText title = new OMMMultiLangText(); 
 				title.put(Locale.getDefault(), newValue); // TODO how to choose locale? use UA method instead?
-				block.setTitle(title, changer);
+				target.setTitle(title, changer);
 				// FIXME not fully implemented in OMMBlockRestImpl
 				break;
 				
@@ -523,8 +951,82 @@ public class NodeManagerBlock extends NodeManager {
 				return false;
 			}
 			
+			renderedValues.invalidate();
+			changeDetector.reset(target);
+			memoryNodeManager.getBlockIndex().update(blockId, target, Collections.singleton(nodeName));
+			retain(target, nodeName.equals("Payload") || !payloadStored);
+			captureHistory(Collections.singleton(nodeName));
+			notifyMonitoredItems(Collections.singleton(nodeName));
+			if (nodeName.equals("Payload")) memoryNodeManager.raiseEvent(OmmEventType.PayloadChanged, blockId, changer.toString(), null);
 			return true;
 		}
 	}
 	
+	
+	/**
+	 * A historian which answers history reads of the block variables from the block's {@link BlockHistory}.
+	 */
+	public class HistorianBlock extends HistoryManagerAdapter {
+		
+		private static final int MAX_PROCESSING_INTERVALS = 10000;
+		
+		// Read Raw History (the time range is answered from the history, not from the OMS)
+		@Override
+		public Object onReadRaw(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId, 
+				UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, UnsignedInteger numValuesPerNode, Boolean returnBounds, 
+				NumericRange indexRange, HistoryData historyData) throws StatusException {
+			
+			String nodeName = nodeId.getValue().toString();
+			if (!history.contains(nodeName)) throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+			if (continuationPoint != null && !(continuationPoint instanceof Long)) throw new StatusException(StatusCodes.Bad_ContinuationPointInvalid);
+			
+			Long start = toMillis(startTime);
+			Long end = toMillis(endTime);
+			if (start == null && end == null) throw new StatusException(StatusCodes.Bad_InvalidArgument);
+			
+			// answered from the known history, the latest changes of the block are fetched in the background
+			revalidateIfDue();
+			seedHistory();
+			
+			ArrayList<DataValue> values = new ArrayList<DataValue>();
+			int maxValues = (numValuesPerNode == null) ? 0 : numValuesPerNode.intValue();
+			Long next = history.read(nodeName, start, end, maxValues, Boolean.TRUE.equals(returnBounds), (Long) continuationPoint, values);
+			historyData.setDataValues(values.toArray(new DataValue[values.size()]));
+			return next;
+		}
+		
+		// Read Processed History (aggregates per processing interval, see BlockHistory)
+		@Override
+		public Object onReadProcessed(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId, 
+				UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, Double resampleInterval, NodeId aggregateType, 
+				AggregateConfiguration aggregateConfiguration, NumericRange indexRange, HistoryData historyData) throws StatusException {
+			
+			String nodeName = nodeId.getValue().toString();
+			if (!history.contains(nodeName)) throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+			Aggregate aggregate = Aggregate.fromNodeId(aggregateType);
+			if (aggregate == null) throw new StatusException(StatusCodes.Bad_AggregateNotSupported);
+			
+			Long start = toMillis(startTime);
+			Long end = toMillis(endTime);
+			if (start == null || end == null) throw new StatusException(StatusCodes.Bad_InvalidArgument);
+			long interval = (resampleInterval == null) ? 0 : (long) Math.ceil(resampleInterval);
+			if (BlockHistory.countIntervals(start, end, interval) > MAX_PROCESSING_INTERVALS) throw new StatusException(StatusCodes.Bad_TooManyOperations);
+			
+			// answered from the known history, the latest changes of the block are fetched in the background
+			revalidateIfDue();
+			seedHistory();
+			
+			ArrayList<DataValue> values = new ArrayList<DataValue>();
+			history.readProcessed(nodeName, start, end, interval, aggregate, values);
+			historyData.setDataValues(values.toArray(new DataValue[values.size()]));
+			return null;
+		}
+		
+		// an unspecified time is null or DateTime.MIN_VALUE
+		private Long toMillis (DateTime time) {
+			if (time == null || time.equals(DateTime.MIN_VALUE)) return null;
+			return time.getTimeInMillis();
+		}
+	}
+	
 }
@@ -1,9 +1,12 @@
 package de.dfki.opcua.server;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.opcfoundation.ua.builtintypes.DataValue;
 import org.opcfoundation.ua.builtintypes.DateTime;
@@ -47,11 +50,14 @@ import de.dfki.omm.impl.rest.OMMRestImpl;
 import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.types.OMMRestAccessMode;
 //import de.dfki.oms.security.acl.OMMUsernamePasswordCredentials;
+import de.dfki.opcua.server.event.ModelChangeBatcher;
+import de.dfki.opcua.server.event.OmmEventType;
 import de.dfki.opcua.server.method.OmsMethodChangeACL;
 import de.dfki.opcua.server.method.OmsMethodChangeOwner;
 import de.dfki.opcua.server.method.OmsMethodCreateBlock;
 import de.dfki.opcua.server.method.OmsMethodDeleteOMM;
 import de.dfki.opcua.server.method.OmsMethodSearchBlock;
+import de.dfki.opcua.server.search.BlockIndex;
 
 
 /**
@@ -66,8 +72,12 @@ public class NodeManagerOmm extends NodeManager {
 
 	// OPC UA data
 	private UaServer server;
+	private NodeManagerOms omsNodeManager;
 	private ExpandedNodeId omsFolder;
 	private ExpandedNodeId memoryFolder;
+	private QualifiedName memoryBrowseName; // names of the memory folder (the other names are pooled)
+	private LocalizedText memoryDisplayName;
+	private LocalizedText memoryDescription;
 	private NodeManagerUaNode petManager;
 	
 	// methods
@@ -88,37 +98,59 @@ public class NodeManagerOmm extends NodeManager {
 
 	// OMS data
 	private String memoryName;
-	private OMMRestImpl omm;
 	private String memoryURL;
+	private OmsContext context;
+	private volatile LinkedHashMap<String, NodeManagerBlock> blockNodeManagers = null; // null until the blocks are loaded, replaced as a whole
+	private long blocksLoaded = 0;
+	private volatile boolean closed = false; // set once the memory has been deleted
+	private final BlockIndex blockIndex = new BlockIndex(new BlockIndex.PayloadSource() {
+		@Override
+		public String getPayload(String blockId) {
+			LinkedHashMap<String, NodeManagerBlock> known = blockNodeManagers;
+			NodeManagerBlock blockNodeManager = (known != null) ? known.get(blockId) : null;
+			return (blockNodeManager != null) ? blockNodeManager.readKnownPayload() : null; // searches never call the OMS
+		}
+	});
+	private final Runnable poll = new Runnable() {
+		@Override
+		public void run() {
+			poll();
+		}
+	};
 	
 	/**
 	 * Constructor.
 	 * 
 	 * @param server The server containing this NodeManager
 	 * @param namespace The namespace for this NodeManager
-	 * @param omsFolder ID of the OMS folder, containing this block
+	 * @param omsNodeManager The NodeManager of the OMS containing this memory
 	 * @param memoryURL Full URL of the OMM modeled in this NodeManager 
 	 * @param memoryName Name of the OMM modeled in this NodeManager 
+	 * @param context Resources shared by all node managers of the modeled OMS
 	 */
-	public NodeManagerOmm(UaServer server, String namespace, ExpandedNodeId omsFolder, String memoryURL, String memoryName) {
+	public NodeManagerOmm(UaServer server, String namespace, NodeManagerOms omsNodeManager, String memoryURL, String memoryName, OmsContext context) {
 
 		super(server, namespace);
 
 		// setup OMS information
 		this.memoryName = memoryName;
 		this.memoryURL = memoryURL;
-		omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited, null);
+		this.context = context;
 		petManager = new NodeManagerUaNode(server, namespace+"/pet");
 
 		// setup OPC UA information
 		this.server = server;
-		this.omsFolder = omsFolder;
+		this.omsNodeManager = omsNodeManager;
+		this.omsFolder = omsNodeManager.getOmsFolder();
 		buildOmmDeletionMethod();
 		buildChangeAclMethod();
 		buildChangeOwnerMethod();
 		buildCreateBlockMethod();
 		buildSearchBlockMethod();
-		memoryFolder = null;
+		memoryFolder = OmsInternPool.getNodeId(getNamespaceIndex(), memoryName);
+		memoryBrowseName = new QualifiedName(getNamespaceIndex(), memoryName);
+		memoryDisplayName = new LocalizedText(memoryName, LocalizedText.NO_LOCALE);
+		memoryDescription = new LocalizedText("Folder for OMM "+memoryName);
 
 		// add IOManager (to handle basic server requests)
 		new IoManagerOmm(this);
@@ -352,10 +384,10 @@ public class NodeManagerOmm extends NodeManager {
 //		NodeId searchBlockId = new NodeId(getNamespaceIndex(), "Search for Block");
 //		searchBlockMethod = new OmsMethodSearchBlock(memoryURL, getNodeManagerTable().getNodeManagerRoot(), searchBlockId, "Search for Block", Locale.ENGLISH);
 		NodeId searchBlockId = new NodeId(petManager.getNamespaceIndex(), "Search for Block");
-		searchBlockMethod = new OmsMethodSearchBlock(memoryURL, petManager, searchBlockId, "Search for Block", Locale.ENGLISH);
+		searchBlockMethod = new OmsMethodSearchBlock(memoryURL, blockIndex, context.getSearchCursors(), context.getSearchCache(), context.getPayloadBloomFilters(), petManager, searchBlockId, "Search for Block", Locale.ENGLISH);
 
 		// method arguments
-		Argument[] inputs = new Argument[9];
+		Argument[] inputs = new Argument[12];
 		
 		inputs[0] = new Argument();
 		inputs[0].setName("Namespace");
@@ -412,16 +444,39 @@ public class NodeManagerOmm extends NodeManager {
 		inputs[8].setDataType(Identifiers.String);
 		inputs[8].setValueRank(ValueRanks.Scalar);
 		inputs[8].setDescription(new LocalizedText("Exact link or parts of it",Locale.ENGLISH));
+		
+		inputs[9] = new Argument();
+		inputs[9].setName("Page Size");
+		inputs[9].setDataType(Identifiers.UInt32);
+		inputs[9].setValueRank(ValueRanks.Scalar);
+		inputs[9].setDescription(new LocalizedText("Maximum number of block IDs returned at once (0 for all)",Locale.ENGLISH));
+		
+		inputs[10] = new Argument();
+		inputs[10].setName("Continuation Token");
+		inputs[10].setDataType(Identifiers.String);
+		inputs[10].setValueRank(ValueRanks.Scalar);
+		inputs[10].setDescription(new LocalizedText("Token returned with the previous page to get the next one (empty for a new search)",Locale.ENGLISH));
+		
+		inputs[11] = new Argument();
+		inputs[11].setName("Match All");
+		inputs[11].setDataType(Identifiers.Boolean);
+		inputs[11].setValueRank(ValueRanks.Scalar);
+		inputs[11].setDescription(new LocalizedText("Whether blocks have to contain all queried contents instead of any",Locale.ENGLISH));
 
 		searchBlockMethod.setInputArguments(inputs);
 
-		Argument[] outputs = new Argument[1];
+		Argument[] outputs = new Argument[2];
 		outputs[0] = new Argument();
 		outputs[0].setName("Result");
 		outputs[0].setDataType(Identifiers.String);
 		outputs[0].setValueRank(ValueRanks.ScalarOrOneDimension); 
 		outputs[0].setArrayDimensions(null);
 		outputs[0].setDescription(new LocalizedText("Block ID for block(s) containing queried contents", Locale.ENGLISH));
+		outputs[1] = new Argument();
+		outputs[1].setName("Continuation Token");
+		outputs[1].setDataType(Identifiers.String);
+		outputs[1].setValueRank(ValueRanks.Scalar);
+		outputs[1].setDescription(new LocalizedText("Token to get the next page (empty if there are no further results)", Locale.ENGLISH));
 		searchBlockMethod.setOutputArguments(outputs);
 		
 		// set method node
@@ -435,6 +490,298 @@ public class NodeManagerOmm extends NodeManager {
 		}
 	}
 	
+	/**
+	 * Gets the node managers of all blocks in this memory. 
+	 * The blocks are downloaded on first access, afterwards the block list is fetched again whenever the memory refresh interval 
+	 * has passed. Known blocks are not downloaded again but revalidated by their own node managers.
+	 * 
+	 * @return The block node managers (empty if the blocks could not be loaded)
+	 */
+	public synchronized Collection<NodeManagerBlock> getBlockNodeManagers () {
+		
+		if (closed) return new ArrayList<NodeManagerBlock>();
+		if (blockNodeManagers == null) loadBlocks();
+		else if (System.currentTimeMillis() - blocksLoaded > context.getMemoryRefreshInterval()) refreshBlocks();
+		
+		return new ArrayList<NodeManagerBlock>(blockNodeManagers.values());
+	}
+	
+	/**
+	 * Gets the node managers of all blocks loaded so far without contacting the OMS.
+	 * 
+	 * @return The block node managers (empty if the blocks have not been loaded yet)
+	 */
+	public synchronized Collection<NodeManagerBlock> getLoadedBlockNodeManagers () {
+		
+		if (blockNodeManagers == null) return new ArrayList<NodeManagerBlock>();
+		return new ArrayList<NodeManagerBlock>(blockNodeManagers.values());
+	}
+	
+	/**
+	 * Downloads all blocks of this memory at once and creates their node managers.
+	 */
+	private void loadBlocks () {
+		
+		OMMRestImpl omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited, null); // not kept, the blocks are held by their node managers
+		Collection<OMMBlock> memoryBlocks = null;
+		try {
+			memoryBlocks = omm.getAllBlocks();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		LinkedHashMap<String, NodeManagerBlock> loaded = new LinkedHashMap<String, NodeManagerBlock>();
+		if (memoryBlocks != null) {
+			for (OMMBlock block : memoryBlocks) {
+				String blockId = OmsParser.parseId(block);
+				loaded.put(blockId, createBlockNodeManager(blockId, block));
+			}
+		}
+		
+		replaceBlockNodeManagers(loaded);
+	}
+	
+	/**
+	 * Fetches the current block list of this memory. 
+	 * Only blocks that were not known before are downloaded, node managers of removed blocks are dropped.
+	 */
+	private void refreshBlocks () {
+		
+		OMMRestImpl singleAccess = new OMMRestImpl(memoryURL, OMMRestAccessMode.SingleAccess, null);
+		List<String> blockIds = null;
+		try {
+			blockIds = singleAccess.getAllBlockIDs();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (blockIds == null) {
+			// keep the known blocks and try again after the next interval
+			System.err.println("Block list of memory "+memoryName+" could not be fetched.");
+			blocksLoaded = System.currentTimeMillis();
+			return;
+		}
+		
+		LinkedHashMap<String, NodeManagerBlock> loaded = new LinkedHashMap<String, NodeManagerBlock>();
+		for (String blockId : blockIds) {
+			NodeManagerBlock blockNodeManager = blockNodeManagers.get(blockId);
+			if (blockNodeManager == null) {
+				OMMBlock block = fetchBlock(singleAccess, blockId);
+				if (block == null) continue;
+				blockNodeManager = createBlockNodeManager(blockId, block);
+			}
+			loaded.put(blockId, blockNodeManager);
+		}
+		
+		replaceBlockNodeManagers(loaded);
+	}
+	
+	/**
+	 * Downloads all blocks of this memory in one request and updates the known blocks, which notifies the monitored items of 
+	 * changed block variables. (Called by the polling scheduler while block variables of this memory are monitored.)
+	 */
+	public synchronized void poll () {
+		
+		if (closed) return;
+		if (blockNodeManagers == null) {
+			loadBlocks();
+			return;
+		}
+		
+		OMMRestImpl omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited, null); // not kept, the blocks are held by their node managers
+		Collection<OMMBlock> memoryBlocks = null;
+		try {
+			memoryBlocks = omm.getAllBlocks();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (memoryBlocks == null) {
+			System.err.println("Memory "+memoryName+" could not be polled.");
+			return;
+		}
+		
+		LinkedHashMap<String, NodeManagerBlock> loaded = new LinkedHashMap<String, NodeManagerBlock>();
+		for (OMMBlock block : memoryBlocks) {
+			String blockId = OmsParser.parseId(block);
+			NodeManagerBlock blockNodeManager = blockNodeManagers.get(blockId);
+			if (blockNodeManager == null) blockNodeManager = createBlockNodeManager(blockId, block);
+			else blockNodeManager.update(block);
+			loaded.put(blockId, blockNodeManager);
+		}
+		
+		replaceBlockNodeManagers(loaded);
+	}
+	
+	/**
+	 * Applies a change reported by the OMS (see {@link de.dfki.opcua.server.subscription.OmsChangeEndpoint}). 
+	 * Nothing happens if the blocks of this memory have not been loaded yet.
+	 * 
+	 * @param blockId ID of the changed block, or null if the change concerns the memory as a whole
+	 * @param structural true if the block has been created or deleted, false if it has been modified
+	 */
+	public void applyChange (String blockId, boolean structural) {
+		
+		NodeManagerBlock blockNodeManager;
+		synchronized (this) {
+			if (closed || blockNodeManagers == null) return;
+			if (blockId == null) {
+				poll();
+				return;
+			}
+			blockNodeManager = structural ? null : blockNodeManagers.get(blockId);
+			if (blockNodeManager == null) {
+				refreshBlocks();
+				return;
+			}
+		}
+		
+		blockNodeManager.revalidate();
+	}
+	
+	/**
+	 * Releases everything kept for this memory after it has been deleted: the memory is no longer polled, the monitored items
+	 * of its blocks are forgotten, and its indexed blocks, payloads, payload Bloom filters, cached search results and pooled
+	 * NodeIds are dropped.
+	 */
+	synchronized void close () {
+		
+		closed = true;
+		context.getPollingScheduler().unsubscribeAll(memoryName);
+		if (blockNodeManagers != null) {
+			for (Map.Entry<String, NodeManagerBlock> entry : blockNodeManagers.entrySet()) {
+				entry.getValue().close();
+				blockIndex.remove(entry.getKey());
+			}
+		}
+		context.getPayloadStore().removeMemory(memoryName);
+		context.getPayloadBloomFilters().removeMemory(memoryURL);
+		context.getSearchCache().removeMemory(memoryURL);
+		OmsInternPool.release(getNamespaceIndex());
+	}
+	
+	// sets the current block node managers, announces added and deleted blocks to clients and stops polling for deleted ones
+	private void replaceBlockNodeManagers (LinkedHashMap<String, NodeManagerBlock> loaded) {
+		
+		// drop deleted blocks from the index and the payload store (added blocks are indexed when their node managers are created)
+		if (blockNodeManagers != null) {
+			for (String blockId : blockNodeManagers.keySet()) {
+				if (loaded.containsKey(blockId)) continue;
+				blockIndex.remove(blockId);
+				context.getPayloadStore().remove(memoryName, blockId);
+			}
+		}
+		blockIndex.setLoaded();
+		
+		if (blockNodeManagers != null) {
+			ModelChangeBatcher modelChanges = omsNodeManager.getModelChanges();
+			for (Map.Entry<String, NodeManagerBlock> known : blockNodeManagers.entrySet()) {
+				if (!loaded.containsKey(known.getKey())) {
+					unsubscribe(known.getValue());
+					known.getValue().close(); // its monitored items are no longer notified
+					modelChanges.nodeDeleted(memoryFolder, known.getValue().getBlockObject(), Identifiers.BaseObjectType);
+					raiseEvent(OmmEventType.BlockDeleted, known.getKey(), null, null);
+				}
+			}
+			for (Map.Entry<String, NodeManagerBlock> block : loaded.entrySet()) {
+				if (!blockNodeManagers.containsKey(block.getKey())) {
+					modelChanges.nodeAdded(memoryFolder, block.getValue().getBlockObject(), Identifiers.BaseObjectType);
+					OMMBlock newBlock = block.getValue().getBlock();
+					raiseEvent(OmmEventType.BlockCreated, block.getKey(), OmsParser.parseCreator(newBlock), OmsParser.getTimeOfLastChange(newBlock));
+				}
+			}
+		}
+		
+		blockNodeManagers = loaded;
+		blocksLoaded = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Raises an event of this memory from the memory folder.
+	 * 
+	 * @param type Type of the event
+	 * @param blockId ID of the affected block (null for changes of the memory itself)
+	 * @param contributor Who made the change (null if unknown)
+	 * @param time When the change was made (null for now)
+	 */
+	void raiseEvent (OmmEventType type, String blockId, String contributor, DateTime time) {
+		omsNodeManager.getOmmEvents().raise(memoryFolder, memoryName, type, blockId, contributor, time);
+	}
+	
+	/**
+	 * Fetches the block list right away if the blocks have been loaded before (e.g. after a block has been created).
+	 */
+	synchronized void refreshBlocksNow () {
+		if (!closed && blockNodeManagers != null) refreshBlocks();
+	}
+	
+	/**
+	 * Lets the polling scheduler poll this memory for a block with monitored items.
+	 * 
+	 * @param blockNodeManager The node manager of the monitored block
+	 * @param samplingInterval The shortest sampling interval of the block's monitored items in milliseconds
+	 */
+	void subscribe (NodeManagerBlock blockNodeManager, double samplingInterval) {
+		if (!closed) context.getPollingScheduler().subscribe(memoryName, poll, blockNodeManager, samplingInterval);
+	}
+	
+	/**
+	 * Stops polling this memory for a block (the memory is still polled as long as other blocks are monitored).
+	 * 
+	 * @param blockNodeManager The node manager of the block
+	 */
+	void unsubscribe (NodeManagerBlock blockNodeManager) {
+		context.getPollingScheduler().unsubscribe(memoryName, blockNodeManager);
+	}
+	
+	// indexes a new block and creates its node manager (indexed first, the node manager keeps the block without a stored payload)
+	private NodeManagerBlock createBlockNodeManager (String blockId, OMMBlock block) {
+		
+		blockIndex.add(blockId, block);
+		NodeManagerBlock blockNodeManager = new NodeManagerBlock(server, getNamespaceUri()+"/"+blockId, this, block, context);
+		blockNodeManager.setBlockObject(new ExpandedNodeId(null, blockNodeManager.getNamespaceIndex(), blockId));
+		return blockNodeManager;
+	}
+	
+	private OMMBlock fetchBlock (OMMRestImpl singleAccess, String blockId) {
+		
+		try {
+			return singleAccess.getBlock(blockId);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.err.println("Block "+blockId+" of memory "+memoryName+" could not be fetched.");
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the index of this memory's blocks (complete once the blocks have been loaded).
+	 * 
+	 * @return The block index
+	 */
+	public BlockIndex getBlockIndex () {
+		return blockIndex;
+	}
+	
+	public String getMemoryName () {
+		return memoryName;
+	}
+	
+	public String getMemoryURL () {
+		return memoryURL;
+	}
+	
+	/**
+	 * Gets the ExpandedNodeId of this memory's folder.
+	 * 
+	 * @return The memory folder's ExpandedNodeId
+	 */
+	public ExpandedNodeId getMemoryFolder () {
+		return memoryFolder;
+	}
+	
 	// reacts to method calls from clients
 	@Override
 	protected Variant[] callMethod (ServiceContext serviceContext, NodeId parentNode, NodeId callingNode, Variant[] inputs, StatusCode[] inputArgumentResults, DiagnosticInfo[] dInfos) {
@@ -469,23 +816,26 @@ public class NodeManagerOmm extends NodeManager {
 			if (callingNode.equals(getNamespaceTable().toNodeId(deleteOmmMethodId))) {
 				deleteOmmMethod.initialize(inputs, inputArgumentResults, dInfos, serviceContext.getSession().getUserIdentity());
 				deleteOmmMethod.execute();
-				// TODO a client will have to rebrowse the OMS folder after calling this, making sure the changes show
+				omsNodeManager.getMemoryNames(); // announces the deletion
 			}
 			else if (callingNode.equals(getNamespaceTable().toNodeId(changeACLMethodId))) {
 				changeACLMethod.initialize(inputs, inputArgumentResults, dInfos, serviceContext.getSession().getUserIdentity());
-				changeACLMethod.execute();
+				if (changeACLMethod.execute()) 
+					raiseEvent(OmmEventType.AclChanged, null, serviceContext.getSession().getUserIdentity().getName(), null);
 			}
 			else if (callingNode.equals(getNamespaceTable().toNodeId(changeOwnerMethodId))) {
 				changeOwnerMethod.initialize(inputs, inputArgumentResults, dInfos, serviceContext.getSession().getUserIdentity());
-				changeOwnerMethod.execute();
+				if (changeOwnerMethod.execute()) 
+					raiseEvent(OmmEventType.OwnerChanged, null, serviceContext.getSession().getUserIdentity().getName(), null);
 			}
 			else if (callingNode.equals(getNamespaceTable().toNodeId(createBlockMethodId))) {
 				createBlockMethod.initialize(inputs, inputArgumentResults, dInfos, serviceContext.getSession().getUserIdentity());
 				createBlockMethod.execute();
-				// TODO a client will have to rebrowse the memory folder after calling this, making sure the changes show
+				refreshBlocksNow(); // announces the new block
 			}
 			else if (callingNode.equals(getNamespaceTable().toNodeId(searchBlockMethodId))) {
 				searchBlockMethod.initialize(inputs, inputArgumentResults, dInfos, serviceContext.getSession().getUserIdentity());
+				if (!blockIndex.isLoaded()) getBlockNodeManagers(); // builds the index
 				return searchBlockMethod.executeWithOutput();
 			}
 		} catch (ServiceResultException e) {
@@ -497,12 +847,14 @@ public class NodeManagerOmm extends NodeManager {
 
 	@Override
 	protected QualifiedName getBrowseName(ExpandedNodeId nodeId, UaNode node) {
-		return new QualifiedName(getNamespaceIndex(), nodeId.getValue().toString());
+		String name = nodeId.getValue().toString();
+		return name.equals(memoryName) ? memoryBrowseName : OmsInternPool.getBrowseName(getNamespaceIndex(), name);
 	}
 
 	@Override
 	protected LocalizedText getDisplayName(ExpandedNodeId nodeId, UaNode targetNode, Locale locale) {
-		return new LocalizedText(nodeId.getValue().toString(), LocalizedText.NO_LOCALE);
+		String name = nodeId.getValue().toString();
+		return name.equals(memoryName) ? memoryDisplayName : OmsInternPool.getDisplayName(name);
 	}
 
 	@Override
@@ -531,21 +883,19 @@ public class NodeManagerOmm extends NodeManager {
 			
 			if (nodeId.getValue().toString().equals(memoryName)) {
 
-				if (memoryFolder == null) memoryFolder = getNamespaceTable().toExpandedNodeId(nodeId);
+				context.getAccessStatistics().record(memoryName);
 				
 				// number of references: number of blocks + 8 (see below)
-				Collection<OMMBlock> memoryBlocks = omm.getAllBlocks();
+				Collection<NodeManagerBlock> blockNodeManagers = getBlockNodeManagers();
 				int i = 8;
-				UaReference[] references;
-				if (memoryBlocks != null) references = new UaReference[memoryBlocks.size() + i];
-				else references = new UaReference[i];
+				UaReference[] references = new UaReference[blockNodeManagers.size() + i];
 				
 				// Inverse reference to the OMS folder
 				references[0] = new OmsReference(omsFolder, memoryFolder, Identifiers.Organizes, this);
 				// Type definition reference
-				references[1] = new OmsReference(memoryFolder, new ExpandedNodeId(Identifiers.FolderType), Identifiers.HasTypeDefinition, this);
+				references[1] = new OmsReference(memoryFolder, OmsInternPool.getNodeId(Identifiers.FolderType), Identifiers.HasTypeDefinition, this);
 				// Owner
-				references[2] = new OmsReference(memoryFolder, new ExpandedNodeId(null, getNamespaceIndex(), "Owner"), Identifiers.HasProperty, this);
+				references[2] = new OmsReference(memoryFolder, OmsInternPool.getNodeId(getNamespaceIndex(), "Owner"), Identifiers.HasProperty, this);
 				// Change ACL method
 				references[3] = new OmsReference(memoryFolder, changeACLMethodId, Identifiers.HasComponent, this);
 				// Change Owner method
@@ -558,15 +908,9 @@ public class NodeManagerOmm extends NodeManager {
 				references[7] = new OmsReference(memoryFolder, deleteOmmMethodId, Identifiers.HasComponent, this);
 				
 				//  Block references
-				if (memoryBlocks != null) {
-					for (OMMBlock block : memoryBlocks) {
-						String blockId = OmsParser.parseId(block);
-						NodeManagerBlock blockNodeManager = new NodeManagerBlock(server, getNamespaceUri()+"/"+blockId, memoryFolder, block, omm);
-						ExpandedNodeId blockObject = new ExpandedNodeId(null, blockNodeManager.getNamespaceIndex(), blockId);
-						blockNodeManager.setBlockObject(blockObject);
-						references[i] = new OmsReference(memoryFolder, blockObject, Identifiers.HasComponent, this);
-						i++;
-					}
+				for (NodeManagerBlock blockNodeManager : blockNodeManagers) {
+					references[i] = new OmsReference(memoryFolder, blockNodeManager.getBlockObject(), Identifiers.HasComponent, this);
+					i++;
 				}
 
 				return references;
@@ -580,7 +924,7 @@ public class NodeManagerOmm extends NodeManager {
 				// Inverse reference to the creation method
 				references[0] = new OmsReference(memoryFolder, thisNode, Identifiers.HasProperty, this);
 				// Type definition reference
-				references[1] = new OmsReference(thisNode, new ExpandedNodeId(Identifiers.PropertyType), Identifiers.HasTypeDefinition, this);
+				references[1] = new OmsReference(thisNode, OmsInternPool.getNodeId(Identifiers.PropertyType), Identifiers.HasTypeDefinition, this);
 
 				return references;
 			}
@@ -775,18 +1119,18 @@ public class NodeManagerOmm extends NodeManager {
 				value = getDisplayName(expandedNodeId, node, null);
 			else if (attributeId.equals(Attributes.Description))
 				try {
-					if (nodeId.getValue().equals(memoryName)) value = new LocalizedText("Folder for OMM "+memoryName);
-					else if (nodeId.getValue().equals("Delete OMM")) value = new LocalizedText("A Method to delete this OMM");
-					else if (nodeId.getValue().equals("Owner")) value = new LocalizedText("The owner of this OMM");
-					else if (nodeId.getValue().equals("Change ACL")) value = new LocalizedText("A Method to change the ACL of this OMM");
-					else if (nodeId.getValue().equals("Change Owner")) value = new LocalizedText("A Method to change the Owner of this OMM");
-					else if (nodeId.getValue().equals("Create new Block")) value = new LocalizedText("A Method to create a new block in this OMM");
-					else if (nodeId.getValue().equals("Search for Block")) value = new LocalizedText("A Method to search for a block in this OMM by contents");
-					else if (nodeId.equals(getNamespaceTable().toNodeId(changeACLMethodInputs))) value = new LocalizedText("Inputs for the 'Change ACL' Method");
-					else if (nodeId.equals(getNamespaceTable().toNodeId(changeOwnerMethodInputs))) value = new LocalizedText("Inputs for the 'Change Owner' Method");
-					else if (nodeId.equals(getNamespaceTable().toNodeId(createBlockMethodInputs))) value = new LocalizedText("Inputs for the 'Create Block' Method");
-					else if (nodeId.equals(getNamespaceTable().toNodeId(searchBlockMethodInputs))) value = new LocalizedText("Inputs for the 'Search Block' Method");
-					else value = new LocalizedText("No description available"); 
+					if (nodeId.getValue().equals(memoryName)) value = memoryDescription;
+					else if (nodeId.getValue().equals("Delete OMM")) value = OmsInternPool.getDescription("A Method to delete this OMM");
+					else if (nodeId.getValue().equals("Owner")) value = OmsInternPool.getDescription("The owner of this OMM");
+					else if (nodeId.getValue().equals("Change ACL")) value = OmsInternPool.getDescription("A Method to change the ACL of this OMM");
+					else if (nodeId.getValue().equals("Change Owner")) value = OmsInternPool.getDescription("A Method to change the Owner of this OMM");
+					else if (nodeId.getValue().equals("Create new Block")) value = OmsInternPool.getDescription("A Method to create a new block in this OMM");
+					else if (nodeId.getValue().equals("Search for Block")) value = OmsInternPool.getDescription("A Method to search for a block in this OMM by contents");
+					else if (nodeId.equals(getNamespaceTable().toNodeId(changeACLMethodInputs))) value = OmsInternPool.getDescription("Inputs for the 'Change ACL' Method");
+					else if (nodeId.equals(getNamespaceTable().toNodeId(changeOwnerMethodInputs))) value = OmsInternPool.getDescription("Inputs for the 'Change Owner' Method");
+					else if (nodeId.equals(getNamespaceTable().toNodeId(createBlockMethodInputs))) value = OmsInternPool.getDescription("Inputs for the 'Create Block' Method");
+					else if (nodeId.equals(getNamespaceTable().toNodeId(searchBlockMethodInputs))) value = OmsInternPool.getDescription("Inputs for the 'Search Block' Method");
+					else value = OmsInternPool.getDescription("No description available"); 
 				} catch (ServiceResultException e) {
 					e.printStackTrace();
 				}
@@ -795,7 +1139,8 @@ public class NodeManagerOmm extends NodeManager {
 			else if (attributeId.equals(Attributes.WriteMask))
 				value = UnsignedInteger.ZERO;
 			else if (attributeId.equals(Attributes.EventNotifier))
-				value = EventNotifierClass.getMask(EventNotifierClass.NONE);
+				if (nodeId.getValue().toString().equals(memoryName)) value = EventNotifierClass.getMask(EnumSet.of(EventNotifierClass.SubscribeToEvents)); // model change events
+				else value = EventNotifierClass.getMask(EventNotifierClass.NONE);
 			
 			// Deliver attribute values for memory properties
 			else if (attributeId.equals(Attributes.DataType))
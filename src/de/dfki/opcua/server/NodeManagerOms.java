@@ -1,8 +1,17 @@
 
 package de.dfki.opcua.server;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.dfki.opcua.server.method.OmsMethodLoadRobotML;
 import org.opcfoundation.ua.builtintypes.DataValue;
@@ -39,7 +48,17 @@ import com.prosysopc.ua.server.ServiceContext;
 import com.prosysopc.ua.server.UaServer;
 import com.prosysopc.ua.types.opcua.FolderType;
 
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.opcua.server.event.ModelChangeBatcher;
+import de.dfki.opcua.server.event.OmmEventEmitter;
 import de.dfki.opcua.server.method.OmsMethodCreateOMM;
+import de.dfki.opcua.server.method.OmsMethodSearchAllMemories;
+import de.dfki.opcua.server.method.OmsMethodSearchBySubject;
+import de.dfki.opcua.server.search.BlockIndex;
+import de.dfki.opcua.server.search.MemorySearch;
+import de.dfki.opcua.server.search.SearchField;
 
 
 /**
@@ -53,35 +72,53 @@ public class NodeManagerOms extends NodeManager {
 	// OPC UA data
 	private UaServer server;
 	private ExpandedNodeId omsFolder;
+	private ExpandedNodeId diagnosticsFolder;
 	private NodeManagerUaNode petManager;
 	private ExpandedNodeId createOmmMethodId;
 	private OmsMethodCreateOMM createOmmMethod;
 	private ExpandedNodeId loadRobotMLMethodId;
 	private OmsMethodLoadRobotML loadRobotMLMethod;
+	private ExpandedNodeId searchAllMemoriesMethodId;
+	private OmsMethodSearchAllMemories searchAllMemoriesMethod;
+	private ExpandedNodeId searchBySubjectMethodId;
+	private OmsMethodSearchBySubject searchBySubjectMethod;
+	private ModelChangeBatcher modelChanges;
+	private OmmEventEmitter ommEvents;
 	
 	// OMS data
 	private String omsURL;
 	private ArrayList<String> memoryNames;
+	private OmsContext context;
+	private ConcurrentHashMap<String, NodeManagerOmm> memoryNodeManagers = new ConcurrentHashMap<String, NodeManagerOmm>();
+	private MemorySearch memorySearch;
 	
 	/**
 	 * Basic constructor. 
 	 *
 	 * @param server The server on which this node manager is running
 	 * @param namespaceUri This node manager's namespace
+	 * @param context Resources shared by all node managers of the modeled OMS
 	 */
-	public NodeManagerOms (UaServer server, String namespaceUri, String omsURL) {
+	public NodeManagerOms (UaServer server, String namespaceUri, OmsContext context) {
 		
 		super(server, namespaceUri);
 		
 		// setup OMS information
-		this.omsURL = omsURL;
+		this.omsURL = context.getOmsURL();
+		this.context = context;
 		
 		// setup OPC UA information
 		this.server = server; 
 		petManager = new NodeManagerUaNode(server, namespaceUri+"/pet");
-		omsFolder = new ExpandedNodeId(null, getNamespaceIndex(), "OMS");		
+		omsFolder = OmsInternPool.getNodeId(getNamespaceIndex(), "OMS");		
+		diagnosticsFolder = OmsInternPool.getNodeId(getNamespaceIndex(), "Diagnostics");
 		buildOmmCreationMethod();
 		buildRobotMLLoadMethod();
+		buildSearchAllMemoriesMethod();
+		buildSearchBySubjectMethod();
+		registerDiagnostics();
+		modelChanges = new ModelChangeBatcher(petManager);
+		ommEvents = new OmmEventEmitter(petManager);
 
 		// create OMS folder inside Objects
 		try {
@@ -178,6 +215,464 @@ public class NodeManagerOms extends NodeManager {
 	}
 
 
+	/**
+	 * Adds a method to the OMS folder that lets you search for blocks with certain contents in all memories.
+	 */
+	private void buildSearchAllMemoriesMethod() {
+
+		// searches the block index of every loaded memory, the blocks of all other memories are downloaded but not loaded
+		memorySearch = new MemorySearch(new MemorySearch.Source() {
+			@Override
+			public List<String> getMemoryNames() {
+				return NodeManagerOms.this.getMemoryNames();
+			}
+			@Override
+			public BlockIndex getIndex(String memoryName) {
+				NodeManagerOmm memoryNodeManager = memoryNodeManagers.get(memoryName);
+				if (memoryNodeManager == null || !memoryNodeManager.getBlockIndex().isLoaded()) return null;
+				return memoryNodeManager.getBlockIndex();
+			}
+			@Override
+			public Collection<OMMBlock> getBlocks(String memoryName) {
+				OMMRestImpl omm = new OMMRestImpl(omsURL+"/rest/"+memoryName, OMMRestAccessMode.CompleteDownloadUnlimited, null);
+				try {
+					return omm.getAllBlocks();
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+					return null;
+				}
+			}
+			@Override
+			public long getRefreshInterval() {
+				return context.getMemoryRefreshInterval(); // as for the block lists of loaded memories
+			}
+		}, MemorySearch.DEFAULT_PARALLELISM);
+
+		// new method
+		NodeId searchAllMemoriesId = new NodeId(petManager.getNamespaceIndex(), "Search All Memories");
+		searchAllMemoriesMethod = new OmsMethodSearchAllMemories(memorySearch, context.getSearchCursors(), petManager, searchAllMemoriesId, "Search All Memories", Locale.ENGLISH);
+
+		// method arguments (the same criteria as "Search for Block" of a memory folder, a limit, paging and the match mode)
+		String[] descriptions = { "Exact namespace to search for or parts of it", 
+				"Exact format/encoding of the block payload or parts of it", 
+				"Exact name of the creator or parts of it", 
+				"Exact title or parts of it (all languages are checked)", 
+				"Exact description or parts of it (all languages are checked)", 
+				"Exact type to search for or parts of it", 
+				"Exact subject or parts of subject tags", 
+				"Exact payload or parts of it (only plain text)", 
+				"Exact link or parts of it" };
+		SearchField[] fields = SearchField.values();
+		Argument[] inputs = new Argument[fields.length + 4];
+		for (int i = 0; i < fields.length; i++) {
+			inputs[i] = new Argument();
+			inputs[i].setName(fields[i].name());
+			inputs[i].setDataType(Identifiers.String);
+			inputs[i].setValueRank(ValueRanks.Scalar);
+			inputs[i].setDescription(new LocalizedText(descriptions[i], Locale.ENGLISH));
+		}
+		inputs[fields.length] = new Argument();
+		inputs[fields.length].setName("Limit");
+		inputs[fields.length].setDataType(Identifiers.UInt32);
+		inputs[fields.length].setValueRank(ValueRanks.Scalar);
+		inputs[fields.length].setDescription(new LocalizedText("Maximum number of results (0 for all)", Locale.ENGLISH));
+		inputs[fields.length + 1] = new Argument();
+		inputs[fields.length + 1].setName("Page Size");
+		inputs[fields.length + 1].setDataType(Identifiers.UInt32);
+		inputs[fields.length + 1].setValueRank(ValueRanks.Scalar);
+		inputs[fields.length + 1].setDescription(new LocalizedText("Maximum number of results returned at once (0 for all)", Locale.ENGLISH));
+		inputs[fields.length + 2] = new Argument();
+		inputs[fields.length + 2].setName("Continuation Token");
+		inputs[fields.length + 2].setDataType(Identifiers.String);
+		inputs[fields.length + 2].setValueRank(ValueRanks.Scalar);
+		inputs[fields.length + 2].setDescription(new LocalizedText("Token returned with the previous page to get the next one (empty for a new search)", Locale.ENGLISH));
+		inputs[fields.length + 3] = new Argument();
+		inputs[fields.length + 3].setName("Match All");
+		inputs[fields.length + 3].setDataType(Identifiers.Boolean);
+		inputs[fields.length + 3].setValueRank(ValueRanks.Scalar);
+		inputs[fields.length + 3].setDescription(new LocalizedText("Whether blocks have to contain all queried contents instead of any", Locale.ENGLISH));
+		searchAllMemoriesMethod.setInputArguments(inputs);
+
+		Argument[] outputs = new Argument[4];
+		outputs[0] = new Argument();
+		outputs[0].setName("Memories");
+		outputs[0].setDataType(Identifiers.String);
+		outputs[0].setValueRank(ValueRanks.OneDimension);
+		outputs[0].setDescription(new LocalizedText("Names of the memories containing the found blocks", Locale.ENGLISH));
+		outputs[1] = new Argument();
+		outputs[1].setName("Block IDs");
+		outputs[1].setDataType(Identifiers.String);
+		outputs[1].setValueRank(ValueRanks.OneDimension);
+		outputs[1].setDescription(new LocalizedText("IDs of the found blocks (in the order of the memories)", Locale.ENGLISH));
+		outputs[2] = new Argument();
+		outputs[2].setName("Continuation Token");
+		outputs[2].setDataType(Identifiers.String);
+		outputs[2].setValueRank(ValueRanks.Scalar);
+		outputs[2].setDescription(new LocalizedText("Token to get the next page (empty if there are no further results)", Locale.ENGLISH));
+		outputs[3] = new Argument();
+		outputs[3].setName("Unsearched Memories");
+		outputs[3].setDataType(Identifiers.String);
+		outputs[3].setValueRank(ValueRanks.OneDimension);
+		outputs[3].setDescription(new LocalizedText("Names of the memories that could not be downloaded and are missing from the results (first page only)", Locale.ENGLISH));
+		searchAllMemoriesMethod.setOutputArguments(outputs);
+
+		// set method node
+		searchAllMemoriesMethodId = new ExpandedNodeId(searchAllMemoriesId);
+
+		// add method to pet manager
+		try {
+			petManager.addNode(searchAllMemoriesMethod);
+		} catch (StatusException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds a method to the OMS folder that lets you search for blocks tagged with a subject concept in all memories.
+	 */
+	private void buildSearchBySubjectMethod() {
+
+		// new method (uses the search over all memories)
+		NodeId searchBySubjectId = new NodeId(petManager.getNamespaceIndex(), "Search by Subject");
+		searchBySubjectMethod = new OmsMethodSearchBySubject(memorySearch, context, petManager, searchBySubjectId, "Search by Subject", Locale.ENGLISH);
+
+		// method arguments
+		Argument[] inputs = new Argument[5];
+		inputs[0] = new Argument();
+		inputs[0].setName("Concept");
+		inputs[0].setDataType(Identifiers.String);
+		inputs[0].setValueRank(ValueRanks.Scalar);
+		inputs[0].setDescription(new LocalizedText("IRI of an ontology concept or text of a subject tag", Locale.ENGLISH));
+		inputs[1] = new Argument();
+		inputs[1].setName("Include Narrower");
+		inputs[1].setDataType(Identifiers.Boolean);
+		inputs[1].setValueRank(ValueRanks.Scalar);
+		inputs[1].setDescription(new LocalizedText("Whether blocks tagged with narrower concepts are found as well", Locale.ENGLISH));
+		inputs[2] = new Argument();
+		inputs[2].setName("Limit");
+		inputs[2].setDataType(Identifiers.UInt32);
+		inputs[2].setValueRank(ValueRanks.Scalar);
+		inputs[2].setDescription(new LocalizedText("Maximum number of results (0 for all)", Locale.ENGLISH));
+		inputs[3] = new Argument();
+		inputs[3].setName("Page Size");
+		inputs[3].setDataType(Identifiers.UInt32);
+		inputs[3].setValueRank(ValueRanks.Scalar);
+		inputs[3].setDescription(new LocalizedText("Maximum number of results returned at once (0 for all)", Locale.ENGLISH));
+		inputs[4] = new Argument();
+		inputs[4].setName("Continuation Token");
+		inputs[4].setDataType(Identifiers.String);
+		inputs[4].setValueRank(ValueRanks.Scalar);
+		inputs[4].setDescription(new LocalizedText("Token returned with the previous page to get the next one (empty for a new search)", Locale.ENGLISH));
+		searchBySubjectMethod.setInputArguments(inputs);
+
+		Argument[] outputs = new Argument[4];
+		outputs[0] = new Argument();
+		outputs[0].setName("Memories");
+		outputs[0].setDataType(Identifiers.String);
+		outputs[0].setValueRank(ValueRanks.OneDimension);
+		outputs[0].setDescription(new LocalizedText("Names of the memories containing the found blocks", Locale.ENGLISH));
+		outputs[1] = new Argument();
+		outputs[1].setName("Block IDs");
+		outputs[1].setDataType(Identifiers.String);
+		outputs[1].setValueRank(ValueRanks.OneDimension);
+		outputs[1].setDescription(new LocalizedText("IDs of the found blocks (in the order of the memories)", Locale.ENGLISH));
+		outputs[2] = new Argument();
+		outputs[2].setName("Continuation Token");
+		outputs[2].setDataType(Identifiers.String);
+		outputs[2].setValueRank(ValueRanks.Scalar);
+		outputs[2].setDescription(new LocalizedText("Token to get the next page (empty if there are no further results)", Locale.ENGLISH));
+		outputs[3] = new Argument();
+		outputs[3].setName("Unsearched Memories");
+		outputs[3].setDataType(Identifiers.String);
+		outputs[3].setValueRank(ValueRanks.OneDimension);
+		outputs[3].setDescription(new LocalizedText("Names of the memories that could not be downloaded and are missing from the results (first page only)", Locale.ENGLISH));
+		searchBySubjectMethod.setOutputArguments(outputs);
+
+		// set method node
+		searchBySubjectMethodId = new ExpandedNodeId(searchBySubjectId);
+
+		// add method to pet manager
+		try {
+			petManager.addNode(searchBySubjectMethod);
+		} catch (StatusException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/**
+	 * Adds the diagnostic variables of the caches to the Diagnostics folder.
+	 */
+	private void registerDiagnostics () {
+		
+		OmsDiagnostics diagnostics = context.getDiagnostics();
+		
+		// summary of the current revalidation intervals of all loaded blocks ("blocks: n", "min: interval in ms", "median: ...", "max: ...")
+		diagnostics.register("Block Revalidation Intervals", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				ArrayList<Long> intervals = new ArrayList<Long>();
+				for (NodeManagerOmm memoryNodeManager : memoryNodeManagers.values()) {
+					for (NodeManagerBlock blockNodeManager : memoryNodeManager.getLoadedBlockNodeManagers()) {
+						intervals.add(blockNodeManager.getRevalidationInterval());
+					}
+				}
+				if (intervals.isEmpty()) return new String[] { "blocks: 0" };
+				Collections.sort(intervals);
+				return new String[] { "blocks: "+intervals.size(), "min: "+intervals.get(0), "median: "+intervals.get(intervals.size() / 2), 
+						"max: "+intervals.get(intervals.size() - 1) };
+			}
+		});
+		// effective polling interval of every memory with monitored block variables ("memory: interval in ms")
+		diagnostics.register("Polling Intervals", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				ArrayList<String> intervals = new ArrayList<String>();
+				for (Map.Entry<String, Long> interval : context.getPollingScheduler().getIntervals().entrySet()) {
+					intervals.add(interval.getKey()+": "+interval.getValue());
+				}
+				return intervals.toArray(new String[intervals.size()]);
+			}
+		});
+		// data changes offered per publishing interval and beyond the queue sizes, per session ("session: offered/excess")
+		diagnostics.register("Notification Offer Rates", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				ArrayList<String> sessions = new ArrayList<String>();
+				for (Map.Entry<String, long[]> session : context.getNotificationQueues().getSessionMetrics().entrySet()) {
+					sessions.add(session.getKey()+": "+session.getValue()[0]+"/"+session.getValue()[1]);
+				}
+				return sessions.toArray(new String[sessions.size()]);
+			}
+		});
+		diagnostics.register("Poll Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPollingScheduler().getPollCount();
+			}
+		});
+		diagnostics.register("OMM Events Raised", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return ommEvents.getRaisedCount();
+			}
+		});
+		diagnostics.register("OMM Events Sent", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return ommEvents.getSentCount();
+			}
+		});
+		diagnostics.register("Payload Store Used Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadStore().getUsedBytes();
+			}
+		});
+		diagnostics.register("Payload Store Hit Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadStore().getHits();
+			}
+		});
+		diagnostics.register("Payload Store Miss Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadStore().getMisses();
+			}
+		});
+		diagnostics.register("Open Search Cursors", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getSearchCursors().size();
+			}
+		});
+		diagnostics.register("Search Cache Hit Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getSearchCache().getHits();
+			}
+		});
+		diagnostics.register("Search Cache Miss Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getSearchCache().getMisses();
+			}
+		});
+		diagnostics.register("Search Cache Hit Rate", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getSearchCache().getHitRate();
+			}
+		});
+		diagnostics.register("Payload Bloom Filter Skip Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadBloomFilters().getSkipCount();
+			}
+		});
+		diagnostics.register("Payload Bloom Filter Scan Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadBloomFilters().getScanCount();
+			}
+		});
+		diagnostics.register("Payload Bloom Filter Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getPayloadBloomFilters().getBytes();
+			}
+		});
+		diagnostics.register("Concept Hierarchy Size", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return context.getConceptHierarchy().size();
+			}
+		});
+		diagnostics.register("Search Index Trigram Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				long bytes = 0;
+				for (NodeManagerOmm memoryNodeManager : memoryNodeManagers.values()) bytes += memoryNodeManager.getBlockIndex().getTrigramBytes();
+				return bytes;
+			}
+		});
+	}
+	
+	/**
+	 * Checks whether a node is one of the diagnostic variables.
+	 * 
+	 * @param nodeId ID of the node
+	 * @return true if the node is a diagnostic variable
+	 */
+	private boolean isDiagnostic (NodeId nodeId) {
+		return context.getDiagnostics().contains(nodeId.getValue().toString());
+	}
+
+	/**
+	 * Fetches the names of all memories on the OMS and forgets the node managers of memories that no longer exist.
+	 * 
+	 * @return Memory names in a List of Strings
+	 */
+	public List<String> getMemoryNames () {
+		
+		ArrayList<String> names = OmsParser.getOMSMemoryNamesList(omsURL);
+		if (!names.isEmpty()) updateMemoryNames(names); // an empty list may just mean the OMS is unreachable
+		
+		return names;
+	}
+	
+	/**
+	 * Fetches the names of all memories on the OMS like {@link #getMemoryNames()}, but reports an unreachable OMS instead of 
+	 * returning an empty list.
+	 * 
+	 * @return Memory names in a List of Strings
+	 * @throws IOException if the memory list could not be retrieved
+	 */
+	public List<String> fetchMemoryNames () throws IOException {
+		
+		ArrayList<String> names = new ArrayList<String>(Arrays.asList(OmsParser.fetchOMSMemoryNames(omsURL)));
+		if (!names.isEmpty()) updateMemoryNames(names);
+		
+		return names;
+	}
+	
+	/**
+	 * Compares a fetched memory list to the known one, announces added and deleted memories to clients and forgets the 
+	 * node managers and downloaded indexes of deleted memories.
+	 * 
+	 * @param names The fetched memory names
+	 */
+	private synchronized void updateMemoryNames (ArrayList<String> names) {
+		
+		HashSet<String> fetched = new HashSet<String>(names);
+		if (memoryNames != null) {
+			HashSet<String> known = new HashSet<String>(memoryNames);
+			for (String memoryName : memoryNames) {
+				NodeManagerOmm memoryNodeManager = memoryNodeManagers.get(memoryName);
+				if (!fetched.contains(memoryName) && memoryNodeManager != null) 
+					modelChanges.nodeDeleted(omsFolder, memoryNodeManager.getMemoryFolder(), Identifiers.FolderType);
+			}
+			for (String memoryName : names) {
+				if (!known.contains(memoryName)) 
+					modelChanges.nodeAdded(omsFolder, getMemoryNodeManager(memoryName).getMemoryFolder(), Identifiers.FolderType);
+			}
+		}
+		
+		for (String memoryName : memoryNodeManagers.keySet()) {
+			if (!fetched.contains(memoryName)) memoryNodeManagers.get(memoryName).close();
+		}
+		memoryNodeManagers.keySet().retainAll(fetched);
+		if (memoryNames != null && memorySearch != null) {
+			for (String memoryName : memoryNames) {
+				if (!fetched.contains(memoryName)) memorySearch.removeMemory(memoryName);
+			}
+		}
+		memoryNames = names;
+	}
+	
+	/**
+	 * Gets the node manager of a memory, creating it on first access. 
+	 * (Node managers are kept so their loaded blocks can be reused by later browse and read requests.)
+	 * 
+	 * @param memoryName Name of the memory
+	 * @return The memory's node manager
+	 */
+	public NodeManagerOmm getMemoryNodeManager (String memoryName) {
+		
+		NodeManagerOmm memoryNodeManager = memoryNodeManagers.get(memoryName);
+		if (memoryNodeManager == null) {
+			synchronized (memoryNodeManagers) { // node managers register themselves with the server, one at a time
+				memoryNodeManager = memoryNodeManagers.get(memoryName);
+				if (memoryNodeManager == null) {
+					memoryNodeManager = new NodeManagerOmm(server, getNamespaceUri()+"/"+memoryName, this, omsURL+"/rest/"+memoryName, memoryName, context);
+					memoryNodeManagers.put(memoryName, memoryNodeManager);
+				}
+			}
+		}
+		
+		return memoryNodeManager;
+	}
+	
+	/**
+	 * Gets the node manager of a memory if it has been created before.
+	 * 
+	 * @param memoryName Name of the memory
+	 * @return The memory's node manager, or null if the memory has not been accessed yet
+	 */
+	public NodeManagerOmm findMemoryNodeManager (String memoryName) {
+		return memoryNodeManagers.get(memoryName);
+	}
+	
+	/**
+	 * Gets the ExpandedNodeId of the OMS folder.
+	 * 
+	 * @return The OMS folder's ExpandedNodeId
+	 */
+	public ExpandedNodeId getOmsFolder () {
+		return omsFolder;
+	}
+	
+	/**
+	 * Gets the collector of model changes, which announces added and deleted memories and blocks to clients.
+	 * 
+	 * @return The model change batcher
+	 */
+	public ModelChangeBatcher getModelChanges () {
+		return modelChanges;
+	}
+	
+	/**
+	 * Gets the emitter of memory events (block created, payload changed, ...), which are raised from the memory folders.
+	 * 
+	 * @return The OMM event emitter
+	 */
+	public OmmEventEmitter getOmmEvents () {
+		return ommEvents;
+	}
+
+
 	// reacts to method calls from clients
 	@Override
 	protected Variant[] callMethod (ServiceContext serviceContext, NodeId node1, NodeId node2, Variant[] variants, StatusCode[] statuses, DiagnosticInfo[] dInfos) {
@@ -186,11 +681,20 @@ public class NodeManagerOms extends NodeManager {
 			if (node2.equals(getNamespaceTable().toNodeId(createOmmMethodId))) {
 				createOmmMethod.initialize(variants, statuses, dInfos, serviceContext.getSession().getUserIdentity());
 				createOmmMethod.execute();
-				// TODO a client will have to rebrowse the OMS folder after calling this, making sure the changes show
+				getMemoryNames(); // announces the new memory
 			}
 			else if (node2.equals(getNamespaceTable().toNodeId(loadRobotMLMethodId))) {
 				loadRobotMLMethod.initialize(variants, statuses, dInfos, serviceContext.getSession().getUserIdentity());
 				loadRobotMLMethod.execute();
+				getMemoryNames(); // announces the new memories
+			}
+			else if (node2.equals(getNamespaceTable().toNodeId(searchAllMemoriesMethodId))) {
+				searchAllMemoriesMethod.initialize(variants, statuses, dInfos, serviceContext.getSession().getUserIdentity());
+				return searchAllMemoriesMethod.executeWithOutput();
+			}
+			else if (node2.equals(getNamespaceTable().toNodeId(searchBySubjectMethodId))) {
+				searchBySubjectMethod.initialize(variants, statuses, dInfos, serviceContext.getSession().getUserIdentity());
+				return searchBySubjectMethod.executeWithOutput();
 			}
 		} catch (ServiceResultException e) {
 			e.printStackTrace();
@@ -202,19 +706,20 @@ public class NodeManagerOms extends NodeManager {
 	// returns browse name for clients to browse the address space
 	@Override
 	protected QualifiedName getBrowseName (ExpandedNodeId nodeId, UaNode node) {
-		return new QualifiedName(getNamespaceIndex(), nodeId.getValue().toString());
+		return OmsInternPool.getBrowseName(getNamespaceIndex(), nodeId.getValue().toString());
 	}
 
 	// returns display name for clients to show to users
 	@Override
 	protected LocalizedText getDisplayName (ExpandedNodeId nodeId, UaNode targetNode, Locale locale) {
-		return new LocalizedText(nodeId.getValue().toString(), LocalizedText.NO_LOCALE);
+		return OmsInternPool.getDisplayName(nodeId.getValue().toString());
 	}
 
 	// returns node class for clients to request correct attributes
 	@Override
 	protected NodeClass getNodeClass (NodeId nodeId, UaNode node) {
-		return NodeClass.Object; // there is only the "OMS" node on this level 
+		if (isDiagnostic(nodeId)) return NodeClass.Variable;
+		return NodeClass.Object; // apart from diagnostics there are only the "OMS" and "Diagnostics" nodes on this level 
 	}
 
 	// returns an array of references for a requested node, thus creating the address space
@@ -226,30 +731,71 @@ public class NodeManagerOms extends NodeManager {
 			// References for OMS root
 			if (nodeId.equals(getNamespaceTable().toNodeId(omsFolder))) {
 
-				// number of references: number of known OMMs + 3 
-				memoryNames = OmsParser.getOMSMemoryNamesList(omsURL);
-				int i = 4;
+				// number of references: number of known OMMs + 7 
+				List<String> memoryNames = getMemoryNames();
+				int i = 7;
 				UaReference[] references = new UaReference[memoryNames.size() + i];
 				
 				// Inverse reference to the ObjectsFolder
-				references[0] = new OmsReference(new ExpandedNodeId(Identifiers.ObjectsFolder), omsFolder, Identifiers.Organizes, this);
+				references[0] = new OmsReference(OmsInternPool.getNodeId(Identifiers.ObjectsFolder), omsFolder, Identifiers.Organizes, this);
 				// Type definition reference
-				references[1] = new OmsReference(omsFolder, new ExpandedNodeId(Identifiers.FolderType), Identifiers.HasTypeDefinition, this);
+				references[1] = new OmsReference(omsFolder, OmsInternPool.getNodeId(Identifiers.FolderType), Identifiers.HasTypeDefinition, this);
 				// OMM creation method
 				references[2] = new OmsReference(omsFolder, createOmmMethodId, Identifiers.HasComponent, this);
 				// RobotML load method
 				references[3] = new OmsReference(omsFolder, loadRobotMLMethodId, Identifiers.HasComponent, this);
+				// Diagnostics folder
+				references[4] = new OmsReference(omsFolder, diagnosticsFolder, Identifiers.HasComponent, this);
+				// Search method
+				references[5] = new OmsReference(omsFolder, searchAllMemoriesMethodId, Identifiers.HasComponent, this);
+				// Subject search method
+				references[6] = new OmsReference(omsFolder, searchBySubjectMethodId, Identifiers.HasComponent, this);
 
 				// OMM references
 				for (String memoryName : memoryNames) {
-					NodeManagerOmm memoryNodeManager = new NodeManagerOmm(server, getNamespaceUri()+"/"+memoryName, omsFolder, omsURL+"/rest/"+memoryName, memoryName);
-					references[i] = new OmsReference(omsFolder, new ExpandedNodeId(null, memoryNodeManager.getNamespaceIndex(), memoryName), Identifiers.Organizes, this);
+					NodeManagerOmm memoryNodeManager = getMemoryNodeManager(memoryName);
+					references[i] = new OmsReference(omsFolder, memoryNodeManager.getMemoryFolder(), Identifiers.Organizes, this);
 					i++;
 				}
 
 				return references;
 			}
 			
+			// References for the Diagnostics folder
+			if (nodeId.equals(getNamespaceTable().toNodeId(diagnosticsFolder))) {
+
+				List<String> names = context.getDiagnostics().getNames();
+				int i = 2;
+				UaReference[] references = new UaReference[names.size() + i];
+				
+				// Inverse reference to the OMS folder
+				references[0] = new OmsReference(omsFolder, diagnosticsFolder, Identifiers.HasComponent, this);
+				// Type definition reference
+				references[1] = new OmsReference(diagnosticsFolder, OmsInternPool.getNodeId(Identifiers.FolderType), Identifiers.HasTypeDefinition, this);
+
+				// Diagnostic variables
+				for (String name : names) {
+					references[i] = new OmsReference(diagnosticsFolder, OmsInternPool.getNodeId(getNamespaceIndex(), name), Identifiers.HasComponent, this);
+					i++;
+				}
+
+				return references;
+			}
+			
+			// References for a diagnostic variable
+			if (isDiagnostic(nodeId)) {
+				
+				ExpandedNodeId variable = OmsInternPool.getNodeId(getNamespaceIndex(), nodeId.getValue().toString());
+				UaReference[] references = new UaReference[2];
+				
+				// Inverse reference to the Diagnostics folder
+				references[0] = new OmsReference(diagnosticsFolder, variable, Identifiers.HasComponent, this);
+				// Type definition reference
+				references[1] = new OmsReference(variable, OmsInternPool.getNodeId(Identifiers.BaseDataVariableType), Identifiers.HasTypeDefinition, this);
+				
+				return references;
+			}
+			
 		} catch (ServiceResultException e) {
 			throw new RuntimeException(e);
 		} 
@@ -261,8 +807,12 @@ public class NodeManagerOms extends NodeManager {
 	protected ExpandedNodeId getTypeDefinition (ExpandedNodeId nodeId, UaNode node) {
 
 		// if node is OMS folder
-		if (getNamespaceTable().nodeIdEquals(nodeId, omsFolder))
+		if (getNamespaceTable().nodeIdEquals(nodeId, omsFolder) || getNamespaceTable().nodeIdEquals(nodeId, diagnosticsFolder))
 			return getNamespaceTable().toExpandedNodeId(Identifiers.FolderType);
+		
+		// if node is a diagnostic variable
+		if (context.getDiagnostics().contains(nodeId.getValue().toString()))
+			return getNamespaceTable().toExpandedNodeId(Identifiers.BaseDataVariableType);
 
 		return null;
 	}
@@ -270,13 +820,14 @@ public class NodeManagerOms extends NodeManager {
 	// returns the data type of a variable node
 	@Override
 	public NodeId getVariableDataType(NodeId nodeId, UaVariable variable) throws StatusException {
-		return null; // there are no variables on this level
+		if (isDiagnostic(nodeId)) return Identifiers.BaseDataType; // diagnostic values are numbers or Strings
+		return null; // there are no other variables on this level
 	}
 	
 	// If the NodeManager does not know a node, a client can't request it
 	@Override
 	public boolean hasNode(NodeId nodeId) {
-		return (nodeId.getValue().equals("OMS"));
+		return (nodeId.getValue().equals("OMS")) || (nodeId.getValue().equals("Diagnostics")) || isDiagnostic(nodeId);
 	}
 	
 	
@@ -312,15 +863,28 @@ public class NodeManagerOms extends NodeManager {
 //				if (nodeId.getValue().equals("OMS")) value = new String("OPC UA folder in which the OMS contents reside");
 //				else if (nodeId.getValue().equals("Create new OMM")) value = new String("A Method to create a new OMM");
 //				else value = new String("Input arguments for creation method");
-				if (nodeId.getValue().equals("OMS")) value = new LocalizedText("OPC UA folder in which the OMS contents reside");
-				else if (nodeId.getValue().equals("Create new OMM")) value = new LocalizedText("A Method to create a new OMM");
-				else value = new LocalizedText("Input arguments for creation method");
+				if (nodeId.getValue().equals("OMS")) value = OmsInternPool.getDescription("OPC UA folder in which the OMS contents reside");
+				else if (nodeId.getValue().equals("Diagnostics")) value = OmsInternPool.getDescription("Diagnostic values of the OMS mirror");
+				else if (isDiagnostic(nodeId)) value = OmsInternPool.getDescription("Diagnostic value: "+nodeId.getValue());
+				else if (nodeId.getValue().equals("Create new OMM")) value = OmsInternPool.getDescription("A Method to create a new OMM");
+				else if (nodeId.getValue().equals("Search All Memories")) value = OmsInternPool.getDescription("A Method to search for blocks in all OMMs");
+				else if (nodeId.getValue().equals("Search by Subject")) value = OmsInternPool.getDescription("A Method to search for blocks in all OMMs by subject concepts");
+				else value = OmsInternPool.getDescription("Input arguments for creation method");
 			else if (attributeId.equals(Attributes.NodeClass))
 				value = getNodeClass(expandedNodeId, node);
 			else if (attributeId.equals(Attributes.WriteMask))
 				value = UnsignedInteger.ZERO;
 			else if (attributeId.equals(Attributes.EventNotifier))
-				value = EventNotifierClass.getMask(EventNotifierClass.NONE);
+				if (nodeId.getValue().equals("OMS")) value = EventNotifierClass.getMask(EnumSet.of(EventNotifierClass.SubscribeToEvents)); // model change events
+				else value = EventNotifierClass.getMask(EventNotifierClass.NONE);
+			
+			// Deliver attribute values for diagnostic variables
+			else if (isDiagnostic(nodeId) && attributeId.equals(Attributes.DataType))
+				value = Identifiers.BaseDataType;
+			else if (isDiagnostic(nodeId) && attributeId.equals(Attributes.ValueRank))
+				value = ValueRanks.Any;
+			else if (isDiagnostic(nodeId) && attributeId.equals(Attributes.ArrayDimensions))
+				value = null;
 			
 			// Deliver attribute values for method arguments
 			else if (attributeId.equals(Attributes.DataType))
@@ -360,6 +924,8 @@ public class NodeManagerOms extends NodeManager {
 //				}
 //			}
 
+			if (isDiagnostic(nodeId)) value = context.getDiagnostics().getValue(nodeId.getValue().toString());
+
 			if (value == null) dataValue.setStatusCode(status);
 			else dataValue.setValue(new Variant(value));
 			dataValue.setServerTimestamp(DateTime.currentTime());
@@ -0,0 +1,224 @@
+package de.dfki.opcua.server;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.dfki.opcua.server.cache.AccessStatistics;
+import de.dfki.opcua.server.cache.PayloadStore;
+import de.dfki.opcua.server.history.HistoryLog;
+import de.dfki.opcua.server.search.ConceptHierarchy;
+import de.dfki.opcua.server.search.PayloadBloomFilters;
+import de.dfki.opcua.server.search.SearchCache;
+import de.dfki.opcua.server.search.SearchCursors;
+import de.dfki.opcua.server.subscription.NotificationQueues;
+import de.dfki.opcua.server.subscription.OmsPollingScheduler;
+
+/**
+ * Resources shared by all node managers that mirror one OMS.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsContext {
+
+	public static final long DEFAULT_MEMORY_REFRESH_INTERVAL = 30 * 1000; // 30 s
+	public static final long DEFAULT_MIN_BLOCK_REVALIDATION_INTERVAL = 5 * 1000; // 5 s
+	public static final long DEFAULT_MAX_BLOCK_REVALIDATION_INTERVAL = 10 * 60 * 1000; // 10 min
+	public static final int DEFAULT_REVALIDATION_THREADS = 4;
+
+	private final String omsURL;
+	private volatile PayloadStore payloadStore;
+	private final AccessStatistics accessStatistics;
+	private final OmsDiagnostics diagnostics = new OmsDiagnostics();
+	private final OmsPollingScheduler pollingScheduler = new OmsPollingScheduler();
+	private final NotificationQueues notificationQueues = new NotificationQueues();
+	private final SearchCursors searchCursors = new SearchCursors();
+	private final SearchCache searchCache = new SearchCache();
+	private final PayloadBloomFilters payloadBloomFilters = new PayloadBloomFilters();
+	private final ExecutorService revalidator = Executors.newFixedThreadPool(DEFAULT_REVALIDATION_THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "OMS block revalidation "+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private HistoryLog historyLog = null;
+	private volatile ConceptHierarchy conceptHierarchy = new ConceptHierarchy(new HashMap<String, Set<String>>());
+	private long memoryRefreshInterval = DEFAULT_MEMORY_REFRESH_INTERVAL;
+	private long minBlockRevalidationInterval = DEFAULT_MIN_BLOCK_REVALIDATION_INTERVAL;
+	private long maxBlockRevalidationInterval = DEFAULT_MAX_BLOCK_REVALIDATION_INTERVAL;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param omsURL URL of the OMS to be modeled
+	 * @param payloadStore The off-heap store for block payloads of all memories
+	 * @param accessStatistics The access counts of all memories
+	 */
+	public OmsContext(String omsURL, PayloadStore payloadStore, AccessStatistics accessStatistics) {
+		this.omsURL = omsURL;
+		this.payloadStore = payloadStore;
+		this.accessStatistics = accessStatistics;
+	}
+
+	public String getOmsURL() {
+		return omsURL;
+	}
+
+	public PayloadStore getPayloadStore() {
+		return payloadStore;
+	}
+
+	/**
+	 * Replaces the payload store (e.g. by one of memory-mapped files). Has to be called before any block is loaded.
+	 *
+	 * @param payloadStore The new payload store
+	 */
+	public void setPayloadStore(PayloadStore payloadStore) {
+		this.payloadStore = payloadStore;
+	}
+
+	public AccessStatistics getAccessStatistics() {
+		return accessStatistics;
+	}
+
+	public OmsDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	public OmsPollingScheduler getPollingScheduler() {
+		return pollingScheduler;
+	}
+
+	public NotificationQueues getNotificationQueues() {
+		return notificationQueues;
+	}
+
+	/**
+	 * Gets the cursors that keep the further pages of paged searches.
+	 *
+	 * @return The search cursors
+	 */
+	public SearchCursors getSearchCursors() {
+		return searchCursors;
+	}
+
+	/**
+	 * Gets the cache of recent search results.
+	 *
+	 * @return The search cache
+	 */
+	public SearchCache getSearchCache() {
+		return searchCache;
+	}
+
+	/**
+	 * Gets the payload Bloom filters of the blocks found by searches of memories that are not indexed.
+	 *
+	 * @return The payload Bloom filters
+	 */
+	public PayloadBloomFilters getPayloadBloomFilters() {
+		return payloadBloomFilters;
+	}
+
+	/**
+	 * Gets the threads that revalidate blocks in the background, so reads are answered from the known version.
+	 *
+	 * @return The revalidation executor
+	 */
+	public ExecutorService getRevalidator() {
+		return revalidator;
+	}
+
+	/**
+	 * Gets the hierarchy of the concepts used as subject tags, by which subject searches are expanded.
+	 *
+	 * @return The concept hierarchy (empty if none has been loaded)
+	 */
+	public ConceptHierarchy getConceptHierarchy() {
+		return conceptHierarchy;
+	}
+
+	/**
+	 * Sets the hierarchy of the concepts used as subject tags.
+	 *
+	 * @param conceptHierarchy The concept hierarchy
+	 */
+	public void setConceptHierarchy(ConceptHierarchy conceptHierarchy) {
+		this.conceptHierarchy = conceptHierarchy;
+	}
+
+	/**
+	 * Gets the log the value history of all block variables is recorded to.
+	 *
+	 * @return The history log, or null if the history is only kept in memory
+	 */
+	public HistoryLog getHistoryLog() {
+		return historyLog;
+	}
+
+	/**
+	 * Sets the log the value history of all block variables is recorded to. Only blocks loaded afterwards use the log.
+	 *
+	 * @param historyLog The history log (null to keep the history in memory only)
+	 */
+	public void setHistoryLog(HistoryLog historyLog) {
+		this.historyLog = historyLog;
+	}
+
+	/**
+	 * Gets the time after which the block list of a memory is fetched again. <br/>
+	 * Blocks already known are not downloaded again but revalidated individually (see {@link #getMinBlockRevalidationInterval()}).
+	 *
+	 * @return Refresh interval in milliseconds
+	 */
+	public long getMemoryRefreshInterval() {
+		return memoryRefreshInterval;
+	}
+
+	/**
+	 * Sets the time after which the block list of a memory is fetched again.
+	 *
+	 * @param memoryRefreshInterval Refresh interval in milliseconds
+	 */
+	public void setMemoryRefreshInterval(long memoryRefreshInterval) {
+		this.memoryRefreshInterval = memoryRefreshInterval;
+	}
+
+	/**
+	 * Gets the lower bound for the revalidation interval of a single block. <br/>
+	 * Each block adapts its revalidation interval to how often it actually changes, within these bounds.
+	 *
+	 * @return Interval in milliseconds
+	 */
+	public long getMinBlockRevalidationInterval() {
+		return minBlockRevalidationInterval;
+	}
+
+	/**
+	 * Gets the upper bound for the revalidation interval of a single block.
+	 *
+	 * @return Interval in milliseconds
+	 */
+	public long getMaxBlockRevalidationInterval() {
+		return maxBlockRevalidationInterval;
+	}
+
+	/**
+	 * Sets the bounds for the revalidation interval of a single block. Only blocks loaded afterwards use the new bounds.
+	 *
+	 * @param minInterval Shortest interval in milliseconds
+	 * @param maxInterval Longest interval in milliseconds
+	 */
+	public void setBlockRevalidationIntervals(long minInterval, long maxInterval) {
+		this.minBlockRevalidationInterval = minInterval;
+		this.maxBlockRevalidationInterval = Math.max(minInterval, maxInterval);
+	}
+
+}
@@ -0,0 +1,87 @@
+package de.dfki.opcua.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A registry of diagnostic values of an OMS mirror (cache sizes, intervals, counters, ...). <br/>
+ * Each value is computed on demand when a client reads it. The values are presented as variables of the
+ * "Diagnostics" object inside the OMS folder.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsDiagnostics {
+
+	/**
+	 * Provides the current value of one diagnostic variable.
+	 */
+	public interface Value {
+
+		/**
+		 * @return The current value (a String, number or array of them)
+		 */
+		Object get();
+	}
+
+	private final ConcurrentSkipListMap<String, Value> values = new ConcurrentSkipListMap<String, Value>();
+
+	/**
+	 * Adds a diagnostic variable, replacing a previously registered variable with the same name.
+	 *
+	 * @param name	Name of the variable (also used as its node name, so it has to be unique within the OMS namespace)
+	 * @param value	Provider for the variable's value
+	 */
+	public void register(String name, Value value) {
+		values.put(name, value);
+	}
+
+	/**
+	 * Removes a diagnostic variable.
+	 *
+	 * @param name Name of the variable
+	 */
+	public void unregister(String name) {
+		values.remove(name);
+	}
+
+	/**
+	 * Checks whether a diagnostic variable exists.
+	 *
+	 * @param name Name of the variable
+	 * @return true if a variable with this name is registered
+	 */
+	public boolean contains(String name) {
+		return values.containsKey(name);
+	}
+
+	/**
+	 * Gets the names of all diagnostic variables in alphabetical order.
+	 *
+	 * @return The variable names
+	 */
+	public List<String> getNames() {
+		return new ArrayList<String>(values.keySet());
+	}
+
+	/**
+	 * Computes the current value of a diagnostic variable.
+	 *
+	 * @param name Name of the variable
+	 * @return The current value, or null if there is no such variable
+	 */
+	public Object getValue(String name) {
+
+		Value value = values.get(name);
+		if (value == null) return null;
+
+		try {
+			return value.get();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+}
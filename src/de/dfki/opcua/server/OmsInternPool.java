@@ -0,0 +1,164 @@
+package de.dfki.opcua.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+
+/**
+ * A pool of immutable OPC UA values that are shared by all node managers. <br/>
+ * Every memory and block node manager uses the same variable names, method names and descriptions. Instead of creating
+ * new QualifiedNames and LocalizedTexts for each of them on every browse or read, the node managers get one shared
+ * instance per name from this pool. Browse names and NodeIds are pooled per namespace, and only for the OMS and memory
+ * node managers; block node managers keep the few browse names and NodeIds of their own namespace themselves. <br/>
+ * Display names and descriptions are never dropped, so only fixed names and texts may be pooled. Values that differ per
+ * memory or block (e.g. the names of a memory folder) are kept by their node manager.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsInternPool {
+
+	// values without namespace
+	private static final ConcurrentHashMap<String, LocalizedText> names = new ConcurrentHashMap<String, LocalizedText>();
+	private static final ConcurrentHashMap<String, LocalizedText> descriptions = new ConcurrentHashMap<String, LocalizedText>();
+	private static final ConcurrentHashMap<NodeId, ExpandedNodeId> standardNodeIds = new ConcurrentHashMap<NodeId, ExpandedNodeId>();
+
+	// values per namespace index
+	private static final ConcurrentHashMap<Integer, ConcurrentHashMap<String, QualifiedName>> browseNames = new ConcurrentHashMap<Integer, ConcurrentHashMap<String, QualifiedName>>();
+	private static final ConcurrentHashMap<Integer, ConcurrentHashMap<String, ExpandedNodeId>> nodeIds = new ConcurrentHashMap<Integer, ConcurrentHashMap<String, ExpandedNodeId>>();
+
+	/**
+	 * Gets a shared display name (without locale).
+	 *
+	 * @param name The name (a fixed name, not the name of a memory or block)
+	 * @return LocalizedText of the name
+	 */
+	public static LocalizedText getDisplayName (String name) {
+
+		LocalizedText text = names.get(name);
+		if (text == null) {
+			text = new LocalizedText(name, LocalizedText.NO_LOCALE);
+			LocalizedText known = names.putIfAbsent(name, text);
+			if (known != null) text = known;
+		}
+
+		return text;
+	}
+
+	/**
+	 * Gets a shared description.
+	 *
+	 * @param description The description (a fixed text, not one naming a memory or block)
+	 * @return LocalizedText of the description
+	 */
+	public static LocalizedText getDescription (String description) {
+
+		LocalizedText text = descriptions.get(description);
+		if (text == null) {
+			text = new LocalizedText(description);
+			LocalizedText known = descriptions.putIfAbsent(description, text);
+			if (known != null) text = known;
+		}
+
+		return text;
+	}
+
+	/**
+	 * Gets a shared browse name for a node identified by name.
+	 *
+	 * @param namespaceIndex The namespace index of the node
+	 * @param name The node's name
+	 * @return QualifiedName of the node
+	 */
+	public static QualifiedName getBrowseName (int namespaceIndex, String name) {
+
+		ConcurrentHashMap<String, QualifiedName> namespace = getNamespace(browseNames, namespaceIndex);
+		QualifiedName qualifiedName = namespace.get(name);
+		if (qualifiedName == null) {
+			qualifiedName = new QualifiedName(namespaceIndex, name);
+			QualifiedName known = namespace.putIfAbsent(name, qualifiedName);
+			if (known != null) qualifiedName = known;
+		}
+
+		return qualifiedName;
+	}
+
+	/**
+	 * Gets a shared ExpandedNodeId for a node identified by name.
+	 *
+	 * @param namespaceIndex The namespace index of the node
+	 * @param name The node's name
+	 * @return ExpandedNodeId of the node
+	 */
+	public static ExpandedNodeId getNodeId (int namespaceIndex, String name) {
+
+		ConcurrentHashMap<String, ExpandedNodeId> namespace = getNamespace(nodeIds, namespaceIndex);
+		ExpandedNodeId nodeId = namespace.get(name);
+		if (nodeId == null) {
+			nodeId = new ExpandedNodeId(null, namespaceIndex, name);
+			ExpandedNodeId known = namespace.putIfAbsent(name, nodeId);
+			if (known != null) nodeId = known;
+		}
+
+		return nodeId;
+	}
+
+	/**
+	 * Gets a shared ExpandedNodeId for a standard node (e.g. a type or reference type from {@link org.opcfoundation.ua.core.Identifiers}).
+	 *
+	 * @param nodeId The standard node's NodeId
+	 * @return ExpandedNodeId of the node
+	 */
+	public static ExpandedNodeId getNodeId (NodeId nodeId) {
+
+		ExpandedNodeId expandedNodeId = standardNodeIds.get(nodeId);
+		if (expandedNodeId == null) {
+			expandedNodeId = new ExpandedNodeId(nodeId);
+			ExpandedNodeId known = standardNodeIds.putIfAbsent(nodeId, expandedNodeId);
+			if (known != null) expandedNodeId = known;
+		}
+
+		return expandedNodeId;
+	}
+
+	/**
+	 * Drops all values of a namespace (e.g. after the memory it belongs to has been deleted).
+	 *
+	 * @param namespaceIndex The namespace index
+	 */
+	public static void release (int namespaceIndex) {
+		browseNames.remove(namespaceIndex);
+		nodeIds.remove(namespaceIndex);
+	}
+
+	/**
+	 * Gets the number of pooled values, for diagnostics.
+	 *
+	 * @return Number of pooled values
+	 */
+	public static int size () {
+
+		int size = names.size() + descriptions.size() + standardNodeIds.size();
+		for (ConcurrentHashMap<String, QualifiedName> namespace : browseNames.values()) size += namespace.size();
+		for (ConcurrentHashMap<String, ExpandedNodeId> namespace : nodeIds.values()) size += namespace.size();
+
+		return size;
+	}
+
+	// gets (or creates) the values of one namespace
+	private static <T> ConcurrentHashMap<String, T> getNamespace (ConcurrentHashMap<Integer, ConcurrentHashMap<String, T>> pool, int namespaceIndex) {
+
+		ConcurrentHashMap<String, T> namespace = pool.get(namespaceIndex);
+		if (namespace == null) {
+			namespace = new ConcurrentHashMap<String, T>();
+			ConcurrentHashMap<String, T> known = pool.putIfAbsent(namespaceIndex, namespace);
+			if (known != null) namespace = known;
+		}
+
+		return namespace;
+	}
+
+}
@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import org.opcfoundation.ua.builtintypes.LocalizedText;
@@ -24,6 +25,13 @@ import com.prosysopc.ua.server.Session;
 import com.prosysopc.ua.server.UaServer;
 import com.prosysopc.ua.server.UaServerException;
 
+import de.dfki.opcua.server.cache.AccessStatistics;
+import de.dfki.opcua.server.cache.PayloadStore;
+import de.dfki.opcua.server.cache.WarmUpCrawler;
+import de.dfki.opcua.server.history.HistoryLog;
+import de.dfki.opcua.server.search.ConceptHierarchy;
+import de.dfki.opcua.server.subscription.OmsChangeEndpoint;
+
 
 /**
  * Models a a running OMS's contents and functionality as a OPC UA Server.
@@ -41,6 +49,17 @@ public class OmsOpcUaServer {
 //	private String omsURL = "http://oms:10082";   // needed for implementation in linked docker containers
 	private String omsURL = "http://localhost:10082";
 	
+	// cache resources
+	private OmsContext context;
+	private NodeManagerOms nodeManagerOms;
+	private boolean warmUp = false;
+	private int warmUpConnections;
+	private double warmUpStartFraction;
+	private long warmUpTimeout;
+	private List<String> warmUpPriorities = null;
+	private File accessStatisticsFile = null;
+	private OmsChangeEndpoint changeEndpoint = null;
+	
 	
 	/**
 	 * Constructor. Uses default OMS address (http://localhost:10082).
@@ -50,26 +69,219 @@ public class OmsOpcUaServer {
 	 * @param serverName	Name of this server
 	 */
 	public OmsOpcUaServer(int opcuaPort, int httpsPort, String serverName) {
+		this(opcuaPort, httpsPort, serverName, null);
+	}
+	
+	/**
+	 * Constructor. Uses custom OMS address.
+	 * 
+	 * @param opcuaPort		Port number for this server (protocol opc.tcp://)
+	 * @param httpsPort		Port number for this server (protocol https://)
+	 * @param serverName	Name of this server
+	 * @param omsUrl		URL of the OMS to be modeled (null for the default address)
+	 */
+	public OmsOpcUaServer(int opcuaPort, int httpsPort, String serverName, String omsUrl) {
+		if (omsUrl != null) this.omsURL = omsUrl;
+		context = new OmsContext(omsURL, new PayloadStore(), new AccessStatistics());
 		try {
 			initialize(opcuaPort, httpsPort, serverName);
-			new NodeManagerOms(uaServer, "DE/DFKI/OPCUA/OMS", omsURL);
+			nodeManagerOms = new NodeManagerOms(uaServer, "DE/DFKI/OPCUA/OMS", context);
 		} catch (UaServerException | SecureIdentityException | IOException e) {
 			e.printStackTrace();
 			System.err.println("Server could not be created, please check settings.");
 		}
 	}
+
+	/**
+	 * Enables loading memories and their blocks into the cache when the server is started. 
+	 * 
+	 * @param maxConnections	Maximum number of memories loaded in parallel
+	 * @param startFraction		Fraction of memories to be loaded before the endpoint opens 
+	 * 							(0 opens it right away and warms up in the background)
+	 * @param timeout			Maximum time in milliseconds to keep the endpoint closed (0 for no limit)
+	 */
+	public void enableWarmUp(int maxConnections, double startFraction, long timeout) {
+		this.warmUp = true;
+		this.warmUpConnections = maxConnections;
+		this.warmUpStartFraction = startFraction;
+		this.warmUpTimeout = timeout;
+	}
 	
 	/**
-	 * Constructor. Uses custom OMS address.
+	 * Sets the memories to be warmed up first. All other memories follow in order of their recorded accesses.
 	 * 
-	 * @param opcuaPort		Port number for this server (protocol opc.tcp://)
-	 * @param httpsPort		Port number for this server (protocol https://)
-	 * @param serverName	Name of this server
-	 * @param omsUrl		URL of the OMS to be modeled
+	 * @param memoryNames	Names of the memories in order of priority
 	 */
-	public OmsOpcUaServer(int opcuaPort, int httpsPort, String serverName, String omsUrl) {
-		this(opcuaPort, httpsPort, serverName);
-		this.omsURL = omsUrl;
+	public void setWarmUpPriorities(List<String> memoryNames) {
+		this.warmUpPriorities = memoryNames;
+	}
+	
+	/**
+	 * Sets the file memory access statistics are loaded from and saved to on shutdown. 
+	 * The statistics decide the warm-up order of memories without configured priority.
+	 * 
+	 * @param file	The statistics file
+	 */
+	public void setAccessStatisticsFile(File file) {
+		this.accessStatisticsFile = file;
+		context.getAccessStatistics().load(file);
+	}
+	
+	/**
+	 * Enables an HTTP endpoint through which the OMS reports changes of memories and blocks (see {@link OmsChangeEndpoint}). 
+	 * Reported changes update the cache and monitored items right away, so polling is only kept for reconciliation: 
+	 * memories are polled and blocks are revalidated at most once per reconciliation interval.
+	 * 
+	 * Without a secret, the endpoint only accepts notifications from the local host.
+	 * 
+	 * @param address					The address to listen on (e.g. "localhost")
+	 * @param port						The port to listen on
+	 * @param reconciliationInterval	Minimum time between two polls of the same memory or block in milliseconds
+	 */
+	public void enableChangeNotifications(String address, int port, long reconciliationInterval) {
+		enableChangeNotifications(address, port, reconciliationInterval, null);
+	}
+	
+	/**
+	 * Enables an HTTP endpoint through which the OMS reports changes of memories and blocks, accepting only notifications 
+	 * that carry a shared secret as the password of HTTP basic authentication (see {@link OmsChangeEndpoint}).
+	 * 
+	 * @param address					The address to listen on (e.g. "0.0.0.0" to accept notifications from other hosts)
+	 * @param port						The port to listen on
+	 * @param reconciliationInterval	Minimum time between two polls of the same memory or block in milliseconds
+	 * @param secret					The shared secret (null to listen on the local host only)
+	 */
+	public void enableChangeNotifications(String address, int port, long reconciliationInterval, String secret) {
+		
+		changeEndpoint = new OmsChangeEndpoint(nodeManagerOms, address, port, secret);
+		context.getPollingScheduler().setMinInterval(reconciliationInterval);
+		context.setBlockRevalidationIntervals(Math.max(reconciliationInterval, context.getMinBlockRevalidationInterval()), 
+				Math.max(reconciliationInterval, context.getMaxBlockRevalidationInterval()));
+		
+		context.getDiagnostics().register("Change Notifications Received", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return changeEndpoint.getReceivedCount();
+			}
+		});
+		context.getDiagnostics().register("Change Notifications Applied", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return changeEndpoint.getAppliedCount();
+			}
+		});
+	}
+	
+	/**
+	 * Loads the hierarchy of the concepts used as ontology subject tags from an RDF file in N-Triples format (see 
+	 * {@link ConceptHierarchy#load(File)}). The method "Search by Subject" expands concepts to all narrower concepts 
+	 * of this hierarchy.
+	 * 
+	 * @param file	The RDF file
+	 */
+	public void loadConceptHierarchy(File file) {
+		
+		try {
+			context.setConceptHierarchy(ConceptHierarchy.load(file));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Concept hierarchy could not be loaded, subject searches are not expanded.");
+		}
+	}
+	
+	/**
+	 * Keeps large block payloads in memory-mapped files instead of direct buffers, so payloads that are not read can be 
+	 * paged out by the operating system. The files are deleted right away and only live as long as their mappings. 
+	 * Has to be called before {@link #run()}.
+	 * 
+	 * @param directory	The directory for the mapped payload files
+	 */
+	public void mapPayloads(File directory) {
+		context.setPayloadStore(new PayloadStore(PayloadStore.DEFAULT_CAPACITY, PayloadStore.DEFAULT_THRESHOLD, directory));
+	}
+	
+	/**
+	 * Records the value history of all block variables to a log on disk (see {@link HistoryLog}), so history reads cover 
+	 * every value change seen by the server, also across restarts. Without the log, only the most recent values of each 
+	 * variable are kept in memory. Has to be called before {@link #run()}.
+	 * 
+	 * @param directory	The directory holding the log segments
+	 */
+	public void enableHistoryLog(File directory) {
+		
+		final HistoryLog historyLog;
+		try {
+			historyLog = new HistoryLog(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("History log could not be opened, the history is kept in memory only.");
+			return;
+		}
+		context.setHistoryLog(historyLog);
+		
+		context.getDiagnostics().register("History Log Used Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getUsedBytes();
+			}
+		});
+		context.getDiagnostics().register("History Log Disk Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getDiskBytes();
+			}
+		});
+		context.getDiagnostics().register("History Log Reclaimed Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getReclaimedBytes();
+			}
+		});
+		context.getDiagnostics().register("History Log Compacted Segments", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getCompactedSegmentCount();
+			}
+		});
+		context.getDiagnostics().register("History Log Segments", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getSegmentCount();
+			}
+		});
+		context.getDiagnostics().register("History Log Commits", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getCommitCount();
+			}
+		});
+		context.getDiagnostics().register("History Aggregate Cache Hit Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getPartialHitCount();
+			}
+		});
+		context.getDiagnostics().register("History Aggregate Cache Miss Count", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getPartialMissCount();
+			}
+		});
+		context.getDiagnostics().register("History Aggregate Cache Bytes", new OmsDiagnostics.Value() {
+			@Override
+			public Object get() {
+				return historyLog.getPartialBytes();
+			}
+		});
+	}
+	
+	/**
+	 * Gets the resources shared by all node managers of the modeled OMS (e.g. to configure caching).
+	 * 
+	 * @return The OMS context
+	 */
+	public OmsContext getContext() {
+		return context;
 	}
 
 	
@@ -134,6 +346,50 @@ public class OmsOpcUaServer {
 	 */
 	public void run() {
 
+		// save access statistics for the next warm-up
+		if (accessStatisticsFile != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					context.getAccessStatistics().save(accessStatisticsFile);
+				}
+			}));
+		}
+		
+		// commit the remaining history values
+		if (context.getHistoryLog() != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					context.getHistoryLog().close();
+				}
+			}));
+		}
+		
+		// warm up the cache (if enabled) before opening the endpoint
+		if (warmUp) {
+			WarmUpCrawler crawler = new WarmUpCrawler(nodeManagerOms, warmUpConnections, warmUpPriorities, context.getAccessStatistics());
+			crawler.start();
+			try {
+				if (!crawler.awaitFraction(warmUpStartFraction, warmUpTimeout)) {
+					if (crawler.isFailed()) System.err.println("Warm-up failed, memories are loaded on first access.");
+					else System.err.println("Warm-up timed out after "+crawler.getDone()+" of "+crawler.getTotal()+" memories, continuing in the background.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// listen for changes reported by the OMS (if enabled)
+		if (changeEndpoint != null) {
+			try {
+				changeEndpoint.start();
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.err.println("Change notification endpoint could not be started, changes will only be found by polling.");
+			}
+		}
+
 		// start 
 		try {
 			uaServer.start();
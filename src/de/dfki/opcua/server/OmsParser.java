@@ -31,6 +31,10 @@ import de.dfki.omm.types.TypedValue;
  */
 public class OmsParser {
 	
+	// expected rendered lengths, used to size builders for collections
+	private static final int ENTITY_LENGTH_ESTIMATE = 96;
+	private static final int SUBJECT_LENGTH_ESTIMATE = 64;
+	
 	/**
 	 * Fetches the names of all memories on a given OMS.
 	 * 
@@ -42,13 +46,7 @@ public class OmsParser {
 		String[] result = new String[0];
 		
 		try {
-			URL oms = new URL(omsURL+"/mgmt/memoryList");
-			InputStream is = oms.openConnection().getInputStream();
-			BufferedReader br = new BufferedReader(new InputStreamReader(is));
-			String memoryNames = br.readLine();
-			memoryNames = memoryNames.replace("\"", "");
-			memoryNames = memoryNames.substring(1, memoryNames.length()-1);
-			result = memoryNames.split(",");
+			result = fetchOMSMemoryNames(omsURL);
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.err.println("Memory names could not be retrieved from OMS.");
@@ -58,6 +56,25 @@ public class OmsParser {
 		return result;
 	}
 	
+	/**
+	 * Fetches the names of all memories on a given OMS, reporting a failed fetch instead of an empty list.
+	 * 
+	 * @param omsURL the URL to the Object Memory Server
+	 * @return Memory names in an array of Strings
+	 * @throws IOException if the memory list could not be retrieved
+	 */
+	public static String[] fetchOMSMemoryNames (String omsURL) throws IOException {
+		
+		URL oms = new URL(omsURL+"/mgmt/memoryList");
+		InputStream is = oms.openConnection().getInputStream();
+		BufferedReader br = new BufferedReader(new InputStreamReader(is));
+		String memoryNames = br.readLine();
+		if (memoryNames == null) throw new IOException("Empty memory list response from "+omsURL+".");
+		memoryNames = memoryNames.replace("\"", "");
+		memoryNames = memoryNames.substring(1, memoryNames.length()-1);
+		return memoryNames.split(",");
+	}
+	
 	/**
 	 * Fetches the names of all memories on a given OMS.
 	 * 
@@ -123,6 +140,31 @@ public class OmsParser {
 
 		return lastChange;
 	}
+	
+	/**
+	 * Parses a block variable by the name of its node (see {@link NodeManagerBlock}).
+	 * 
+	 * @param block The block
+	 * @param variable Name of the variable, e.g. "Title" (the payload is not included, see {@link #parsePayload(OMMBlock)})
+	 * @return The variable's value as a String, or null if there is no such variable
+	 */
+	public static String parseVariable (OMMBlock block, String variable) {
+		
+		switch (variable) {
+		case "Contributors":	return parseContributorsAsString(block);
+		case "Creator":			return parseCreator(block);
+		case "Description":		return parseDescription(block);
+		case "Format":			return parseFormat(block);
+		case "ID":				return parseId(block);
+		case "Link":			return parseLink(block);
+		case "Namespace":		return parseNamespace(block);
+		case "PrimaryID":		return parsePrimaryID(block);
+		case "Subject":			return parseSubject(block);
+		case "Title":			return parseTitle(block);
+		case "Type":			return parseType(block);
+		default:				return null;
+		}
+	}
 
 	
 	// remaining methods self explanatory
@@ -137,15 +179,23 @@ public class OmsParser {
 
 	public static String parseContributorsAsString (OMMBlock block) {
 		
-		String contributorsString = "";
-		
 		OMMEntityCollection contributors = block.getContributors();
-		if (contributors != null)
-			for (OMMEntity entity : contributors) {
-				contributorsString += entity.toString() + "\n";
-			}
+		if (contributors == null || contributors.isEmpty()) return "";
+		
+		StringBuilder contributorsString = new StringBuilder(contributors.size() * ENTITY_LENGTH_ESTIMATE);
+		for (OMMEntity entity : contributors) {
+			contributorsString.append(entity.toString()).append('\n');
+		}
+
+		return contributorsString.toString();
+	}
 
-		return contributorsString;
+	public static String parseLastContributor(OMMBlock block) {
+		
+		OMMEntityCollection contributors = block.getContributors();
+		if (contributors == null || contributors.isEmpty()) return parseCreator(block);
+		
+		return contributors.getLast().toString();
 	}
 
 	public static String parseCreator(OMMBlock block) {
@@ -162,15 +212,7 @@ public class OmsParser {
 
 	public static String parseDescription(OMMBlock block) {
 
-		String descriptionString = "";
-		
-		OMMMultiLangText descriptions = block.getDescription();
-		if (descriptions != null)
-			for (Entry<Locale, String> description : descriptions.entrySet()) {
-				descriptionString += description.getKey().getLanguage() + ": " + description.getValue() +"\n";
-			}
-
-		return descriptionString;
+		return parseMultiLangText(block.getDescription());
 		
 	}
 
@@ -249,30 +291,46 @@ public class OmsParser {
 
 	public static String parseSubject(OMMBlock block) {
 
-		String subjectString = "";
-		
 		OMMSubjectCollection subjects = block.getSubject();
-		if (subjects != null)
-			for (OMMSubjectTag subject : subjects) {
-				subjectString += subject.toString()+"\n";
-			}
+		if (subjects == null || subjects.isEmpty()) return "";
+		
+		StringBuilder subjectString = new StringBuilder(subjects.size() * SUBJECT_LENGTH_ESTIMATE);
+		for (OMMSubjectTag subject : subjects) {
+			subjectString.append(subject.toString()).append('\n');
+		}
 
-		return subjectString;
+		return subjectString.toString();
 
 	}
 
 	public static String parseTitle(OMMBlock block) {
 
-		String titleString = "";
-		
-		OMMMultiLangText titles = block.getTitle();
-		if (titles != null)
-			for (Entry<Locale, String> title : titles.entrySet()) {
-				titleString += title.getKey().getLanguage() + ": " + title.getValue() +"\n";
-			}
+		return parseMultiLangText(block.getTitle());
 
-		return titleString;
+	}
 
+	/**
+	 * Renders a multi-language text as one line per language ("language: text").
+	 * 
+	 * @param texts The texts to render
+	 * @return The rendered texts, or an empty String
+	 */
+	private static String parseMultiLangText(OMMMultiLangText texts) {
+		
+		if (texts == null || texts.isEmpty()) return "";
+		
+		// size the builder exactly: language code, separator, text and line break per entry
+		int length = 0;
+		for (Entry<Locale, String> text : texts.entrySet()) {
+			length += text.getKey().getLanguage().length() + 3 + String.valueOf(text.getValue()).length();
+		}
+		
+		StringBuilder textString = new StringBuilder(length);
+		for (Entry<Locale, String> text : texts.entrySet()) {
+			textString.append(text.getKey().getLanguage()).append(": ").append(text.getValue()).append('\n');
+		}
+		
+		return textString.toString();
 	}
 
 	public static String parseType(OMMBlock block) {
@@ -0,0 +1,124 @@
+package de.dfki.opcua.server.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+import org.opcfoundation.ua.core.Identifiers;
+
+import de.dfki.opcua.server.NodeManagerBlock;
+import de.dfki.opcua.server.OmsInternPool;
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+
+/**
+ * Measures the names and NodeIds of mirrored blocks before and after the {@link OmsInternPool}. <br/>
+ * "Before" is the former node manager: it keeps nothing, but every browse of a block creates the NodeIds of its
+ * references and the browse name, display name and description of every node anew. "After" is what a
+ * {@link NodeManagerBlock} does now: it keeps the NodeIds, browse names and block object names of its own namespace, and
+ * takes the display names and descriptions of the variables from the pool. For both the heap kept per block and the
+ * heap allocated per browse of a block (its object and all variables) are reported. The rest of a block node manager
+ * (e.g. the SDK's node manager state) is the same in both cases and not measured. <br/>
+ * Usage: BlockFootprintBenchmark [number of blocks, default 10000] [browses per block, default 10]
+ *
+ * @author xekl01
+ *
+ */
+public class BlockFootprintBenchmark {
+
+	private static final String[] VARIABLES = BlockChangeDetector.VARIABLES;
+
+	// consumes all created values, so they cannot be optimized away
+	private static volatile Object kept;
+	private static volatile int sink;
+
+	public static void main(String[] args) {
+
+		int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int browses = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			System.err.println("This JVM does not report allocated bytes.");
+			return;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+		System.out.println("Blocks: "+blocks+", browses per block: "+browses);
+		for (boolean pooled : new boolean[] { false, true }) {
+			ArrayList<Object[]> managers = new ArrayList<Object[]>(blocks);
+			long start = usedMemory();
+			for (int b = 0; b < blocks; b++) managers.add(keep(pooled, 2 + b, "block"+b));
+			long retained = usedMemory() - start;
+			kept = managers;
+
+			browse(pooled, managers, 1); // warm-up, also fills the pool
+			long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+			browse(pooled, managers, browses);
+			allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+			kept = null;
+
+			System.out.println((pooled ? "After: " : "Before:")+String.format(" %6d bytes kept per block, %6d bytes allocated per browse",
+					retained / blocks, allocated / ((long) blocks * browses)));
+		}
+	}
+
+	// values a block node manager keeps for its nodes
+	private static Object[] keep(boolean pooled, int namespaceIndex, String blockId) {
+
+		if (!pooled) return new Object[] { namespaceIndex, blockId };
+		return new Object[] { namespaceIndex, blockId, NodeManagerBlock.createVariableNodeIds(namespaceIndex),
+				NodeManagerBlock.createVariableBrowseNames(namespaceIndex), new QualifiedName(namespaceIndex, blockId),
+				new LocalizedText(blockId, LocalizedText.NO_LOCALE), new LocalizedText("Memory Block with ID "+blockId) };
+	}
+
+	// references, browse names, display names and descriptions of every block object and its variables
+	private static void browse(boolean pooled, ArrayList<Object[]> managers, int browses) {
+
+		int hash = 0;
+		for (int r = 0; r < browses; r++) {
+			for (Object[] manager : managers) {
+				int namespaceIndex = (Integer) manager[0];
+				String blockId = (String) manager[1];
+				if (pooled) {
+					ExpandedNodeId[] nodeIds = (ExpandedNodeId[]) manager[2];
+					QualifiedName[] browseNames = (QualifiedName[]) manager[3];
+					hash += OmsInternPool.getNodeId(Identifiers.BaseObjectType).hashCode();
+					hash += manager[4].hashCode() + manager[5].hashCode() + manager[6].hashCode();
+					for (int i = 0; i < VARIABLES.length; i++) {
+						hash += nodeIds[i].hashCode() + browseNames[i].hashCode();
+						hash += OmsInternPool.getDisplayName(VARIABLES[i]).hashCode();
+						hash += OmsInternPool.getDescription(VARIABLES[i]).hashCode();
+					}
+				}
+				else {
+					hash += new ExpandedNodeId(Identifiers.BaseObjectType).hashCode();
+					hash += new QualifiedName(namespaceIndex, blockId).hashCode() + new LocalizedText(blockId, LocalizedText.NO_LOCALE).hashCode();
+					hash += new LocalizedText("Memory Block with ID "+blockId).hashCode();
+					for (String variable : VARIABLES) {
+						hash += new ExpandedNodeId(null, namespaceIndex, variable).hashCode() + new QualifiedName(namespaceIndex, variable).hashCode();
+						hash += new LocalizedText(variable, LocalizedText.NO_LOCALE).hashCode();
+						hash += new LocalizedText(variable).hashCode();
+					}
+				}
+			}
+		}
+		sink = hash;
+	}
+
+	private static long usedMemory() {
+
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
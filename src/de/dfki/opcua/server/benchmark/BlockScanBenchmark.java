@@ -0,0 +1,114 @@
+package de.dfki.opcua.server.benchmark;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.opcua.server.search.BlockScan;
+import de.dfki.opcua.server.search.SearchField;
+
+/**
+ * Compares the search of blocks that are not indexed before and after the fused scan. <br/>
+ * "Nine passes" is the former search: one pass over all blocks per queried field, rendering the field of every block.
+ * "Fused" is {@link BlockScan}: one pass checking all queried fields of a block, which stops at the first match, once on a
+ * single thread and once split on its fork-join pool. Both are run with queries that match no block (every queried field of
+ * every block is rendered) and with queries of which the first queried field matches most blocks. Payload filters are not
+ * used. <br/>
+ * Usage: BlockScanBenchmark [number of blocks, default 10000] [runs, default 20]
+ *
+ * @author xekl01
+ *
+ */
+public class BlockScanBenchmark {
+
+	public static void main(String[] args) {
+
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		List<OMMBlock> blocks = new SyntheticBlocks(42).create(count, 5, 200);
+
+		String[] none = queries("gearbox", "gearbox", "gearbox", "gearbox", "gearbox");
+		String[] early = queries("urn:bench", "gearbox", "gearbox", "gearbox", "gearbox");
+
+		System.out.println("Blocks: "+count+", runs: "+runs+" (median in ms)");
+		run("No block matches", blocks, none, runs);
+		run("Namespace matches all blocks", blocks, early, runs);
+	}
+
+	// queries namespace, creator, title, description and payload
+	private static String[] queries(String namespace, String creator, String title, String description, String payload) {
+
+		String[] queries = new String[SearchField.values().length];
+		queries[SearchField.Namespace.ordinal()] = namespace;
+		queries[SearchField.Creator.ordinal()] = creator;
+		queries[SearchField.Title.ordinal()] = title;
+		queries[SearchField.Description.ordinal()] = description;
+		queries[SearchField.Payload.ordinal()] = payload;
+		return queries;
+	}
+
+	private static void run(String name, final List<OMMBlock> blocks, final String[] queries, int runs) {
+
+		final BlockScan scan = new BlockScan(queries, false, null, null);
+		Set<String> expected = ninePasses(blocks, queries);
+		if (!expected.equals(scan.scan(blocks))) throw new IllegalStateException("The scans found different blocks.");
+
+		double ninePasses = median(runs, new Runnable() {
+			@Override
+			public void run() {
+				ninePasses(blocks, queries);
+			}
+		});
+		double sequential = median(runs, new Runnable() {
+			@Override
+			public void run() {
+				HashSet<String> results = new HashSet<String>();
+				for (OMMBlock block : blocks) {
+					if (scan.matches(block)) results.add(block.getID());
+				}
+			}
+		});
+		double parallel = median(runs, new Runnable() {
+			@Override
+			public void run() {
+				scan.scan(blocks);
+			}
+		});
+
+		System.out.println(name+" ("+expected.size()+" results):");
+		System.out.println(String.format("  nine passes:           %8.2f", ninePasses));
+		System.out.println(String.format("  fused, single thread:  %8.2f", sequential));
+		System.out.println(String.format("  fused, fork-join pool: %8.2f", parallel));
+	}
+
+	// the former search: one pass over all blocks per queried field (any query has to match)
+	private static Set<String> ninePasses(List<OMMBlock> blocks, String[] queries) {
+
+		HashSet<String> results = new HashSet<String>();
+		for (SearchField field : SearchField.values()) {
+			String query = queries[field.ordinal()];
+			if (query == null || query.length() == 0) continue;
+			for (OMMBlock block : blocks) {
+				if (field.render(block).contains(query)) results.add(block.getID());
+			}
+		}
+		return results;
+	}
+
+	// median run time in milliseconds, after as many warm-up runs
+	private static double median(int runs, Runnable task) {
+
+		for (int i = 0; i < runs; i++) task.run();
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			task.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[runs / 2] / 1e6;
+	}
+
+}
@@ -0,0 +1,112 @@
+package de.dfki.opcua.server.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.opcua.server.OmsParser;
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+import de.dfki.opcua.server.cache.RenderedValueCache;
+
+/**
+ * Compares reads of the variables of unchanged blocks with many contributors before and after the
+ * {@link RenderedValueCache}. <br/>
+ * "Rendered" is the former read: every read renders the variable and parses the time of the last change. "Cached" is what a
+ * {@link de.dfki.opcua.server.NodeManagerBlock} does now: the value and time are rendered once per block version and
+ * taken from the cache as long as the block does not change. "Revalidated" hands an equal but newly downloaded copy of every
+ * block to the cache before each round of reads, as a revalidation of an unchanged block does, while the reads keep using
+ * the known block. Every read covers all variables but the payload. <br/>
+ * Usage: RenderedValueBenchmark [contributors per block, default 500] [number of blocks, default 100] [reads per block, default 100]
+ *
+ * @author xekl01
+ *
+ */
+public class RenderedValueBenchmark {
+
+	public static void main(String[] args) {
+
+		int contributors = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+		final int reads = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+		final List<OMMBlock> blocks = new SyntheticBlocks(42).create(count, contributors, 20);
+		final List<OMMBlock> downloads = new SyntheticBlocks(42).create(count, contributors, 20);
+
+		final ArrayList<String> variables = new ArrayList<String>(Arrays.asList(BlockChangeDetector.VARIABLES));
+		variables.remove("Payload"); // kept in the payload store, not rendered
+
+		final ArrayList<RenderedValueCache> caches = new ArrayList<RenderedValueCache>(count);
+		for (int i = 0; i < count; i++) caches.add(new RenderedValueCache());
+
+		long rendered = median(5, new Runnable() {
+			@Override
+			public void run() {
+				for (OMMBlock block : blocks) {
+					for (int r = 0; r < reads; r++) {
+						for (String variable : variables) {
+							String value = OmsParser.parseVariable(block, variable);
+							if (value != null) new Variant(value);
+							OmsParser.getTimeOfLastChange(block);
+						}
+					}
+				}
+			}
+		});
+		long cached = median(5, new Runnable() {
+			@Override
+			public void run() {
+				for (int b = 0; b < blocks.size(); b++) {
+					for (int r = 0; r < reads; r++) read(caches.get(b), blocks.get(b), variables);
+				}
+			}
+		});
+		long revalidated = median(5, new Runnable() {
+			@Override
+			public void run() {
+				for (int b = 0; b < blocks.size(); b++) {
+					for (int r = 0; r < reads; r++) {
+						caches.get(b).update(downloads.get(b), Collections.<String>emptySet());
+						read(caches.get(b), blocks.get(b), variables);
+					}
+				}
+			}
+		});
+
+		long values = (long) blocks.size() * reads * variables.size();
+		System.out.println("Blocks: "+count+", contributors per block: "+contributors+", reads per block: "+reads+" (median per variable read)");
+		System.out.println(String.format("Rendered:    %10.1f ns", (double) rendered / values));
+		System.out.println(String.format("Cached:      %10.1f ns", (double) cached / values));
+		System.out.println(String.format("Revalidated: %10.1f ns", (double) revalidated / values));
+	}
+
+	// reads all variables of a block through its cache, rendering them on a miss
+	private static void read(RenderedValueCache cache, OMMBlock block, List<String> variables) {
+
+		for (String variable : variables) {
+			Variant value = cache.get(block, variable);
+			if (value == null) {
+				String text = OmsParser.parseVariable(block, variable);
+				if (text != null) cache.put(block, variable, new Variant(text));
+			}
+			cache.getTimeOfLastChange(block);
+		}
+	}
+
+	// median run time in nanoseconds, after as many warm-up runs
+	private static long median(int runs, Runnable task) {
+
+		for (int i = 0; i < runs; i++) task.run();
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			task.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+
+}
@@ -0,0 +1,105 @@
+package de.dfki.opcua.server.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.ISO8601;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+
+/**
+ * Builds OMM blocks for the benchmarks without an OMS. <br/>
+ * The blocks are filled like the blocks created by the "Create Block" method: a namespace, a format, a creator, an
+ * English title and description, a type and a text payload. Texts are made of random words, so searches for a word that is
+ * not in the vocabulary never match.
+ *
+ * @author xekl01
+ *
+ */
+class SyntheticBlocks {
+
+	private static final String[] WORDS = { "sensor", "valve", "pump", "motor", "bearing", "pressure", "temperature", "flow",
+		"station", "line", "maintenance", "inspection", "report", "manual", "order", "batch", "shift", "operator", "alarm", "limit" };
+
+	private static final long START_TIME = 1500000000000L;
+
+	private final Random random;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param seed Seed of the random texts, so runs are comparable (and the same seed builds equal blocks)
+	 */
+	SyntheticBlocks(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Builds blocks.
+	 *
+	 * @param count			Number of blocks
+	 * @param contributors	Number of contributors per block (one per change, the first one is the creator)
+	 * @param payloadWords	Number of words in every payload
+	 * @return The blocks
+	 */
+	List<OMMBlock> create(int count, int contributors, int payloadWords) {
+
+		ArrayList<OMMBlock> blocks = new ArrayList<OMMBlock>(count);
+		for (int i = 0; i < count; i++) {
+			OMMBlock block = create("block"+i, contributors, payloadWords);
+			if (block == null) throw new IllegalStateException("Block could not be created.");
+			blocks.add(block);
+		}
+		return blocks;
+	}
+
+	private OMMBlock create(String blockId, int contributors, int payloadWords) {
+
+		Calendar time = Calendar.getInstance();
+		time.setTimeInMillis(START_TIME); // blocks built with the same seed are equal
+		time.add(Calendar.DAY_OF_YEAR, -contributors);
+		OMMEntity creator = new OMMEntity("email", "creator@example.org", ISO8601.getISO8601String(time.getTime()));
+		OMMEntityCollection trail = new OMMEntityCollection();
+		trail.add(creator);
+		for (int i = 1; i < contributors; i++) {
+			time.add(Calendar.DAY_OF_YEAR, 1);
+			trail.add(new OMMEntity("email", "contributor"+random.nextInt(50)+"@example.org", ISO8601.getISO8601String(time.getTime())));
+		}
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, words(4));
+		OMMMultiLangText description = new OMMMultiLangText();
+		description.put(Locale.ENGLISH, words(20));
+
+		URL type;
+		try {
+			type = new URL("http://purl.org/dc/dcmitype/Text");
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+		return OMMBlockImpl.create(blockId, null, URI.create("urn:benchmark"), type, title, description, trail, creator,
+				new OMMFormat("text/plain", null, "UTF-8"), null, new GenericTypedValue("text/plain", words(payloadWords)), null, null, null);
+	}
+
+	private String words(int count) {
+
+		StringBuilder text = new StringBuilder(count * 8);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) text.append(' ');
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return text.toString();
+	}
+
+}
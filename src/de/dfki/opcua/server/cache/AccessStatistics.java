@@ -0,0 +1,108 @@
+package de.dfki.opcua.server.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often clients access each memory. <br/>
+ * The counts can be saved on shutdown and loaded on the next start, where they are used to decide which memories to
+ * warm up first.
+ *
+ * @author xekl01
+ *
+ */
+public class AccessStatistics {
+
+	private final ConcurrentHashMap<String, AtomicLong> accesses = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Records one access to a memory.
+	 *
+	 * @param memoryName Name of the accessed memory
+	 */
+	public void record(String memoryName) {
+		getCounter(memoryName).incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of recorded accesses to a memory.
+	 *
+	 * @param memoryName Name of the memory
+	 * @return Number of accesses
+	 */
+	public long getCount(String memoryName) {
+		AtomicLong count = accesses.get(memoryName);
+		return (count == null) ? 0 : count.get();
+	}
+
+	/**
+	 * Adds the counts saved in a file to the current counts. A missing file is ignored.
+	 *
+	 * @param file The statistics file
+	 */
+	public void load(File file) {
+
+		if (file == null || !file.exists()) return;
+
+		Properties saved = new Properties();
+		try (InputStream is = new FileInputStream(file)) {
+			saved.load(is);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Access statistics could not be loaded from "+file+".");
+			return;
+		}
+
+		for (String memoryName : saved.stringPropertyNames()) {
+			try {
+				long count = Long.parseLong(saved.getProperty(memoryName));
+				getCounter(memoryName).addAndGet(count);
+			} catch (NumberFormatException e) {
+				System.err.println("Invalid access count for memory "+memoryName+", ignoring it.");
+			}
+		}
+	}
+
+	/**
+	 * Saves the current counts to a file.
+	 *
+	 * @param file The statistics file
+	 */
+	public void save(File file) {
+
+		if (file == null) return;
+
+		Properties saved = new Properties();
+		for (Entry<String, AtomicLong> count : accesses.entrySet()) {
+			saved.setProperty(count.getKey(), String.valueOf(count.getValue().get()));
+		}
+
+		try (OutputStream os = new FileOutputStream(file)) {
+			saved.store(os, "OMS memory access statistics");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Access statistics could not be saved to "+file+".");
+		}
+	}
+
+	// gets (or creates) the counter of a memory
+	private AtomicLong getCounter(String memoryName) {
+
+		AtomicLong count = accesses.get(memoryName);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = accesses.putIfAbsent(memoryName, newCount);
+			if (count == null) count = newCount;
+		}
+		return count;
+	}
+
+}
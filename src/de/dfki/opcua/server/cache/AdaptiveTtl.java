@@ -0,0 +1,102 @@
+package de.dfki.opcua.server.cache;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+
+/**
+ * Decides when a cached block has to be revalidated against the OMS. <br/>
+ * The revalidation interval adapts to how often the block's last change timestamp actually changes: every observed change
+ * halves the interval, every revalidation without a change extends it by half. The interval always stays within the
+ * configured bounds, so static blocks (e.g. manufacturer data) are rarely fetched while frequently changing blocks
+ * (e.g. process logs) are kept fresh.
+ *
+ * @author xekl01
+ *
+ */
+public class AdaptiveTtl {
+
+	private final long minInterval;
+	private final long maxInterval;
+
+	private long interval;
+	private long lastValidation;
+	private DateTime lastChange = null;
+	private long validations = 0;
+	private long changes = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param minInterval		Shortest revalidation interval in milliseconds
+	 * @param maxInterval		Longest revalidation interval in milliseconds
+	 * @param initialInterval	Revalidation interval to start with
+	 */
+	public AdaptiveTtl(long minInterval, long maxInterval, long initialInterval) {
+		this.minInterval = minInterval;
+		this.maxInterval = Math.max(minInterval, maxInterval);
+		this.interval = clamp(initialInterval);
+		this.lastValidation = System.currentTimeMillis();
+	}
+
+	/**
+	 * Checks whether the revalidation interval has passed since the last observation.
+	 *
+	 * @return true if the block should be revalidated
+	 */
+	public synchronized boolean isDue() {
+		return System.currentTimeMillis() - lastValidation >= interval;
+	}
+
+	/**
+	 * Records the last change timestamp of a freshly fetched block and adapts the revalidation interval.
+	 *
+	 * @param timeOfLastChange The block's time of last change (see {@link de.dfki.opcua.server.OmsParser#getTimeOfLastChange})
+	 * @return true if the timestamp differs from the previous observation
+	 */
+	public synchronized boolean observe(DateTime timeOfLastChange) {
+
+		boolean changed = validations > 0 && ((lastChange == null) ? timeOfLastChange != null : !lastChange.equals(timeOfLastChange));
+
+		if (validations > 0) {
+			if (changed) {
+				changes++;
+				interval = clamp(interval / 2);
+			}
+			else interval = clamp(interval + interval / 2);
+		}
+
+		validations++;
+		lastChange = timeOfLastChange;
+		lastValidation = System.currentTimeMillis();
+
+		return changed;
+	}
+
+	/**
+	 * Postpones the next revalidation by one interval without adapting it (e.g. if the block could not be fetched).
+	 */
+	public synchronized void touch() {
+		lastValidation = System.currentTimeMillis();
+	}
+
+	private long clamp(long value) {
+		return Math.min(maxInterval, Math.max(minInterval, value));
+	}
+
+	/**
+	 * Gets the current revalidation interval.
+	 *
+	 * @return Interval in milliseconds
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	public synchronized long getValidations() {
+		return validations;
+	}
+
+	public synchronized long getChanges() {
+		return changes;
+	}
+
+}
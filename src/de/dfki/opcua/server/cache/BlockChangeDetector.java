@@ -0,0 +1,165 @@
+package de.dfki.opcua.server.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.TypedValue;
+import de.dfki.opcua.server.OmsParser;
+
+/**
+ * Finds out which variables of a block have changed between two downloaded versions of it. <br/>
+ * The cheap check comes first: if the number of contributors and the time of last change are the same, the block has not
+ * changed. Otherwise every variable (including the payload) is reduced to a 64 bit hash, computed while streaming over its
+ * characters, and compared to the hash of the previous version. The hashes of the last observed version are kept, so
+ * earlier versions do not have to be hashed again and payloads are never compared as a whole. Text and binary payloads are
+ * hashed straight from the payload's value; only payloads of other types are rendered into a String first.
+ *
+ * @author xekl01
+ *
+ */
+public class BlockChangeDetector {
+
+	/** The names of all block variables, as used for their nodes. */
+	public static final String[] VARIABLES = { "Contributors", "Creator", "Description", "Format", "ID", "Link", "Namespace",
+			"Payload", "PrimaryID", "Subject", "Title", "Type" };
+
+	// FNV-1a parameters
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+	private final String blockId;
+
+	// last observed version
+	private int contributorCount;
+	private DateTime timeOfLastChange;
+	private long[] hashes = null; // computed on the first change
+
+	/**
+	 * Constructor.
+	 *
+	 * @param block The block in its currently known version
+	 */
+	public BlockChangeDetector(OMMBlock block) {
+		this.blockId = block.getID();
+		reset(block);
+	}
+
+	/**
+	 * Compares a freshly downloaded version of the block to the last observed one and makes it the last observed version.
+	 *
+	 * @param knownBlock	The last observed version of the block (only hashed if its hashes are not known yet)
+	 * @param newBlock		The downloaded version of the block
+	 * @return The changed variables (empty if the block has not changed)
+	 */
+	public synchronized BlockChangeSet detect(OMMBlock knownBlock, OMMBlock newBlock) {
+
+		int newContributorCount = countContributors(newBlock);
+		DateTime newTimeOfLastChange = OmsParser.getTimeOfLastChange(newBlock);
+		if (newContributorCount == contributorCount && equal(newTimeOfLastChange, timeOfLastChange))
+			return new BlockChangeSet(blockId, Collections.<String>emptySet(), newTimeOfLastChange);
+
+		long[] knownHashes = (hashes != null) ? hashes : hash(knownBlock);
+		long[] newHashes = hash(newBlock);
+		LinkedHashSet<String> changed = new LinkedHashSet<String>();
+		for (int i = 0; i < VARIABLES.length; i++) {
+			if (knownHashes[i] != newHashes[i]) changed.add(VARIABLES[i]);
+		}
+
+		contributorCount = newContributorCount;
+		timeOfLastChange = newTimeOfLastChange;
+		hashes = newHashes;
+
+		return new BlockChangeSet(blockId, changed, newTimeOfLastChange);
+	}
+
+	/**
+	 * Makes the given version the last observed one without comparing it (e.g. after the block has been written to locally).
+	 *
+	 * @param block The block
+	 */
+	public synchronized void reset(OMMBlock block) {
+		contributorCount = countContributors(block);
+		timeOfLastChange = OmsParser.getTimeOfLastChange(block);
+		hashes = null;
+	}
+
+	/**
+	 * Computes the hashes of the last observed version if they are not known yet (e.g. before the block is replaced by a copy
+	 * without its payload, which could not be hashed anymore).
+	 *
+	 * @param block The last observed version of the block
+	 */
+	public synchronized void prime(OMMBlock block) {
+		if (hashes == null) hashes = hash(block);
+	}
+
+	// hashes all variables of a block, in the order of VARIABLES
+	private static long[] hash(OMMBlock block) {
+
+		long[] blockHashes = new long[VARIABLES.length];
+		for (int i = 0; i < VARIABLES.length; i++) {
+			blockHashes[i] = VARIABLES[i].equals("Payload") ? hashPayload(block) : hash(OmsParser.parseVariable(block, VARIABLES[i]));
+		}
+		return blockHashes;
+	}
+
+	// hashes the payload without rendering it if it is held as text or bytes
+	private static long hashPayload(OMMBlock block) {
+
+		Object value = null;
+		try {
+			TypedValue payload = block.getPayload();
+			if (payload != null) value = payload.getValue();
+		} catch (Exception e) {
+			// rendered below, which reports the missing payload
+		}
+
+		if (value instanceof CharSequence) return hash((CharSequence) value);
+		if (value instanceof byte[]) return hash((byte[]) value);
+		return hash(OmsParser.parsePayload(block));
+	}
+
+	/**
+	 * Computes the 64 bit FNV-1a hash over the characters of a String (or any other character sequence).
+	 *
+	 * @param value The String (may be null)
+	 * @return The hash
+	 */
+	public static long hash(CharSequence value) {
+
+		if (value == null) return NULL_HASH;
+
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	// 64 bit FNV-1a hash over bytes
+	private static long hash(byte[] value) {
+
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < value.length; i++) {
+			hash = (hash ^ (value[i] & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static int countContributors(OMMBlock block) {
+		OMMEntityCollection contributors = block.getContributors();
+		return (contributors == null) ? 0 : contributors.size();
+	}
+
+	private static boolean equal(DateTime a, DateTime b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+}
@@ -0,0 +1,58 @@
+package de.dfki.opcua.server.cache;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+
+/**
+ * The block variables that changed between two observed versions of a block (see {@link BlockChangeDetector}).
+ *
+ * @author xekl01
+ *
+ */
+public class BlockChangeSet {
+
+	private final String blockId;
+	private final Set<String> variables;
+	private final DateTime timeOfLastChange;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param blockId			ID of the changed block
+	 * @param variables			Names of the changed block variables (e.g. "Title", "Payload")
+	 * @param timeOfLastChange	The block's time of last change in the newer version (may be null)
+	 */
+	public BlockChangeSet(String blockId, Set<String> variables, DateTime timeOfLastChange) {
+		this.blockId = blockId;
+		this.variables = Collections.unmodifiableSet(variables);
+		this.timeOfLastChange = timeOfLastChange;
+	}
+
+	public String getBlockId() {
+		return blockId;
+	}
+
+	public Set<String> getVariables() {
+		return variables;
+	}
+
+	public DateTime getTimeOfLastChange() {
+		return timeOfLastChange;
+	}
+
+	public boolean contains(String variable) {
+		return variables.contains(variable);
+	}
+
+	public boolean isEmpty() {
+		return variables.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return blockId+" "+variables;
+	}
+
+}
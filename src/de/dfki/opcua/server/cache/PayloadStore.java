@@ -0,0 +1,344 @@
+package de.dfki.opcua.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Keeps block payloads outside of the Java heap. <br/>
+ * Payloads are copied into direct buffers (or into memory-mapped files, see {@link #PayloadStore(long, int, File)}) as UTF-8
+ * bytes and only turned back into a String when a client actually reads them; that String is not kept. The store accounts
+ * for every byte it holds and evicts the least recently read payloads once its capacity is exceeded, so the number of
+ * mirrored memories does not influence heap size or GC pauses. Payloads smaller than the configured threshold are not worth
+ * a buffer and are not stored at all; callers should check {@link #accepts(int)} and keep such payloads themselves. <br/>
+ * Payloads are stored by memory and block, so all payloads of a deleted memory can be dropped at once. The buffer of a
+ * dropped or evicted payload is freed (or unmapped) right away, or by the last read still copying from it, instead of
+ * waiting for the garbage collector.
+ *
+ * @author xekl01
+ *
+ */
+public class PayloadStore {
+
+	public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024; // 256 MB
+	public static final int DEFAULT_THRESHOLD = 4 * 1024; // 4 KB
+
+	private static final char KEY_SEPARATOR = '\u0000'; // does not occur in memory names
+
+	private final long capacity;
+	private final int threshold;
+	private final File directory; // null for direct buffers
+
+	// frees direct and mapped buffers (null if the JVM does not allow it, the buffers are then freed when collected)
+	private static final Method FREE = findFree();
+	private static final Object UNSAFE = findUnsafe();
+
+	// payload buffers in access order (least recently used first)
+	private final LinkedHashMap<String, Payload> payloads = new LinkedHashMap<String, Payload>(64, 0.75f, true);
+	private long usedBytes = 0;
+	private long evictions = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	// a stored payload and the reads currently copying from it
+	private static class Payload {
+
+		private final ByteBuffer buffer;
+		private int readers = 0;
+		private boolean dropped = false;
+
+		private Payload(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Constructor. Uses default capacity (256 MB) and threshold (4 KB).
+	 */
+	public PayloadStore() {
+		this(DEFAULT_CAPACITY, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Constructor for a store of direct buffers.
+	 *
+	 * @param capacity	Maximum number of bytes held off-heap
+	 * @param threshold	Minimum payload size in bytes for a payload to be stored
+	 */
+	public PayloadStore(long capacity, int threshold) {
+		this(capacity, threshold, null);
+	}
+
+	/**
+	 * Constructor for a store of memory-mapped files. <br/>
+	 * Every payload is written to a file of its own in the given directory and mapped read-only, and the file is closed.
+	 * The file is deleted right away (where the operating system allows it), the mapping stays valid until the payload is
+	 * dropped or evicted. One file per payload releases the disk space of every evicted payload on its own, which a file
+	 * shared by the payloads of a memory could only do by compacting it. Mapped payloads are backed by the page cache
+	 * instead of process memory, so the operating system may page out payloads that are not read.
+	 *
+	 * @param capacity	Maximum number of bytes held in mapped files
+	 * @param threshold	Minimum payload size in bytes for a payload to be stored
+	 * @param directory	The directory for the mapped files (null for direct buffers)
+	 */
+	public PayloadStore(long capacity, int threshold, File directory) {
+		this.capacity = capacity;
+		this.threshold = threshold;
+		this.directory = directory;
+		if (directory != null) directory.mkdirs();
+	}
+
+	/**
+	 * Checks whether a payload of the given size would be stored at all.
+	 *
+	 * @param bytes Size of the payload in UTF-8 bytes
+	 * @return true if the payload is neither below the threshold nor above the capacity
+	 */
+	public boolean accepts(int bytes) {
+		return bytes >= threshold && bytes <= capacity;
+	}
+
+	/**
+	 * Copies a payload into the store, replacing a previously stored payload of the same block.
+	 * Payloads below the threshold or above the complete capacity are not stored.
+	 *
+	 * @param memory	Name of the memory the block belongs to
+	 * @param blockId	ID of the block the payload belongs to
+	 * @param payload	The payload
+	 * @return true if the payload is now held by the store
+	 */
+	public boolean put(String memory, String blockId, String payload) {
+
+		String key = key(memory, blockId);
+		if (payload == null) {
+			remove(memory, blockId);
+			return false;
+		}
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		if (!accepts(bytes.length)) {
+			remove(memory, blockId);
+			return false;
+		}
+
+		ByteBuffer buffer = allocate(bytes);
+		if (buffer == null) {
+			remove(memory, blockId);
+			return false;
+		}
+
+		synchronized (this) {
+			drop(payloads.put(key, new Payload(buffer)));
+			usedBytes += buffer.capacity();
+			evict();
+		}
+		return true;
+	}
+
+	// copies the bytes into a direct buffer or a mapped file (null if the file cannot be written)
+	private ByteBuffer allocate(byte[] bytes) {
+
+		if (directory == null) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+			buffer.put(bytes);
+			buffer.flip();
+			return buffer;
+		}
+
+		File file = null;
+		try {
+			file = File.createTempFile("payload", ".bin", directory);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.write(bytes);
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+			} finally {
+				raf.close(); // also closes the channel, the mapping does not need it
+			}
+		} catch (IOException e) {
+			System.err.println("Payload could not be written to a mapped file.");
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (file != null && !file.delete()) file.deleteOnExit(); // the mapping outlives the file
+		}
+	}
+
+	/**
+	 * Decodes a stored payload. The returned String is the only heap copy and is meant to be handed to the client directly.
+	 *
+	 * @param memory	Name of the memory the block belongs to
+	 * @param blockId	ID of the block the payload belongs to
+	 * @return The payload, or null if the store does not hold it (e.g. because it has been evicted)
+	 */
+	public String get(String memory, String blockId) {
+
+		Payload payload;
+		ByteBuffer buffer;
+		synchronized (this) {
+			payload = payloads.get(key(memory, blockId));
+			if (payload == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			payload.readers++; // keeps the buffer from being freed while copying
+			buffer = payload.buffer.duplicate(); // independent position, same off-heap memory
+		}
+
+		byte[] bytes = new byte[buffer.remaining()];
+		try {
+			buffer.get(bytes);
+		} finally {
+			synchronized (this) {
+				payload.readers--;
+				if (payload.dropped && payload.readers == 0) free(payload.buffer);
+			}
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks whether a payload is held by the store.
+	 *
+	 * @param memory	Name of the memory the block belongs to
+	 * @param blockId	ID of the block the payload belongs to
+	 * @return true if the payload is stored
+	 */
+	public synchronized boolean contains(String memory, String blockId) {
+		return payloads.containsKey(key(memory, blockId));
+	}
+
+	/**
+	 * Drops a payload from the store (e.g. after it has been changed or the block has been deleted).
+	 *
+	 * @param memory	Name of the memory the block belongs to
+	 * @param blockId	ID of the block the payload belongs to
+	 */
+	public synchronized void remove(String memory, String blockId) {
+		drop(payloads.remove(key(memory, blockId)));
+	}
+
+	/**
+	 * Drops all payloads of a memory (e.g. after the memory has been deleted).
+	 *
+	 * @param memory Name of the memory
+	 */
+	public synchronized void removeMemory(String memory) {
+
+		String prefix = memory + KEY_SEPARATOR;
+		Iterator<Entry<String, Payload>> it = payloads.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, Payload> entry = it.next();
+			if (entry.getKey().startsWith(prefix)) {
+				it.remove();
+				drop(entry.getValue());
+			}
+		}
+	}
+
+	private static String key(String memory, String blockId) {
+		return memory + KEY_SEPARATOR + blockId;
+	}
+
+	// drops least recently read payloads until the capacity is met again
+	private void evict() {
+		Iterator<Payload> it = payloads.values().iterator();
+		while (usedBytes > capacity && it.hasNext()) {
+			Payload payload = it.next();
+			it.remove();
+			drop(payload);
+			evictions++;
+		}
+	}
+
+	// frees the buffer of a payload no longer in the store, or leaves that to the last read still copying from it
+	private void drop(Payload payload) {
+
+		if (payload == null) return;
+		usedBytes -= payload.buffer.capacity();
+		payload.dropped = true;
+		if (payload.readers == 0) free(payload.buffer);
+	}
+
+	// frees a direct buffer or unmaps a mapped one (must not be accessed afterwards)
+	private static void free(ByteBuffer buffer) {
+
+		if (FREE == null) return;
+		try {
+			if (UNSAFE != null) FREE.invoke(UNSAFE, buffer); // Java 9 and later
+			else {
+				Object cleaner = FREE.invoke(buffer);
+				if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			System.err.println("Payload buffer could not be freed, it is freed when collected.");
+			e.printStackTrace();
+		}
+	}
+
+	// Unsafe.invokeCleaner (Java 9 and later) or DirectByteBuffer.cleaner (Java 8)
+	private static Method findFree() {
+
+		try {
+			if (findUnsafe() != null) return Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+			Method cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			return cleaner;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static Object findUnsafe() {
+
+		try {
+			Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+			unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+			Field instance = unsafe.getDeclaredField("theUnsafe");
+			instance.setAccessible(true);
+			return instance.get(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+
+	// accounting
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized int getSize() {
+		return payloads.size();
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
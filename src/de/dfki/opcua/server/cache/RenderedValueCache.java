@@ -0,0 +1,133 @@
+package de.dfki.opcua.server.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.opcua.server.OmsParser;
+
+/**
+ * Caches the rendered values of one block's variables for the block's current version. <br/>
+ * Every change to an OMM block appends a contributor, so the version of a block is identified by its number of contributors
+ * and the last contributor (or the creator if there are none). Comparing these references is cheap, which means repeated
+ * reads of an unchanged block are answered with the same Variant without any String building. A downloaded copy of an
+ * unchanged block holds other entity objects, so differing references are compared by value before values are dropped.
+ * As soon as the version differs, all cached values are dropped and rendered again on demand, unless the new version is
+ * handed over with its changed variables (see {@link #update(OMMBlock, Collection)}).
+ *
+ * @author xekl01
+ *
+ */
+public class RenderedValueCache {
+
+	// version of the block the cached values belong to
+	private int contributorCount = -1;
+	private OMMEntity lastEntity = null;
+
+	// cached values
+	private final HashMap<String, Variant> values = new HashMap<String, Variant>(16);
+	private DateTime timeOfLastChange = null;
+	private boolean timeOfLastChangeKnown = false;
+
+	/**
+	 * Gets a cached value for a block variable.
+	 *
+	 * @param block		The block the variable belongs to
+	 * @param variable	The name of the variable
+	 * @return The cached value, or null if it has not been rendered for the block's current version
+	 */
+	public synchronized Variant get(OMMBlock block, String variable) {
+		validate(block);
+		return values.get(variable);
+	}
+
+	/**
+	 * Caches a rendered value for the block's current version.
+	 *
+	 * @param block		The block the variable belongs to
+	 * @param variable	The name of the variable
+	 * @param value		The rendered value
+	 */
+	public synchronized void put(OMMBlock block, String variable, Variant value) {
+		validate(block);
+		values.put(variable, value);
+	}
+
+	/**
+	 * Gets the time of the block's last change, computing it only once per version.
+	 *
+	 * @param block The block
+	 * @return DateTime of the last change (may be null)
+	 */
+	public synchronized DateTime getTimeOfLastChange(OMMBlock block) {
+		validate(block);
+		if (!timeOfLastChangeKnown) {
+			timeOfLastChange = OmsParser.getTimeOfLastChange(block);
+			timeOfLastChangeKnown = true;
+		}
+		return timeOfLastChange;
+	}
+
+	/**
+	 * Moves the cached values to a new version of the block, only dropping the values of the changed variables.
+	 *
+	 * @param block				The new version of the block
+	 * @param changedVariables	The names of the variables that differ from the cached version
+	 */
+	public synchronized void update(OMMBlock block, Collection<String> changedVariables) {
+		values.keySet().removeAll(changedVariables);
+		timeOfLastChange = null;
+		timeOfLastChangeKnown = false;
+		contributorCount = countContributors(block);
+		lastEntity = getLastEntity(block);
+	}
+
+	/**
+	 * Drops all cached values (e.g. after the block has been written to).
+	 */
+	public synchronized void invalidate() {
+		contributorCount = -1;
+		lastEntity = null;
+		values.clear();
+		timeOfLastChange = null;
+		timeOfLastChangeKnown = false;
+	}
+
+	// drops cached values if the block has changed since they were rendered
+	private void validate(OMMBlock block) {
+
+		int count = countContributors(block);
+		OMMEntity last = getLastEntity(block);
+
+		if (count != contributorCount || !sameEntity(last, lastEntity)) {
+			invalidate();
+			contributorCount = count;
+		}
+		lastEntity = last; // later reads of the same block object only compare references
+	}
+
+	// compares by reference first and by type, value and date (as rendered for the node) if the objects differ
+	private static boolean sameEntity(OMMEntity a, OMMEntity b) {
+		if (a == b) return true;
+		if (a == null || b == null) return false;
+		return a.toString().equals(b.toString());
+	}
+
+	private static int countContributors(OMMBlock block) {
+		OMMEntityCollection contributors = block.getContributors();
+		return (contributors == null) ? 0 : contributors.size();
+	}
+
+	// the last contributor, or the creator if there are none
+	private static OMMEntity getLastEntity(OMMBlock block) {
+		OMMEntityCollection contributors = block.getContributors();
+		if (contributors != null && !contributors.isEmpty()) return contributors.getLast();
+		return block.getCreator();
+	}
+
+}
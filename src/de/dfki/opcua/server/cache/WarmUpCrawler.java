@@ -0,0 +1,213 @@
+package de.dfki.opcua.server.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.dfki.opcua.server.NodeManagerOms;
+
+/**
+ * Fills the memory and block caches of an OMS mirror before (and while) clients start using it. <br/>
+ * The crawler fetches the memory list and then loads the blocks of every memory, using a bounded number of parallel
+ * connections to the OMS. Memories are visited in priority order: first the memories of a configured priority list, then
+ * all others in descending order of their recorded accesses.
+ *
+ * @author xekl01
+ *
+ */
+public class WarmUpCrawler {
+
+	private final NodeManagerOms omsNodeManager;
+	private final int maxConnections;
+	private final List<String> priorities;
+	private final AccessStatistics accessStatistics;
+
+	// progress
+	private int total = -1; // unknown until the memory list has been fetched
+	private int done = 0;
+	private boolean failed = false; // the memory list could not be fetched (e.g. the OMS is unreachable)
+	private long startTime;
+	private long endTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param omsNodeManager	The node manager of the OMS to be crawled
+	 * @param maxConnections	Maximum number of memories loaded in parallel
+	 * @param priorities		Names of memories to be loaded first, in that order (may be null)
+	 * @param accessStatistics	Access counts deciding the order of all remaining memories (may be null)
+	 */
+	public WarmUpCrawler(NodeManagerOms omsNodeManager, int maxConnections, List<String> priorities, AccessStatistics accessStatistics) {
+		this.omsNodeManager = omsNodeManager;
+		this.maxConnections = Math.max(1, maxConnections);
+		this.priorities = (priorities == null) ? Collections.<String>emptyList() : priorities;
+		this.accessStatistics = accessStatistics;
+	}
+
+	/**
+	 * Starts crawling in the background and returns immediately.
+	 */
+	public void start() {
+
+		final ExecutorService connections = Executors.newFixedThreadPool(maxConnections, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS warm-up "+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		Thread crawler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				crawl(connections);
+			}
+		}, "OMS warm-up");
+		crawler.setDaemon(true);
+		crawler.start();
+	}
+
+	// fetches the memory list and hands every memory to the connection pool in priority order
+	private void crawl(ExecutorService connections) {
+
+		synchronized (this) {
+			startTime = System.currentTimeMillis();
+		}
+
+		List<String> memoryNames = null;
+		try {
+			memoryNames = order(omsNodeManager.fetchMemoryNames()); // throws if the OMS is unreachable
+		} catch (Throwable t) {
+			System.err.println("Memory list could not be fetched, the cache is not warmed up.");
+			t.printStackTrace();
+		} finally {
+			// waiters are released in any case, as failed if there is no memory list
+			synchronized (this) {
+				if (memoryNames == null) failed = true;
+				else total = memoryNames.size();
+				if (memoryNames == null || total == 0) endTime = System.currentTimeMillis();
+				notifyAll();
+			}
+		}
+		if (memoryNames == null) {
+			connections.shutdown();
+			return;
+		}
+
+		for (final String memoryName : memoryNames) {
+			connections.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						omsNodeManager.getMemoryNodeManager(memoryName).getBlockNodeManagers();
+					} catch (Exception e) {
+						System.err.println("Memory "+memoryName+" could not be warmed up.");
+						e.printStackTrace();
+					} finally {
+						finished(); // counted in any case, so waiters are not kept waiting
+					}
+				}
+			});
+		}
+		connections.shutdown();
+	}
+
+	// sorts memory names: priority list first, then by recorded accesses
+	private List<String> order(List<String> memoryNames) {
+
+		LinkedHashSet<String> ordered = new LinkedHashSet<String>();
+		for (String memoryName : priorities) {
+			if (memoryNames.contains(memoryName)) ordered.add(memoryName);
+		}
+
+		List<String> remaining = new ArrayList<String>(memoryNames);
+		remaining.removeAll(ordered);
+		if (accessStatistics != null) {
+			Collections.sort(remaining, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					return Long.compare(accessStatistics.getCount(b), accessStatistics.getCount(a));
+				}
+			});
+		}
+		ordered.addAll(remaining);
+
+		return new ArrayList<String>(ordered);
+	}
+
+	private synchronized void finished() {
+		done++;
+		if (done == total) endTime = System.currentTimeMillis();
+		notifyAll();
+	}
+
+	/**
+	 * Waits until at least the given fraction of all memories has been loaded.
+	 *
+	 * @param fraction		Fraction of memories to wait for (0 does not wait at all, 1 waits for the complete crawl)
+	 * @param timeoutMillis	Maximum time to wait (0 waits without limit)
+	 * @return true if the fraction has been reached, false if the timeout has passed or the memory list could not be fetched
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public synchronized boolean awaitFraction(double fraction, long timeoutMillis) throws InterruptedException {
+
+		if (fraction <= 0) return true;
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (total < 0 || done < Math.ceil(Math.min(fraction, 1.0) * total)) {
+			if (failed) return false;
+			long wait = (timeoutMillis > 0) ? deadline - System.currentTimeMillis() : 0;
+			if (timeoutMillis > 0 && wait <= 0) return false;
+			wait(wait);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the number of memories to be crawled.
+	 *
+	 * @return Number of memories, or -1 if the memory list has not been fetched yet
+	 */
+	public synchronized int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Checks whether the crawl has failed because the memory list could not be fetched.
+	 *
+	 * @return true if the crawl has failed
+	 */
+	public synchronized boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Gets the number of memories crawled so far.
+	 *
+	 * @return Number of loaded memories
+	 */
+	public synchronized int getDone() {
+		return done;
+	}
+
+	/**
+	 * Gets the duration of the crawl.
+	 *
+	 * @return Duration in milliseconds so far, or of the complete crawl if it has finished
+	 */
+	public synchronized long getDuration() {
+		if (startTime == 0) return 0;
+		if (failed || done == total) return endTime - startTime;
+		return System.currentTimeMillis() - startTime;
+	}
+
+}
@@ -0,0 +1,174 @@
+package de.dfki.opcua.server.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opcfoundation.ua.builtintypes.ByteString;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedByte;
+import org.opcfoundation.ua.common.ServiceResultException;
+import org.opcfoundation.ua.core.ModelChangeStructureDataType;
+
+import com.prosysopc.ua.server.NodeManagerUaNode;
+import com.prosysopc.ua.types.opcua.server.GeneralModelChangeEventTypeNode;
+
+/**
+ * Announces added and deleted nodes of the OMS address space with GeneralModelChangeEvents, so clients can update their view
+ * of a folder instead of browsing it again. <br/>
+ * Changes are collected for a short window and then sent as one event per folder (the event's source node), which keeps
+ * bulk operations from producing a flood of events.
+ *
+ * @author xekl01
+ *
+ */
+public class ModelChangeBatcher {
+
+	public static final long DEFAULT_WINDOW = 500; // ms
+
+	// verbs of ModelChangeStructureDataType
+	private static final UnsignedByte NODE_ADDED = new UnsignedByte(1);
+	private static final UnsignedByte NODE_DELETED = new UnsignedByte(2);
+
+	private final NodeManagerUaNode eventNodeManager;
+	private final ScheduledExecutorService scheduler;
+	private long window = DEFAULT_WINDOW;
+
+	// changes collected in the current window, by source folder
+	private LinkedHashMap<ExpandedNodeId, List<ModelChangeStructureDataType>> pending = new LinkedHashMap<ExpandedNodeId, List<ModelChangeStructureDataType>>();
+	private boolean flushScheduled = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param eventNodeManager The node manager creating the event nodes
+	 */
+	public ModelChangeBatcher(NodeManagerUaNode eventNodeManager) {
+
+		this.eventNodeManager = eventNodeManager;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS model change events");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Announces a node added to a folder.
+	 *
+	 * @param folder		The folder containing the node (source of the event)
+	 * @param node			The added node
+	 * @param typeDefinition	The type definition of the added node
+	 */
+	public void nodeAdded(ExpandedNodeId folder, ExpandedNodeId node, NodeId typeDefinition) {
+		add(folder, node, typeDefinition, NODE_ADDED);
+	}
+
+	/**
+	 * Announces a node deleted from a folder.
+	 *
+	 * @param folder		The folder that contained the node (source of the event)
+	 * @param node			The deleted node
+	 * @param typeDefinition	The type definition of the deleted node
+	 */
+	public void nodeDeleted(ExpandedNodeId folder, ExpandedNodeId node, NodeId typeDefinition) {
+		add(folder, node, typeDefinition, NODE_DELETED);
+	}
+
+	private synchronized void add(ExpandedNodeId folder, ExpandedNodeId node, NodeId typeDefinition, UnsignedByte verb) {
+
+		NodeId affected;
+		try {
+			affected = eventNodeManager.getNamespaceTable().toNodeId(node);
+		} catch (ServiceResultException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		List<ModelChangeStructureDataType> changes = pending.get(folder);
+		if (changes == null) {
+			changes = new ArrayList<ModelChangeStructureDataType>();
+			pending.put(folder, changes);
+		}
+		changes.add(new ModelChangeStructureDataType(affected, typeDefinition, verb));
+
+		if (!flushScheduled) {
+			flushScheduled = true;
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// sends the changes of the current window, one event per source folder
+	private void flush() {
+
+		LinkedHashMap<ExpandedNodeId, List<ModelChangeStructureDataType>> changes;
+		synchronized (this) {
+			changes = pending;
+			pending = new LinkedHashMap<ExpandedNodeId, List<ModelChangeStructureDataType>>();
+			flushScheduled = false;
+		}
+
+		for (Map.Entry<ExpandedNodeId, List<ModelChangeStructureDataType>> folderChanges : changes.entrySet()) {
+			try {
+				GeneralModelChangeEventTypeNode event = eventNodeManager.createEvent(GeneralModelChangeEventTypeNode.class);
+				event.setSourceNode(eventNodeManager.getNamespaceTable().toNodeId(folderChanges.getKey()));
+				event.setSourceName(folderChanges.getKey().getValue().toString());
+				event.setMessage(new LocalizedText(folderChanges.getValue().size()+" nodes added or deleted", Locale.ENGLISH));
+				event.setChanges(folderChanges.getValue().toArray(new ModelChangeStructureDataType[folderChanges.getValue().size()]));
+				DateTime now = DateTime.currentTime();
+				event.triggerEvent(now, now, newEventId());
+			} catch (Exception e) {
+				System.err.println("Model change event for "+folderChanges.getKey()+" could not be sent.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates a unique event ID.
+	 *
+	 * @return 16 random bytes
+	 */
+	static ByteString newEventId() {
+
+		UUID uuid = UUID.randomUUID();
+		byte[] id = new byte[16];
+		long bits = uuid.getMostSignificantBits();
+		for (int i = 0; i < 8; i++) id[i] = (byte) (bits >>> (56 - 8 * i));
+		bits = uuid.getLeastSignificantBits();
+		for (int i = 0; i < 8; i++) id[8 + i] = (byte) (bits >>> (56 - 8 * i));
+		return ByteString.valueOf(id);
+	}
+
+	/**
+	 * Sets the time changes are collected before they are sent.
+	 *
+	 * @param window Time in milliseconds
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+}
@@ -0,0 +1,250 @@
+package de.dfki.opcua.server.event;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.ExpandedNodeId;
+import org.opcfoundation.ua.builtintypes.LocalizedText;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.QualifiedName;
+import org.opcfoundation.ua.core.Identifiers;
+
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.server.NodeManagerUaNode;
+import com.prosysopc.ua.server.nodes.PlainProperty;
+import com.prosysopc.ua.server.nodes.UaObjectTypeNode;
+import com.prosysopc.ua.types.opcua.server.BaseEventTypeNode;
+
+/**
+ * Raises events for changes of object memories from the memory folders. <br/>
+ * The event types (see {@link OmmEventType}) are subtypes of the abstract "OmmEventType", which adds the fields MemoryName,
+ * BlockId and Contributor to the BaseEventType; the time of the change is the event's Time. <br/>
+ * Events are queued per memory and sent in batches: the first event of a memory waits for one window, after which at most
+ * a limited number of the memory's queued events is sent per window. A bulk import therefore arrives at subscribers at a
+ * steady rate, but no event is dropped. <br/>
+ * Every event type has one event node (a template) with the three field properties, created when the first event of the
+ * type is sent. Sending an event only sets the values of the template and triggers it, so no nodes are created per event.
+ *
+ * @author xekl01
+ *
+ */
+public class OmmEventEmitter {
+
+	public static final long DEFAULT_WINDOW = 250; // ms
+	public static final int DEFAULT_MAX_EVENTS_PER_WINDOW = 50;
+
+	private static final String[] FIELDS = { "MemoryName", "BlockId", "Contributor" };
+
+	private final NodeManagerUaNode eventNodeManager;
+	private final EnumMap<OmmEventType, NodeId> eventTypes = new EnumMap<OmmEventType, NodeId>(OmmEventType.class);
+	private final EnumMap<OmmEventType, EventTemplate> templates = new EnumMap<OmmEventType, EventTemplate>(OmmEventType.class); // only used by the scheduler thread
+	private final ScheduledExecutorService scheduler;
+	private final HashMap<String, ArrayDeque<PendingEvent>> queues = new HashMap<String, ArrayDeque<PendingEvent>>(); // by memory name
+	private final AtomicLong raised = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private volatile long window = DEFAULT_WINDOW;
+	private volatile int maxEventsPerWindow = DEFAULT_MAX_EVENTS_PER_WINDOW;
+
+	/**
+	 * Constructor. Adds the event types to the address space.
+	 *
+	 * @param eventNodeManager The node manager holding the event types and creating the event nodes
+	 */
+	public OmmEventEmitter(NodeManagerUaNode eventNodeManager) {
+
+		this.eventNodeManager = eventNodeManager;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMM events");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		buildEventTypes();
+	}
+
+	/**
+	 * Adds the abstract OmmEventType with its fields below BaseEventType and one subtype per {@link OmmEventType}.
+	 */
+	private void buildEventTypes() {
+
+		int ns = eventNodeManager.getNamespaceIndex();
+		try {
+			NodeId baseTypeId = new NodeId(ns, "OmmEventType");
+			UaObjectTypeNode baseType = new UaObjectTypeNode(eventNodeManager, baseTypeId, "OmmEventType", Locale.ENGLISH);
+			baseType.setAbstract(true);
+			eventNodeManager.addNode(baseType);
+			baseType.addReference(Identifiers.BaseEventType, Identifiers.HasSubtype, true);
+			for (String field : FIELDS) {
+				PlainProperty<String> property = new PlainProperty<String>(eventNodeManager, new NodeId(ns, "OmmEventType/"+field), new QualifiedName(ns, field), Locale.ENGLISH);
+				property.setDataTypeId(Identifiers.String);
+				eventNodeManager.addNode(property);
+				baseType.addProperty(property);
+			}
+
+			for (OmmEventType type : OmmEventType.values()) {
+				NodeId typeId = new NodeId(ns, type.getTypeName());
+				UaObjectTypeNode typeNode = new UaObjectTypeNode(eventNodeManager, typeId, type.getTypeName(), Locale.ENGLISH);
+				eventNodeManager.addNode(typeNode);
+				typeNode.addReference(baseTypeId, Identifiers.HasSubtype, true);
+				eventTypes.put(type, typeId);
+			}
+		} catch (StatusException e) {
+			System.err.println("OMM event types could not be created.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues an event of a memory.
+	 *
+	 * @param memoryFolder	The memory folder (source of the event)
+	 * @param memoryName	Name of the memory
+	 * @param type			Type of the event
+	 * @param blockId		ID of the affected block (null for changes of the memory itself)
+	 * @param contributor	Who made the change (null if unknown)
+	 * @param time			When the change was made (null for now)
+	 */
+	public void raise(ExpandedNodeId memoryFolder, String memoryName, OmmEventType type, String blockId, String contributor, DateTime time) {
+
+		raised.incrementAndGet();
+		PendingEvent event = new PendingEvent(memoryFolder, memoryName, type, blockId, contributor, (time == null) ? DateTime.currentTime() : time);
+
+		synchronized (queues) {
+			ArrayDeque<PendingEvent> queue = queues.get(memoryName);
+			if (queue != null) {
+				queue.add(event); // a batch of this memory is already waiting
+				return;
+			}
+			queue = new ArrayDeque<PendingEvent>();
+			queue.add(event);
+			queues.put(memoryName, queue);
+		}
+
+		scheduleFlush(memoryName);
+	}
+
+	private void scheduleFlush(final String memoryName) {
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush(memoryName);
+			}
+		}, window, TimeUnit.MILLISECONDS);
+	}
+
+	// sends the next batch of a memory's events and schedules the following one if events are left
+	private void flush(String memoryName) {
+
+		ArrayDeque<PendingEvent> batch = new ArrayDeque<PendingEvent>();
+		boolean remaining;
+		synchronized (queues) {
+			ArrayDeque<PendingEvent> queue = queues.get(memoryName);
+			while (!queue.isEmpty() && batch.size() < maxEventsPerWindow) batch.add(queue.poll());
+			remaining = !queue.isEmpty();
+			if (!remaining) queues.remove(memoryName);
+		}
+
+		for (PendingEvent event : batch) send(event);
+		if (remaining) scheduleFlush(memoryName);
+	}
+
+	private void send(PendingEvent pending) {
+
+		try {
+			EventTemplate template = templates.get(pending.type);
+			if (template == null) {
+				template = new EventTemplate(pending.type);
+				templates.put(pending.type, template);
+			}
+			sent.incrementAndGet();
+
+			BaseEventTypeNode event = template.event;
+			event.setSourceNode(eventNodeManager.getNamespaceTable().toNodeId(pending.memoryFolder));
+			event.setSourceName(pending.memoryName);
+			event.setMessage(new LocalizedText(pending.type+((pending.blockId == null) ? "" : ": "+pending.blockId), Locale.ENGLISH));
+			String[] values = { pending.memoryName, pending.blockId, pending.contributor };
+			for (int i = 0; i < FIELDS.length; i++) template.fields[i].setCurrentValue(values[i]);
+
+			event.triggerEvent(pending.time, DateTime.currentTime(), ModelChangeBatcher.newEventId());
+		} catch (Exception e) {
+			System.err.println(pending.type+" event of memory "+pending.memoryName+" could not be sent.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sets how events are batched and rate-limited.
+	 *
+	 * @param window				Time in milliseconds between two batches of the same memory
+	 * @param maxEventsPerWindow	Maximum number of events of one memory per batch
+	 */
+	public void setRateLimit(long window, int maxEventsPerWindow) {
+		this.window = window;
+		this.maxEventsPerWindow = Math.max(1, maxEventsPerWindow);
+	}
+
+	public long getRaisedCount() {
+		return raised.get();
+	}
+
+	public long getSentCount() {
+		return sent.get();
+	}
+
+	/**
+	 * The event node of one event type, with its field properties declared once.
+	 */
+	private class EventTemplate {
+
+		private final BaseEventTypeNode event;
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private final PlainProperty<String>[] fields = new PlainProperty[FIELDS.length];
+
+		private EventTemplate(OmmEventType type) {
+
+			int ns = eventNodeManager.getNamespaceIndex();
+			event = eventNodeManager.createEvent(BaseEventTypeNode.class);
+			event.setEventType(eventTypes.get(type));
+			event.setSeverity(100);
+			for (int i = 0; i < FIELDS.length; i++) {
+				fields[i] = new PlainProperty<String>(eventNodeManager, new NodeId(ns, "OmmEvent/"+type.getTypeName()+"/"+FIELDS[i]), new QualifiedName(ns, FIELDS[i]), Locale.ENGLISH);
+				fields[i].setDataTypeId(Identifiers.String);
+				event.addProperty(fields[i]);
+			}
+		}
+	}
+
+	/**
+	 * An event waiting to be sent.
+	 */
+	private static class PendingEvent {
+
+		private final ExpandedNodeId memoryFolder;
+		private final String memoryName;
+		private final OmmEventType type;
+		private final String blockId;
+		private final String contributor;
+		private final DateTime time;
+
+		private PendingEvent(ExpandedNodeId memoryFolder, String memoryName, OmmEventType type, String blockId, String contributor, DateTime time) {
+			this.memoryFolder = memoryFolder;
+			this.memoryName = memoryName;
+			this.type = type;
+			this.blockId = blockId;
+			this.contributor = contributor;
+			this.time = time;
+		}
+	}
+
+}
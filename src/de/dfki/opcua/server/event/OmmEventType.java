@@ -0,0 +1,26 @@
+package de.dfki.opcua.server.event;
+
+/**
+ * The kinds of changes of an object memory that are reported as events (see {@link OmmEventEmitter}).
+ *
+ * @author xekl01
+ *
+ */
+public enum OmmEventType {
+
+	BlockCreated,
+	BlockDeleted,
+	PayloadChanged,
+	OwnerChanged,
+	AclChanged;
+
+	/**
+	 * Gets the name of the OPC UA event type node.
+	 *
+	 * @return The type name, e.g. "BlockCreatedEventType"
+	 */
+	public String getTypeName() {
+		return name()+"EventType";
+	}
+
+}
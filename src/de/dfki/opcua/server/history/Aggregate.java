@@ -0,0 +1,46 @@
+package de.dfki.opcua.server.history;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.core.Identifiers;
+
+/**
+ * The aggregates supported by HistoryReadProcessed on block variables (see {@link PartialAggregate}).
+ *
+ * @author xekl01
+ *
+ */
+public enum Aggregate {
+
+	Count(Identifiers.AggregateFunction_Count),
+	Start(Identifiers.AggregateFunction_Start),
+	End(Identifiers.AggregateFunction_End),
+	Minimum(Identifiers.AggregateFunction_Minimum),
+	Maximum(Identifiers.AggregateFunction_Maximum),
+	Average(Identifiers.AggregateFunction_Average),
+	DurationInStateNonZero(Identifiers.AggregateFunction_DurationInStateNonZero);
+
+	private final NodeId nodeId;
+
+	private Aggregate(NodeId nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public NodeId getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Finds the aggregate of an aggregate function node.
+	 *
+	 * @param nodeId The NodeId of the aggregate function
+	 * @return The aggregate, or null if it is not supported
+	 */
+	public static Aggregate fromNodeId(NodeId nodeId) {
+
+		for (Aggregate aggregate : values()) {
+			if (aggregate.nodeId.equals(nodeId)) return aggregate;
+		}
+		return null;
+	}
+
+}
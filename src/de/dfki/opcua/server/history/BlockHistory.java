@@ -0,0 +1,269 @@
+package de.dfki.opcua.server.history;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+
+/**
+ * The value history of the variables of one block, indexed by time. <br/>
+ * OMM blocks only keep a trail of their contributors, not their former values. The history of "Contributors" is therefore
+ * reconstructed from the trail (one value per contribution, holding the contributor), while the values of all other
+ * variables are captured by the server whenever it sees them change. Every variable keeps its most recent values in a sorted
+ * map by source time, so time ranges are read without contacting the OMS. <br/>
+ * If a {@link HistoryLog} is given, every new value is also appended to the log, and reads cover all values in the log
+ * (including those recorded before a restart). A value is only logged if it is newer than the latest logged value of its
+ * variable, so seeding the history again after a restart does not log values twice.
+ *
+ * @author xekl01
+ *
+ */
+public class BlockHistory {
+
+	public static final int DEFAULT_MAX_VALUES = 100; // per variable
+
+	private final HashMap<String, ConcurrentSkipListMap<Long, DataValue>> variables = new HashMap<String, ConcurrentSkipListMap<Long, DataValue>>();
+	private final int maxValues;
+	private final HistoryLog log;
+	private final String series;
+	private volatile boolean seeded = false;
+
+	/**
+	 * Constructor keeping {@link #DEFAULT_MAX_VALUES} values per variable in memory only.
+	 */
+	public BlockHistory() {
+		this(DEFAULT_MAX_VALUES, null, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxValues	Number of values kept per variable in memory (older values are dropped)
+	 * @param log		The log values are appended to and read from (null to keep values in memory only)
+	 * @param series	Prefix of the block's series in the log (e.g. the namespace of the block)
+	 */
+	public BlockHistory(int maxValues, HistoryLog log, String series) {
+
+		this.maxValues = Math.max(1, maxValues);
+		this.log = log;
+		this.series = series;
+		for (String variable : BlockChangeDetector.VARIABLES) variables.put(variable, new ConcurrentSkipListMap<Long, DataValue>());
+	}
+
+	/**
+	 * Checks whether a variable has a history.
+	 *
+	 * @param variable Name of the variable's node
+	 * @return true if the variable is historized
+	 */
+	public boolean contains(String variable) {
+		return variables.containsKey(variable);
+	}
+
+	/**
+	 * Adds a captured value to the history of a variable. The value is filed under its source time (or server time if it has
+	 * no source time) and replaces a value with the same time.
+	 *
+	 * @param variable	Name of the variable's node
+	 * @param value		The value
+	 */
+	public void record(String variable, DataValue value) {
+
+		ConcurrentSkipListMap<Long, DataValue> values = variables.get(variable);
+		if (values == null) return;
+
+		DateTime time = (value.getSourceTimestamp() != null) ? value.getSourceTimestamp() : value.getServerTimestamp();
+		if (time == null) return;
+
+		values.put(time.getTimeInMillis(), value);
+		while (values.size() > maxValues) values.pollFirstEntry();
+		if (log != null) log(variable, time.getTimeInMillis(), value);
+	}
+
+	// appends a value to the log if it is newer than the latest logged value of the variable
+	private void log(String variable, long time, DataValue value) {
+		log.appendIfNewer(seriesOf(variable), time, value);
+	}
+
+	private String seriesOf(String variable) {
+		return series+"#"+variable;
+	}
+
+	/**
+	 * Adds the contributions of a contributor trail to the history of "Contributors". Contributions already known are replaced.
+	 *
+	 * @param contributors The block's contributors
+	 */
+	public void recordContributors(OMMEntityCollection contributors) {
+
+		for (OMMEntity contributor : contributors) {
+			Calendar date = contributor.getDateAsCalendar();
+			if (date == null) continue;
+			DateTime time = new DateTime(date);
+			record("Contributors", new DataValue(new Variant(contributor.toString()), StatusCode.GOOD, time, time));
+		}
+	}
+
+	/**
+	 * Checks whether the history already starts with the first version of the block known to the server.
+	 *
+	 * @return true if the history has been seeded
+	 */
+	public boolean isSeeded() {
+		return seeded;
+	}
+
+	public void setSeeded() {
+		seeded = true;
+	}
+
+	/**
+	 * Sets the OMM block type of the block, so the retention policies of the log for the type apply to its values.
+	 *
+	 * @param blockType The block type (empty or null if the block has none)
+	 */
+	public void setBlockType(String blockType) {
+		if (log != null) log.setBlockType(series, (blockType == null || blockType.isEmpty()) ? null : blockType);
+	}
+
+	/**
+	 * Reads the values of a variable within a time range, following the rules of HistoryReadRaw: if only the end is given or
+	 * the start lies after the end, the values are returned backwards in time. The start time is included in the range, the
+	 * end time is not.
+	 *
+	 * @param variable		Name of the variable's node
+	 * @param start			Start of the range in milliseconds (null if unspecified)
+	 * @param end			End of the range in milliseconds (null if unspecified)
+	 * @param maxValues		Maximum number of values to return (0 for no limit)
+	 * @param returnBounds	Whether the values right outside the range are returned as well
+	 * @param from			Time of the first value to return when continuing a read (null for a new read)
+	 * @param result		List the values are added to
+	 * @return The time of the next value if values are left (to continue the read with), otherwise null
+	 */
+	public Long read(String variable, Long start, Long end, int maxValues, boolean returnBounds, Long from, List<DataValue> result) {
+
+		ConcurrentSkipListMap<Long, DataValue> recent = variables.get(variable);
+		if (recent == null || (start == null && end == null)) return null;
+
+		boolean backwards = (start == null) || (end != null && start > end);
+		NavigableMap<Long, DataValue> values = recent;
+		if (log != null) {
+			// the logged values of the range (and its bounds), completed by the values not committed yet
+			long low = backwards ? ((start != null) ? end + 1 : Long.MIN_VALUE) : start;
+			long high = backwards ? ((start != null) ? start : end) : ((end != null) ? end - 1 : Long.MAX_VALUE);
+			TreeMap<Long, DataValue> merged = new TreeMap<Long, DataValue>(log.read(seriesOf(variable), low, high));
+			if (returnBounds) {
+				if (low > Long.MIN_VALUE) addEntry(merged, log.lowerEntry(seriesOf(variable), low));
+				if (high < Long.MAX_VALUE) addEntry(merged, log.higherEntry(seriesOf(variable), high));
+				addEntry(merged, recent.lowerEntry(low));
+				addEntry(merged, recent.higherEntry(high));
+			}
+			if (low <= high) merged.putAll(recent.subMap(low, true, high, true));
+			values = merged;
+		}
+
+		// collect the range (with its bounds) in the order of reading
+		ArrayList<Map.Entry<Long, DataValue>> range = new ArrayList<Map.Entry<Long, DataValue>>();
+		if (!backwards) {
+			if (returnBounds && !values.containsKey(start)) addEntry(range, values.lowerEntry(start));
+			NavigableMap<Long, DataValue> inRange = (end == null) ? values.tailMap(start, true) : values.subMap(start, true, end, false);
+			range.addAll(inRange.entrySet());
+			if (returnBounds && end != null) addEntry(range, values.ceilingEntry(end));
+		}
+		else {
+			long upper = (start != null) ? start : end;
+			Long lower = (start != null) ? end : null;
+			if (returnBounds && !values.containsKey(upper)) addEntry(range, values.higherEntry(upper));
+			NavigableMap<Long, DataValue> inRange = (lower == null) ? values.headMap(upper, true) : values.subMap(lower, false, upper, true);
+			range.addAll(inRange.descendingMap().entrySet());
+			if (returnBounds && lower != null) addEntry(range, values.floorEntry(lower));
+		}
+
+		// skip what has been returned before and fill the result
+		int count = 0;
+		for (Map.Entry<Long, DataValue> entry : range) {
+			if (from != null && (backwards ? entry.getKey() > from : entry.getKey() < from)) continue;
+			if (maxValues > 0 && count == maxValues) return entry.getKey();
+			result.add(entry.getValue());
+			count++;
+		}
+		return null;
+	}
+
+	/**
+	 * Computes an aggregate of a variable per processing interval, following the rules of HistoryReadProcessed: if the start
+	 * lies after the end, the intervals are returned backwards in time. <br/>
+	 * With a log, the aggregates cover the committed values of the log (see {@link HistoryLog#aggregate}), otherwise the
+	 * values kept in memory.
+	 *
+	 * @param variable	Name of the variable's node
+	 * @param start		Start of the range in milliseconds
+	 * @param end		End of the range in milliseconds
+	 * @param interval	Length of a processing interval in milliseconds (0 for a single interval over the whole range)
+	 * @param aggregate	The aggregate
+	 * @param result	List the aggregated values are added to (one per interval)
+	 */
+	public void readProcessed(String variable, long start, long end, long interval, Aggregate aggregate, List<DataValue> result) {
+
+		ConcurrentSkipListMap<Long, DataValue> recent = variables.get(variable);
+		if (recent == null) return;
+
+		boolean backwards = start > end;
+		long from = Math.min(start, end);
+		long to = Math.max(start, end);
+		PartialAggregate[] partials = (log != null) ? log.aggregate(seriesOf(variable), aggregate, from, to, interval)
+				: PartialAggregate.bucket(recent, aggregate, from, to, interval);
+
+		// the state before the first interval (only needed for durations)
+		boolean state = false;
+		if (aggregate == Aggregate.DurationInStateNonZero) {
+			Map.Entry<Long, DataValue> prior = (log != null) ? log.lowerEntry(seriesOf(variable), from) : recent.lowerEntry(from);
+			state = (prior != null) && PartialAggregate.isNonZero(PartialAggregate.numeric(prior.getValue()));
+		}
+
+		ArrayList<DataValue> values = new ArrayList<DataValue>(partials.length);
+		for (int i = 0; i < partials.length; i++) {
+			long intervalStart = (interval <= 0) ? from : from + i * interval;
+			long intervalEnd = (interval <= 0) ? to : Math.min(intervalStart + interval, to);
+			values.add(PartialAggregate.result(partials[i], aggregate, intervalStart, intervalEnd, state));
+			state = PartialAggregate.lastState(partials[i], state);
+		}
+		if (backwards) Collections.reverse(values);
+		result.addAll(values);
+	}
+
+	/**
+	 * Counts the processing intervals of a range.
+	 *
+	 * @param start		Start of the range in milliseconds
+	 * @param end		End of the range in milliseconds
+	 * @param interval	Length of a processing interval in milliseconds (0 for a single interval)
+	 * @return Number of intervals
+	 */
+	public static int countIntervals(long start, long end, long interval) {
+		return PartialAggregate.countIntervals(Math.min(start, end), Math.max(start, end), interval);
+	}
+
+	private static void addEntry(List<Map.Entry<Long, DataValue>> range, Map.Entry<Long, DataValue> entry) {
+		if (entry != null) range.add(entry);
+	}
+
+	private static void addEntry(Map<Long, DataValue> values, Map.Entry<Long, DataValue> entry) {
+		if (entry != null && !values.containsKey(entry.getKey())) values.put(entry.getKey(), entry.getValue());
+	}
+
+}
@@ -0,0 +1,283 @@
+package de.dfki.opcua.server.history;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+
+/**
+ * Applies the {@link RetentionPolicy retention policies} of a {@link HistoryLog} to its segments. <br/>
+ * Every run goes through the segments no longer written to, oldest first, in two passes. The first pass summarizes the
+ * values to be downsampled per series and interval across all these segments, so an interval spanning several segments
+ * still ends up with a single value, kept in the oldest segment holding values of the interval. An interval is only
+ * downsampled once all of it is older than the raw retention and none of it lies in the segment still written to, so its
+ * values are never downsampled in parts. The second pass rewrites every segment with values to be downsampled or deleted
+ * to a temporary file, which then atomically replaces the segment (a segment left without values is deleted). Reading and
+ * writing is throttled to a maximum number of bytes per second, so compaction does not compete with live history reads
+ * for the disk. <br/>
+ * Readers may still use the mapping of a replaced segment, so it is not unmapped explicitly. Its disk space is only
+ * released once the mapping has been garbage collected, and only then counted as reclaimed.
+ *
+ * @author xekl01
+ *
+ */
+class HistoryCompactor implements Runnable {
+
+	public static final long DEFAULT_MAX_BYTES_PER_SECOND = 4L * 1024 * 1024; // 4 MB/s
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final HistoryLog log;
+	private volatile long maxBytesPerSecond = DEFAULT_MAX_BYTES_PER_SECOND;
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong rewrites = new AtomicLong();
+	private final AtomicLong reclaimedBytes = new AtomicLong();
+
+	// disk space of replaced segments, released once their mappings are garbage collected
+	private final ReferenceQueue<Object> releasedMappings = new ReferenceQueue<Object>();
+	private final ConcurrentHashMap<Reference<Object>, Long> pendingBytes = new ConcurrentHashMap<Reference<Object>, Long>();
+
+	// the values of one downsampling interval of a series, across all compacted segments
+	private static class Interval {
+
+		private final PartialAggregate values = new PartialAggregate(Aggregate.Average);
+		private final long owner; // sequence of the oldest segment holding values of the interval
+		private int count = 0;
+		private boolean single = true; // whether the interval holds nothing but a value downsampled before
+
+		private Interval(long owner) {
+			this.owner = owner;
+		}
+	}
+
+	// throttling
+	private long budgetStart;
+	private long budgetBytes;
+
+	HistoryCompactor(HistoryLog log) {
+		this.log = log;
+	}
+
+	@Override
+	public void run() {
+
+		runs.incrementAndGet();
+		budgetStart = System.currentTimeMillis();
+		budgetBytes = 0;
+		try {
+			List<HistorySegment> segments = log.getSegments();
+			List<HistorySegment> sealed = segments.subList(0, segments.size() - 1); // the last segment is still written to
+			long[] written = segments.get(segments.size() - 1).getTimeRange();
+			long now = System.currentTimeMillis();
+
+			HashMap<String, Interval> intervals = new HashMap<String, Interval>();
+			for (HistorySegment segment : sealed) collect(segment, now, written, intervals);
+			for (HistorySegment segment : sealed) compact(segment, now, written, intervals);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			// an exception would cancel all further runs
+			System.err.println("History compaction failed.");
+			e.printStackTrace();
+		}
+	}
+
+	// first pass: adds the values of a segment to the intervals they are downsampled into
+	private void collect(HistorySegment segment, long now, long[] written, Map<String, Interval> intervals) throws InterruptedException {
+
+		throttle(segment.getUsedBytes());
+		for (HistorySegment.Record record : segment.records()) {
+			RetentionPolicy policy = log.findRetentionPolicy(record.series);
+			if (decide(policy, record.time, now, written) != RetentionPolicy.Action.Downsample) continue;
+			long intervalStart = intervalStart(policy, record.time);
+			String key = record.series+"\n"+intervalStart;
+			Interval interval = intervals.get(key);
+			if (interval == null) {
+				interval = new Interval(segment.getSequence());
+				intervals.put(key, interval);
+			}
+			interval.values.add(record.time, record.value);
+			interval.count++;
+			if (interval.count > 1 || record.time != intervalStart) interval.single = false;
+		}
+	}
+
+	// second pass: rewrites a segment if values are to be downsampled or deleted
+	private void compact(HistorySegment segment, long now, long[] written, Map<String, Interval> intervals) throws IOException, InterruptedException {
+
+		throttle(segment.getUsedBytes());
+		List<HistorySegment.Record> records = segment.records();
+
+		// keep, drop or replace every record by the value of its interval
+		ArrayList<byte[]> kept = new ArrayList<byte[]>(records.size());
+		ArrayList<Long> keptTimes = new ArrayList<Long>(records.size());
+		boolean changed = false;
+		for (HistorySegment.Record record : records) {
+			RetentionPolicy policy = log.findRetentionPolicy(record.series);
+			switch (decide(policy, record.time, now, written)) {
+			case Keep:
+				kept.add(record.bytes);
+				keptTimes.add(record.time);
+				break;
+			case Downsample:
+				Interval interval = intervals.get(record.series+"\n"+intervalStart(policy, record.time));
+				if (interval.single) {
+					// downsampled before and nothing was added since
+					kept.add(record.bytes);
+					keptTimes.add(record.time);
+				}
+				else changed = true;
+				break;
+			case Delete:
+				changed = true;
+				break;
+			}
+		}
+		if (!changed) return;
+
+		// one value per downsampling interval: the average of numeric values, otherwise the last value
+		for (Map.Entry<String, Interval> interval : intervals.entrySet()) {
+			if (interval.getValue().owner != segment.getSequence() || interval.getValue().single) continue;
+			int separator = interval.getKey().lastIndexOf('\n');
+			String series = interval.getKey().substring(0, separator);
+			long intervalStart = Long.parseLong(interval.getKey().substring(separator + 1));
+			DataValue value = PartialAggregate.result(interval.getValue().values, Aggregate.Average, intervalStart, intervalStart, false);
+			if (value.getStatusCode() != null && value.getStatusCode().isBad())
+				value = PartialAggregate.result(interval.getValue().values, Aggregate.End, intervalStart, intervalStart, false);
+			DateTime time = DateTime.fromMillis(intervalStart);
+			DataValue downsampledValue = new DataValue(value.getValue(), StatusCode.GOOD, time, time);
+			kept.add(HistorySegment.encode(series, intervalStart, downsampledValue));
+			keptTimes.add(intervalStart);
+		}
+
+		rewrite(segment, kept, keptTimes);
+	}
+
+	// what happens to a value, downsampling only intervals that are complete and not in the segment still written to
+	private static RetentionPolicy.Action decide(RetentionPolicy policy, long time, long now, long[] written) {
+
+		if (policy == null) return RetentionPolicy.Action.Keep;
+		RetentionPolicy.Action action = policy.decide(now - time);
+		if (action != RetentionPolicy.Action.Downsample) return action;
+
+		long intervalStart = intervalStart(policy, time);
+		long intervalEnd = intervalStart + policy.getDownsampleInterval() - 1;
+		if (policy.decide(now - intervalEnd) == RetentionPolicy.Action.Keep) return RetentionPolicy.Action.Keep;
+		if (written != null && written[1] >= intervalStart && written[0] <= intervalEnd) return RetentionPolicy.Action.Keep;
+		return action;
+	}
+
+	private static long intervalStart(RetentionPolicy policy, long time) {
+		long remainder = time % policy.getDownsampleInterval();
+		return time - ((remainder < 0) ? remainder + policy.getDownsampleInterval() : remainder);
+	}
+
+	// replaces a segment by a file holding only the given records
+	private void rewrite(HistorySegment segment, List<byte[]> records, List<Long> times) throws IOException, InterruptedException {
+
+		long before = segment.getFileSize();
+		if (records.isEmpty()) {
+			log.replaceSegment(segment, null);
+			release(segment, before);
+			rewrites.incrementAndGet();
+			return;
+		}
+
+		File temporary = new File(segment.getFile().getPath()+".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+			for (byte[] record : records) {
+				if (buffer.remaining() < 4 + record.length) {
+					flush(channel, buffer);
+					if (buffer.capacity() < 4 + record.length) buffer = ByteBuffer.allocate(4 + record.length);
+				}
+				buffer.putInt(record.length);
+				buffer.put(record);
+			}
+			flush(channel, buffer);
+			channel.force(true);
+		} finally {
+			out.close();
+		}
+
+		Files.move(temporary.toPath(), segment.getFile().toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		HistorySegment compacted = new HistorySegment(segment.getFile(), segment.getSequence(), 0, false);
+		log.replaceSegment(segment, compacted);
+		release(segment, Math.max(0, before - compacted.getFileSize()));
+		rewrites.incrementAndGet();
+	}
+
+	// counts the bytes of a replaced segment as reclaimed once its mapping has been garbage collected
+	private void release(HistorySegment segment, long bytes) {
+		pendingBytes.put(new PhantomReference<Object>(segment.getMapping(), releasedMappings), bytes);
+	}
+
+	// adds the bytes of the mappings garbage collected since the last call
+	private void countReleased() {
+
+		Reference<?> released;
+		while ((released = releasedMappings.poll()) != null) {
+			Long bytes = pendingBytes.remove(released);
+			if (bytes != null) reclaimedBytes.addAndGet(bytes);
+		}
+	}
+
+	private void flush(FileChannel channel, ByteBuffer buffer) throws IOException, InterruptedException {
+
+		buffer.flip();
+		throttle(buffer.remaining());
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	// waits until the bytes fit into the budget of the current run
+	private void throttle(long bytes) throws InterruptedException {
+
+		budgetBytes += bytes;
+		long due = budgetStart + budgetBytes * 1000 / Math.max(1, maxBytesPerSecond);
+		long wait = due - System.currentTimeMillis();
+		if (wait > 0) Thread.sleep(wait);
+	}
+
+	void setMaxBytesPerSecond(long maxBytesPerSecond) {
+		this.maxBytesPerSecond = maxBytesPerSecond;
+	}
+
+	long getRunCount() {
+		return runs.get();
+	}
+
+	long getRewriteCount() {
+		return rewrites.get();
+	}
+
+	/**
+	 * Gets the disk space released by compaction so far (replaced segments whose mappings have not been garbage collected
+	 * yet still occupy the disk and are not counted).
+	 *
+	 * @return Number of bytes
+	 */
+	long getReclaimedBytes() {
+		countReleased();
+		return reclaimedBytes.get();
+	}
+
+}
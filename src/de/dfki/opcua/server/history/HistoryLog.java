@@ -0,0 +1,747 @@
+package de.dfki.opcua.server.history;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+
+/**
+ * An append-only log of the value changes of all block variables, kept on disk across restarts. <br/>
+ * The log is split into fixed-size segment files (see {@link HistorySegment}), which are memory-mapped for reading and
+ * carry a sparse time index. Values are appended by a single writer thread: it collects the values arriving within one
+ * commit interval, writes them as a batch and forces the batch to disk at once (group commit), so recording a value never
+ * waits for the disk. <br/>
+ * Values belong to a series, usually a block's namespace and the name of the variable. <br/>
+ * Aggregates are computed by summarizing every segment on a fork-join pool in parallel and merging the summaries. The
+ * summaries of segments no longer written to only change by compaction, so they are kept for repeated queries: every such
+ * segment is summarized in buckets aligned to a fixed grid (e.g. whole minutes), which the processing intervals of a query
+ * are assembled from, so also queries over moving windows reuse them. Only the parts of an interval that do not fill a
+ * whole bucket are read again. The cached buckets are limited in size, the least recently used ones are dropped. <br/>
+ * With {@link RetentionPolicy retention policies}, a {@link HistoryCompactor} regularly downsamples and deletes old values
+ * in the background.
+ *
+ * @author xekl01
+ *
+ */
+public class HistoryLog {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024; // 16 MB
+	public static final long DEFAULT_COMMIT_INTERVAL = 200; // ms
+	public static final long DEFAULT_PARTIAL_BYTES = 16L * 1024 * 1024; // 16 MB
+	public static final long DEFAULT_COMPACTION_INTERVAL = 10 * 60 * 1000; // 10 min
+
+	private static final String SUFFIX = ".log";
+	private static final long[] BUCKET_LENGTHS = { 1000L, 10 * 1000L, 60 * 1000L, 10 * 60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L }; // ms
+	private static final int BUCKETS_PER_INTERVAL = 8; // at least, so the parts of an interval read again stay small
+	private static final int MAX_BUCKETS = 100000; // per query, larger queries are not cached
+	private static final PartialAggregate NO_VALUES = new PartialAggregate(Aggregate.Count); // cached for buckets without values
+
+	private final File directory;
+	private final int segmentSize;
+	private final CopyOnWriteArrayList<HistorySegment> segments = new CopyOnWriteArrayList<HistorySegment>(); // oldest first
+	private final ArrayList<byte[]> pending = new ArrayList<byte[]>(); // encoded records waiting for the writer
+	private final ArrayList<Long> pendingTimes = new ArrayList<Long>();
+	private final Thread writer;
+	private final AtomicLong appended = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+	private final ForkJoinPool pool = new ForkJoinPool();
+	private final LinkedHashMap<String, PartialAggregate> partials = new LinkedHashMap<String, PartialAggregate>(256, 0.75f, true); // by segment, series, aggregate, bucket length and start
+	private long partialBytes = 0; // guarded by partials
+	private volatile long maxPartialBytes = DEFAULT_PARTIAL_BYTES;
+	private final AtomicLong partialHits = new AtomicLong();
+	private final AtomicLong partialMisses = new AtomicLong();
+	private final CopyOnWriteArrayList<RetentionPolicy> retentionPolicies = new CopyOnWriteArrayList<RetentionPolicy>();
+	private final ConcurrentHashMap<String, Long> lastTimes = new ConcurrentHashMap<String, Long>(); // latest logged time by series
+	private final ConcurrentHashMap<String, String> blockTypes = new ConcurrentHashMap<String, String>(); // by series prefix
+	private final HistoryCompactor compactor = new HistoryCompactor(this);
+	private ScheduledExecutorService compaction = null;
+	private volatile long commitInterval = DEFAULT_COMMIT_INTERVAL;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor using segments of {@link #DEFAULT_SEGMENT_SIZE}.
+	 *
+	 * @param directory The directory holding the segment files (created if missing)
+	 * @throws IOException If the existing segments cannot be opened
+	 */
+	public HistoryLog(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor. Opens the segments already in the directory, so values recorded before a restart can be read again, and
+	 * collects the latest time of every series in them once.
+	 *
+	 * @param directory		The directory holding the segment files (created if missing)
+	 * @param segmentSize	Size of a segment file in bytes
+	 * @throws IOException If the existing segments cannot be opened
+	 */
+	public HistoryLog(File directory, int segmentSize) throws IOException {
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("History directory "+directory+" could not be created.");
+
+		File[] files = listSegmentFiles(directory);
+		for (int i = 0; i < files.length; i++) {
+			segments.add(new HistorySegment(files[i], sequenceOf(files[i]), segmentSize, i == files.length - 1));
+		}
+		if (segments.isEmpty()) addSegment(0);
+		HashMap<String, Long> collected = new HashMap<String, Long>();
+		for (HistorySegment segment : segments) segment.collectLastTimes(collected);
+		lastTimes.putAll(collected);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "OMS history log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	static File[] listSegmentFiles(File directory) {
+
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SUFFIX) && name.length() > SUFFIX.length();
+			}
+		});
+		if (files == null) return new File[0];
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(sequenceOf(a), sequenceOf(b));
+			}
+		});
+		return files;
+	}
+
+	static long sequenceOf(File file) {
+		try {
+			return Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private HistorySegment addSegment(long sequence) throws IOException {
+
+		HistorySegment segment = new HistorySegment(new File(directory, String.format("%016d", sequence)+SUFFIX), sequence, segmentSize, true);
+		synchronized (segments) {
+			segments.add(segment);
+		}
+		return segment;
+	}
+
+	/**
+	 * Gets the current segments.
+	 *
+	 * @return The segments, oldest first (the last one is still written to)
+	 */
+	List<HistorySegment> getSegments() {
+		return new ArrayList<HistorySegment>(segments);
+	}
+
+	/**
+	 * Replaces a compacted segment (the file has already been replaced) or deletes it.
+	 *
+	 * @param segment		The segment no longer written to
+	 * @param replacement	The segment opened on the compacted file (null to delete the segment)
+	 */
+	void replaceSegment(HistorySegment segment, HistorySegment replacement) {
+
+		synchronized (segments) {
+			int index = segments.indexOf(segment);
+			if (index < 0) return;
+			if (replacement == null) segments.remove(index);
+			else segments.set(index, replacement);
+		}
+
+		// readers still holding the old segment keep reading its mapping
+		segment.close();
+		if (replacement == null && !segment.getFile().delete()) System.err.println("History segment "+segment.getFile()+" could not be deleted.");
+
+		String prefix = segment.getSequence()+"|";
+		synchronized (partials) {
+			Iterator<Map.Entry<String, PartialAggregate>> entries = partials.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<String, PartialAggregate> entry = entries.next();
+				if (!entry.getKey().startsWith(prefix)) continue;
+				partialBytes -= bytesOf(entry);
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Adds a retention policy and starts compacting the log regularly. Policies are checked in the order they were added,
+	 * values of series without a policy are kept forever.
+	 *
+	 * @param policy The retention policy
+	 */
+	public synchronized void addRetentionPolicy(RetentionPolicy policy) {
+
+		retentionPolicies.add(policy);
+		if (compaction != null) return;
+
+		compaction = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS history compaction");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		compaction.scheduleWithFixedDelay(compactor, DEFAULT_COMPACTION_INTERVAL, DEFAULT_COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the OMM block type of a block's series, so retention policies for block types apply to them.
+	 *
+	 * @param seriesPrefix	Prefix of the block's series (see {@link BlockHistory})
+	 * @param blockType		The block type (null if the block has none)
+	 */
+	public void setBlockType(String seriesPrefix, String blockType) {
+		if (blockType == null) blockTypes.remove(seriesPrefix);
+		else blockTypes.put(seriesPrefix, blockType);
+	}
+
+	RetentionPolicy findRetentionPolicy(String series) {
+
+		int separator = series.lastIndexOf('#');
+		String blockType = blockTypes.get((separator < 0) ? series : series.substring(0, separator));
+		for (RetentionPolicy policy : retentionPolicies) {
+			if (policy.matches(series, blockType)) return policy;
+		}
+		return null;
+	}
+
+	/**
+	 * Limits the disk bandwidth used by compaction.
+	 *
+	 * @param maxBytesPerSecond Maximum number of bytes read and written per second
+	 */
+	public void setCompactionRate(long maxBytesPerSecond) {
+		compactor.setMaxBytesPerSecond(maxBytesPerSecond);
+	}
+
+	public long getCompactionRunCount() {
+		return compactor.getRunCount();
+	}
+
+	public long getCompactedSegmentCount() {
+		return compactor.getRewriteCount();
+	}
+
+	public long getReclaimedBytes() {
+		return compactor.getReclaimedBytes();
+	}
+
+	/**
+	 * Gets the number of bytes the segment files take up on disk.
+	 *
+	 * @return Number of bytes
+	 */
+	public long getDiskBytes() {
+
+		long disk = 0;
+		for (HistorySegment segment : segments) disk += segment.getFileSize();
+		return disk;
+	}
+
+	/**
+	 * Queues a value for the next commit.
+	 *
+	 * @param series	Name of the series, e.g. a block's namespace followed by the variable name
+	 * @param time		Source time of the value in milliseconds
+	 * @param value		The value
+	 */
+	public void append(String series, long time, DataValue value) {
+
+		if (closed) return;
+		byte[] record = HistorySegment.encode(BlockChangeDetector.hash(series), series, time, value);
+		while (true) {
+			Long last = lastTimes.get(series);
+			if (last != null && time <= last) break;
+			if ((last == null) ? lastTimes.putIfAbsent(series, time) == null : lastTimes.replace(series, last, time)) break;
+		}
+		enqueue(record, time);
+	}
+
+	private void enqueue(byte[] record, long time) {
+
+		synchronized (pending) {
+			pending.add(record);
+			pendingTimes.add(time);
+			pending.notifyAll();
+		}
+		appended.incrementAndGet();
+	}
+
+	/**
+	 * Queues a value for the next commit if it is newer than the latest value logged for its series (e.g. to seed a series
+	 * again after a restart without logging values twice).
+	 *
+	 * @param series	Name of the series, e.g. a block's namespace followed by the variable name
+	 * @param time		Source time of the value in milliseconds
+	 * @param value		The value
+	 * @return true if the value has been queued
+	 */
+	public boolean appendIfNewer(String series, long time, DataValue value) {
+
+		if (closed) return false;
+		while (true) {
+			Long last = lastTimes.get(series);
+			if (last != null && time <= last) return false;
+			if ((last == null) ? lastTimes.putIfAbsent(series, time) == null : lastTimes.replace(series, last, time)) break;
+		}
+		byte[] record = HistorySegment.encode(BlockChangeDetector.hash(series), series, time, value);
+		enqueue(record, time);
+		return true;
+	}
+
+	/**
+	 * Gets the latest time logged for a series.
+	 *
+	 * @param series Name of the series
+	 * @return Time in milliseconds, or null if nothing has been logged for the series
+	 */
+	public Long getLastTime(String series) {
+		return lastTimes.get(series);
+	}
+
+	// waits for values, then writes and forces everything that arrived within one commit interval
+	private void writeLoop() {
+
+		while (true) {
+			ArrayList<byte[]> batch;
+			ArrayList<Long> batchTimes;
+			synchronized (pending) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						pending.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.isEmpty()) return; // closed
+				batch = new ArrayList<byte[]>(pending);
+				batchTimes = new ArrayList<Long>(pendingTimes);
+				pending.clear();
+				pendingTimes.clear();
+			}
+
+			try {
+				write(batch, batchTimes);
+				commits.incrementAndGet();
+			} catch (Throwable t) { // the writer has to keep running, or the queue would grow without bounds
+				System.err.println("History values could not be written and are lost.");
+				t.printStackTrace();
+			}
+
+			if (!closed) {
+				try {
+					Thread.sleep(commitInterval); // lets the next batch grow
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void write(List<byte[]> batch, List<Long> times) {
+
+		HistorySegment segment = segments.get(segments.size() - 1);
+		try {
+			for (int i = 0; i < batch.size(); i++) {
+				byte[] record = batch.get(i);
+				if (!segment.fits(record)) {
+					System.err.println("History value of "+record.length+" bytes exceeds the segment size and is not logged.");
+					continue;
+				}
+				if (!segment.append(record, times.get(i))) {
+					segment.force();
+					segment = addSegment(segment.getSequence() + 1);
+					segment.append(record, times.get(i));
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("History segment could not be created, values are lost.");
+			e.printStackTrace();
+		}
+		segment.force();
+	}
+
+	/**
+	 * Reads the values of a series within a time range.
+	 *
+	 * @param series	Name of the series
+	 * @param from		Lowest source time in milliseconds (inclusive)
+	 * @param to		Highest source time in milliseconds (inclusive)
+	 * @return The values by source time (of equal times, the value logged last)
+	 */
+	public NavigableMap<Long, DataValue> read(String series, long from, long to) {
+
+		TreeMap<Long, DataValue> values = new TreeMap<Long, DataValue>();
+		long hash = BlockChangeDetector.hash(series);
+		for (HistorySegment segment : segments) segment.read(hash, series, from, to, values);
+		return values;
+	}
+
+	/**
+	 * Finds the latest value of a series before a time.
+	 *
+	 * @param series	Name of the series
+	 * @param time		The time in milliseconds
+	 * @return The value by its source time, or null if there is none
+	 */
+	public Map.Entry<Long, DataValue> lowerEntry(String series, long time) {
+
+		TreeMap<Long, DataValue> values = new TreeMap<Long, DataValue>();
+		long hash = BlockChangeDetector.hash(series);
+		List<HistorySegment> current = getSegments();
+		for (int i = current.size() - 1; i >= 0; i--) {
+			long from = values.isEmpty() ? Long.MIN_VALUE : values.lastKey() + 1; // only values closer to the time
+			if (from < time) current.get(i).read(hash, series, from, time - 1, values);
+		}
+		return values.lastEntry();
+	}
+
+	/**
+	 * Finds the earliest value of a series after a time.
+	 *
+	 * @param series	Name of the series
+	 * @param time		The time in milliseconds
+	 * @return The value by its source time, or null if there is none
+	 */
+	public Map.Entry<Long, DataValue> higherEntry(String series, long time) {
+
+		TreeMap<Long, DataValue> values = new TreeMap<Long, DataValue>();
+		long hash = BlockChangeDetector.hash(series);
+		List<HistorySegment> current = getSegments();
+		for (int i = current.size() - 1; i >= 0; i--) {
+			long to = values.isEmpty() ? Long.MAX_VALUE : values.firstKey() - 1; // only values closer to the time
+			if (to > time) current.get(i).read(hash, series, time + 1, to, values);
+		}
+		return values.firstEntry();
+	}
+
+	/**
+	 * Summarizes the values of a series per processing interval, scanning all segments in parallel.
+	 *
+	 * @param series	Name of the series
+	 * @param aggregate	The aggregate to be computed
+	 * @param start		Start of the first interval in milliseconds
+	 * @param end		End of the last interval in milliseconds (exclusive)
+	 * @param interval	Length of an interval in milliseconds (0 for a single interval)
+	 * @return One summary per interval (null for intervals without values)
+	 */
+	PartialAggregate[] aggregate(String series, Aggregate aggregate, long start, long end, long interval) {
+		return pool.invoke(new SegmentScan(getSegments(), series, aggregate, start, end, interval));
+	}
+
+	/**
+	 * Summarizes a list of segments by splitting it until single segments are left.
+	 */
+	private class SegmentScan extends RecursiveTask<PartialAggregate[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<HistorySegment> scanned;
+		private final String series;
+		private final Aggregate aggregate;
+		private final long start;
+		private final long end;
+		private final long interval;
+
+		private SegmentScan(List<HistorySegment> scanned, String series, Aggregate aggregate, long start, long end, long interval) {
+			this.scanned = scanned;
+			this.series = series;
+			this.aggregate = aggregate;
+			this.start = start;
+			this.end = end;
+			this.interval = interval;
+		}
+
+		@Override
+		protected PartialAggregate[] compute() {
+
+			if (scanned.size() == 1) return summarize(scanned.get(0));
+			if (scanned.isEmpty()) return new PartialAggregate[PartialAggregate.countIntervals(start, end, interval)];
+
+			int middle = scanned.size() / 2;
+			SegmentScan left = new SegmentScan(scanned.subList(0, middle), series, aggregate, start, end, interval);
+			SegmentScan right = new SegmentScan(scanned.subList(middle, scanned.size()), series, aggregate, start, end, interval);
+			left.fork();
+			PartialAggregate[] rightPartials = right.compute();
+			PartialAggregate[] leftPartials = left.join();
+
+			// merge into new summaries, as the summaries of the halves may be cached
+			PartialAggregate[] merged = new PartialAggregate[leftPartials.length];
+			for (int i = 0; i < merged.length; i++) {
+				if (leftPartials[i] == null && rightPartials[i] == null) continue;
+				merged[i] = new PartialAggregate(aggregate);
+				if (leftPartials[i] != null) merged[i].merge(leftPartials[i]);
+				if (rightPartials[i] != null) merged[i].merge(rightPartials[i]);
+			}
+			return merged;
+		}
+
+		private PartialAggregate[] summarize(HistorySegment segment) {
+
+			int count = PartialAggregate.countIntervals(start, end, interval);
+			long[] range = segment.getTimeRange();
+			if (range == null || range[1] < start || range[0] >= end) return new PartialAggregate[count];
+
+			// segments still written to change, all others are summarized in buckets once
+			long hash = BlockChangeDetector.hash(series);
+			boolean sealed = segment != segments.get(segments.size() - 1);
+			long bucket = sealed ? bucketLength(start, end, interval) : 0;
+			long firstBucket = (bucket > 0) ? ceil(start, bucket) : 0;
+			long lastBucket = (bucket > 0) ? floor(end, bucket) : 0;
+			if (bucket == 0 || (lastBucket - firstBucket) / bucket > MAX_BUCKETS) {
+				TreeMap<Long, DataValue> values = new TreeMap<Long, DataValue>();
+				segment.read(hash, series, start, end - 1, values);
+				return PartialAggregate.bucket(values, aggregate, start, end, interval);
+			}
+
+			// the cached buckets (buckets outside the segment have no values)
+			String prefix = segment.getSequence()+"|"+series+"|"+aggregate+"|"+bucket+"|";
+			int buckets = (int) Math.max(0, (lastBucket - firstBucket) / bucket);
+			PartialAggregate[] bucketPartials = new PartialAggregate[buckets];
+			int missing = 0;
+			synchronized (partials) {
+				for (int b = 0; b < buckets; b++) {
+					long bucketStart = firstBucket + b * bucket;
+					if (bucketStart > range[1] || bucketStart + bucket <= range[0]) bucketPartials[b] = NO_VALUES;
+					else bucketPartials[b] = partials.get(prefix+bucketStart);
+					if (bucketPartials[b] == null) missing++;
+				}
+			}
+			partialHits.addAndGet(buckets - missing);
+			partialMisses.addAndGet(missing);
+
+			// missing buckets are summarized from one read of the whole range, which also covers the edges of the intervals
+			TreeMap<Long, DataValue> values = null;
+			if (missing > 0) {
+				values = new TreeMap<Long, DataValue>();
+				segment.read(hash, series, start, end - 1, values);
+				for (int b = 0; b < buckets; b++) {
+					if (bucketPartials[b] != null) continue;
+					long bucketStart = firstBucket + b * bucket;
+					PartialAggregate partial = addValues(null, values, bucketStart, bucketStart + bucket);
+					bucketPartials[b] = (partial == null) ? NO_VALUES : partial;
+					cachePartial(prefix+bucketStart, bucketPartials[b]);
+				}
+			}
+
+			// every interval from its whole buckets and the values of its edges
+			PartialAggregate[] summary = new PartialAggregate[count];
+			for (int i = 0; i < count; i++) {
+				long intervalStart = (interval <= 0) ? start : start + i * interval;
+				long intervalEnd = (interval <= 0) ? end : Math.min(intervalStart + interval, end);
+				long first = ceil(intervalStart, bucket);
+				long last = floor(intervalEnd, bucket);
+				if (first >= last) {
+					summary[i] = readValues(summary[i], segment, range, values, intervalStart, intervalEnd);
+					continue;
+				}
+				summary[i] = readValues(summary[i], segment, range, values, intervalStart, first);
+				for (long bucketStart = first; bucketStart < last; bucketStart += bucket) {
+					PartialAggregate partial = bucketPartials[(int) ((bucketStart - firstBucket) / bucket)];
+					if (partial == NO_VALUES) continue;
+					if (summary[i] == null) summary[i] = new PartialAggregate(aggregate);
+					summary[i].merge(partial);
+				}
+				summary[i] = readValues(summary[i], segment, range, values, last, intervalEnd);
+			}
+			return summary;
+		}
+
+		// adds the values of a time range (end exclusive), reading them from the segment unless the range has been read
+		private PartialAggregate readValues(PartialAggregate partial, HistorySegment segment, long[] range, NavigableMap<Long, DataValue> values, long from, long to) {
+
+			if (from >= to || from > range[1] || to <= range[0]) return partial;
+			if (values == null) {
+				values = new TreeMap<Long, DataValue>();
+				segment.read(BlockChangeDetector.hash(series), series, from, to - 1, values);
+			}
+			return addValues(partial, values, from, to);
+		}
+
+		private PartialAggregate addValues(PartialAggregate partial, NavigableMap<Long, DataValue> values, long from, long to) {
+
+			for (Map.Entry<Long, DataValue> value : values.subMap(from, true, to, false).entrySet()) {
+				if (partial == null) partial = new PartialAggregate(aggregate);
+				partial.add(value.getKey(), value.getValue());
+			}
+			return partial;
+		}
+	}
+
+	// the longest bucket length that still fits the given number of times into a processing interval (0 if none does)
+	static long bucketLength(long start, long end, long interval) {
+
+		long length = (interval > 0) ? interval : end - start;
+		if (length < 0) length = Long.MAX_VALUE; // overflow
+		long bucket = 0;
+		for (long candidate : BUCKET_LENGTHS) {
+			if (candidate <= length / BUCKETS_PER_INTERVAL) bucket = candidate;
+		}
+		return bucket;
+	}
+
+	private static long floor(long time, long bucket) {
+		long floor = time / bucket * bucket;
+		return (floor > time) ? floor - bucket : floor;
+	}
+
+	private static long ceil(long time, long bucket) {
+		long floor = floor(time, bucket);
+		return (floor < time) ? floor + bucket : floor;
+	}
+
+	// caches the summary of a bucket and drops the least recently used buckets beyond the size limit
+	private void cachePartial(String key, PartialAggregate partial) {
+
+		synchronized (partials) {
+			PartialAggregate old = partials.put(key, partial);
+			if (old != null) partialBytes -= bytesOf(key, old);
+			partialBytes += bytesOf(key, partial);
+			Iterator<Map.Entry<String, PartialAggregate>> entries = partials.entrySet().iterator();
+			while (partialBytes > maxPartialBytes && entries.hasNext()) {
+				partialBytes -= bytesOf(entries.next());
+				entries.remove();
+			}
+		}
+	}
+
+	private static long bytesOf(Map.Entry<String, PartialAggregate> entry) {
+		return bytesOf(entry.getKey(), entry.getValue());
+	}
+
+	private static long bytesOf(String key, PartialAggregate partial) {
+		return 64 + 2L * key.length() + ((partial == NO_VALUES) ? 0 : partial.getBytes()); // entry and key, the empty summary is shared
+	}
+
+	/**
+	 * Limits the memory used by the cached bucket summaries.
+	 *
+	 * @param maxBytes Maximum number of bytes
+	 */
+	public void setMaxPartialBytes(long maxBytes) {
+
+		maxPartialBytes = maxBytes;
+		synchronized (partials) {
+			Iterator<Map.Entry<String, PartialAggregate>> entries = partials.entrySet().iterator();
+			while (partialBytes > maxPartialBytes && entries.hasNext()) {
+				partialBytes -= bytesOf(entries.next());
+				entries.remove();
+			}
+		}
+	}
+
+	public long getPartialBytes() {
+		synchronized (partials) {
+			return partialBytes;
+		}
+	}
+
+	public long getPartialHitCount() {
+		return partialHits.get();
+	}
+
+	public long getPartialMissCount() {
+		return partialMisses.get();
+	}
+
+	/**
+	 * Sets the time the writer collects values before committing them.
+	 *
+	 * @param commitInterval Time in milliseconds
+	 */
+	public void setCommitInterval(long commitInterval) {
+		this.commitInterval = commitInterval;
+	}
+
+	public long getAppendedCount() {
+		return appended.get();
+	}
+
+	public long getCommitCount() {
+		return commits.get();
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Gets the number of bytes used by committed values in all segments.
+	 *
+	 * @return Number of bytes
+	 */
+	public long getUsedBytes() {
+
+		long used = 0;
+		for (HistorySegment segment : segments) used += segment.getUsedBytes();
+		return used;
+	}
+
+	/**
+	 * Commits the queued values and closes all segments.
+	 */
+	public void close() {
+
+		closed = true;
+		synchronized (this) {
+			if (compaction != null) compaction.shutdownNow();
+		}
+		synchronized (pending) {
+			pending.notifyAll();
+		}
+		writer.interrupt(); // ends the pause between two commits
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// values the writer did not get to
+		synchronized (pending) {
+			if (!pending.isEmpty()) write(pending, pendingTimes);
+			pending.clear();
+			pendingTimes.clear();
+		}
+		for (HistorySegment segment : segments) segment.close();
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,142 @@
+package de.dfki.opcua.server.history;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.DiagnosticInfo;
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.AggregateConfiguration;
+import org.opcfoundation.ua.core.EventFilter;
+import org.opcfoundation.ua.core.HistoryData;
+import org.opcfoundation.ua.core.HistoryEvent;
+import org.opcfoundation.ua.core.HistoryModifiedData;
+import org.opcfoundation.ua.core.HistoryReadDetails;
+import org.opcfoundation.ua.core.HistoryReadValueId;
+import org.opcfoundation.ua.core.HistoryUpdateDetails;
+import org.opcfoundation.ua.core.HistoryUpdateResult;
+import org.opcfoundation.ua.core.PerformUpdateType;
+import org.opcfoundation.ua.core.StatusCodes;
+import org.opcfoundation.ua.core.TimestampsToReturn;
+import org.opcfoundation.ua.utils.NumericRange;
+
+import com.prosysopc.ua.ServiceException;
+import com.prosysopc.ua.StatusException;
+import com.prosysopc.ua.nodes.UaNode;
+import com.prosysopc.ua.server.HistoryContinuationPoint;
+import com.prosysopc.ua.server.HistoryManagerListener;
+import com.prosysopc.ua.server.HistoryResult;
+import com.prosysopc.ua.server.ServiceContext;
+
+/**
+ * A HistoryManagerListener which rejects every history operation. <br/>
+ * The OMS history is read-only, so subclasses only override the read operations they support.
+ *
+ * @author xekl01
+ *
+ */
+public class HistoryManagerAdapter implements HistoryManagerListener {
+
+	@Override
+	public Object onBeginHistoryRead(ServiceContext serviceContext, HistoryReadDetails details, TimestampsToReturn timestampsToReturn,
+			HistoryReadValueId[] nodesToRead, HistoryContinuationPoint[] continuationPoints, HistoryResult[] results) throws ServiceException {
+		return null;
+	}
+
+	@Override
+	public Object onBeginHistoryUpdate(ServiceContext serviceContext, HistoryUpdateDetails[] details, HistoryUpdateResult[] results,
+			DiagnosticInfo[] diagnosticInfos) throws ServiceException {
+		return null;
+	}
+
+	@Override
+	public void onDeleteAtTimes(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, DateTime[] reqTimes,
+			StatusCode[] operationResults, DiagnosticInfo[] operationDiagnostics) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onDeleteEvents(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, byte[][] eventIds,
+			StatusCode[] operationResults, DiagnosticInfo[] operationDiagnostics) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onDeleteModified(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, DateTime startTime,
+			DateTime endTime) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onDeleteRaw(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, DateTime startTime,
+			DateTime endTime) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onEndHistoryRead(ServiceContext serviceContext, Object operationContext, HistoryReadDetails details,
+			TimestampsToReturn timestampsToReturn, HistoryReadValueId[] nodesToRead, HistoryContinuationPoint[] continuationPoints,
+			HistoryResult[] results) throws ServiceException {
+	}
+
+	@Override
+	public void onEndHistoryUpdate(ServiceContext serviceContext, Object operationContext, HistoryUpdateDetails[] details,
+			HistoryUpdateResult[] results, DiagnosticInfo[] diagnosticInfos) throws ServiceException {
+	}
+
+	@Override
+	public Object onReadAtTimes(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId,
+			UaNode node, Object continuationPoint, DateTime[] reqTimes, NumericRange indexRange, HistoryData historyData) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public Object onReadEvents(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId,
+			UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, UnsignedInteger numValuesPerNode, EventFilter filter,
+			HistoryEvent historyEvent) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public Object onReadModified(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId,
+			UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, UnsignedInteger numValuesPerNode,
+			NumericRange indexRange, HistoryModifiedData historyData) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public Object onReadProcessed(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId,
+			UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, Double resampleInterval, NodeId aggregateType,
+			AggregateConfiguration aggregateConfiguration, NumericRange indexRange, HistoryData historyData) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public Object onReadRaw(ServiceContext serviceContext, Object operationContext, TimestampsToReturn timestampsToReturn, NodeId nodeId,
+			UaNode node, Object continuationPoint, DateTime startTime, DateTime endTime, UnsignedInteger numValuesPerNode, Boolean returnBounds,
+			NumericRange indexRange, HistoryData historyData) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onUpdateData(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, DataValue[] updateValues,
+			PerformUpdateType performInsertReplace, StatusCode[] operationResults, DiagnosticInfo[] operationDiagnostics) throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onUpdateEvent(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node, Variant[] eventFields,
+			EventFilter filter, PerformUpdateType performInsertReplace, StatusCode[] operationResults, DiagnosticInfo[] operationDiagnostics)
+			throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+	@Override
+	public void onUpdateStructureData(ServiceContext serviceContext, Object operationContext, NodeId nodeId, UaNode node,
+			DataValue[] updateValues, PerformUpdateType performUpdateType, StatusCode[] operationResults, DiagnosticInfo[] operationDiagnostics)
+			throws StatusException {
+		throw new StatusException(StatusCodes.Bad_HistoryOperationUnsupported);
+	}
+
+}
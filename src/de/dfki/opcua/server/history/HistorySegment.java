@@ -0,0 +1,366 @@
+package de.dfki.opcua.server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+
+/**
+ * One fixed-size, memory-mapped file of the {@link HistoryLog}. <br/>
+ * Records are appended one after the other, each starting with its length (a length of 0 marks the end of the data). For
+ * every chunk of consecutive records the segment keeps the lowest and highest source time as a sparse time index, so a
+ * time range read only decodes the chunks overlapping the range. Records only become visible to readers once the log has
+ * forced them to disk.
+ *
+ * @author xekl01
+ *
+ */
+class HistorySegment {
+
+	static final int CHUNK_RECORDS = 64;
+
+	// record layout: length, time, series hash, series, server time, status, value
+	private static final int LENGTH_SIZE = 4;
+	private static final int TIME_OFFSET = LENGTH_SIZE;
+	private static final int HASH_OFFSET = TIME_OFFSET + 8;
+	private static final int SERIES_OFFSET = HASH_OFFSET + 8;
+
+	private final File file;
+	private final long sequence;
+	private final int size;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+
+	private final ArrayList<long[]> chunks = new ArrayList<long[]>(); // offset, min time, max time, record count
+	private int position = 0; // end of the written records
+	private volatile int end = 0; // end of the records forced to disk
+
+	/**
+	 * Opens (or creates) a segment file and rebuilds its time index.
+	 *
+	 * @param file		The segment file
+	 * @param sequence	Position of the segment in the log
+	 * @param size		Size of the segment in bytes
+	 * @param writable	Whether records are still appended to the segment
+	 * @throws IOException If the file cannot be mapped
+	 */
+	HistorySegment(File file, long sequence, int size, boolean writable) throws IOException {
+
+		this.file = file;
+		this.sequence = sequence;
+		this.raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		if (writable && raf.length() < size) raf.setLength(size);
+		this.size = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+		this.buffer = raf.getChannel().map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, this.size);
+
+		recover();
+	}
+
+	// finds the end of the data and rebuilds the time index
+	private void recover() {
+
+		ByteBuffer view = buffer.duplicate();
+		while (position + LENGTH_SIZE <= size) {
+			int length = view.getInt(position);
+			if (length <= 0 || position + LENGTH_SIZE + length > size) break;
+			index(position, view.getLong(position + TIME_OFFSET));
+			position += LENGTH_SIZE + length;
+		}
+		end = position;
+	}
+
+	/**
+	 * Writes a record behind the last one (it becomes visible with the next {@link #force()}).
+	 *
+	 * @param record	The encoded record without its length
+	 * @param time		The source time of the record
+	 * @return false if the segment is too full for the record
+	 */
+	synchronized boolean append(byte[] record, long time) {
+
+		if (position + LENGTH_SIZE + record.length > size) return false;
+
+		// the length goes last, so a partly written record is not recovered
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + LENGTH_SIZE);
+		view.put(record);
+		view.putInt(position, record.length);
+
+		index(position, time);
+		position += LENGTH_SIZE + record.length;
+		return true;
+	}
+
+	private void index(int offset, long time) {
+
+		long[] chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if (chunk == null || chunk[3] == CHUNK_RECORDS) {
+			chunks.add(new long[] { offset, time, time, 1 });
+			return;
+		}
+		chunk[1] = Math.min(chunk[1], time);
+		chunk[2] = Math.max(chunk[2], time);
+		chunk[3]++;
+	}
+
+	/**
+	 * Forces the written records to disk and makes them visible to readers.
+	 */
+	synchronized void force() {
+
+		if (end == position) return;
+		buffer.force();
+		end = position;
+	}
+
+	/**
+	 * Checks whether the segment can hold a record at all.
+	 *
+	 * @param record The encoded record without its length
+	 * @return true if the record is not larger than an empty segment
+	 */
+	boolean fits(byte[] record) {
+		return LENGTH_SIZE + record.length <= size;
+	}
+
+	/**
+	 * Decodes the records of a series within a time range.
+	 *
+	 * @param seriesHash	Hash of the series name
+	 * @param series		The series name
+	 * @param from			Lowest source time in milliseconds (inclusive)
+	 * @param to			Highest source time in milliseconds (inclusive)
+	 * @param values		Map the values are added to by source time
+	 */
+	void read(long seriesHash, String series, long from, long to, NavigableMap<Long, DataValue> values) {
+
+		// overlapping chunks of the committed records
+		int readable = end;
+		ArrayList<long[]> overlapping = new ArrayList<long[]>();
+		synchronized (this) {
+			for (int i = 0; i < chunks.size(); i++) {
+				long[] chunk = chunks.get(i);
+				if (chunk[0] >= readable) break;
+				if (chunk[2] < from || chunk[1] > to) continue;
+				long chunkEnd = (i + 1 < chunks.size()) ? Math.min(chunks.get(i + 1)[0], readable) : readable;
+				overlapping.add(new long[] { chunk[0], chunkEnd });
+			}
+		}
+
+		ByteBuffer view = buffer.duplicate();
+		byte[] seriesBytes = series.getBytes(StandardCharsets.UTF_8);
+		for (long[] chunk : overlapping) {
+			int offset = (int) chunk[0];
+			while (offset < chunk[1]) {
+				int length = view.getInt(offset);
+				long time = view.getLong(offset + TIME_OFFSET);
+				if (time >= from && time <= to && view.getLong(offset + HASH_OFFSET) == seriesHash && isSeries(view, offset, seriesBytes))
+					values.put(time, decode(view, offset, time));
+				offset += LENGTH_SIZE + length;
+			}
+		}
+	}
+
+	/**
+	 * Decodes all committed records (e.g. to compact the segment).
+	 *
+	 * @return The records in the order they were written
+	 */
+	List<Record> records() {
+
+		ArrayList<Record> records = new ArrayList<Record>();
+		ByteBuffer view = buffer.duplicate();
+		int readable = end;
+		int offset = 0;
+		while (offset < readable) {
+			int length = view.getInt(offset);
+			long time = view.getLong(offset + TIME_OFFSET);
+			byte[] seriesBytes = new byte[view.getShort(offset + SERIES_OFFSET) & 0xffff];
+			view.position(offset + SERIES_OFFSET + 2);
+			view.get(seriesBytes);
+			byte[] bytes = new byte[length];
+			view.position(offset + LENGTH_SIZE);
+			view.get(bytes);
+			records.add(new Record(new String(seriesBytes, StandardCharsets.UTF_8), time, decode(view, offset, time), bytes));
+			offset += LENGTH_SIZE + length;
+		}
+		return records;
+	}
+
+	/**
+	 * Collects the latest time of every series in the committed records, without decoding their values.
+	 *
+	 * @param lastTimes Map of the latest times by series, which is updated
+	 */
+	void collectLastTimes(Map<String, Long> lastTimes) {
+
+		ByteBuffer view = buffer.duplicate();
+		int readable = end;
+		int offset = 0;
+		while (offset < readable) {
+			int length = view.getInt(offset);
+			long time = view.getLong(offset + TIME_OFFSET);
+			byte[] seriesBytes = new byte[view.getShort(offset + SERIES_OFFSET) & 0xffff];
+			view.position(offset + SERIES_OFFSET + 2);
+			view.get(seriesBytes);
+			String series = new String(seriesBytes, StandardCharsets.UTF_8);
+			Long last = lastTimes.get(series);
+			if (last == null || time > last) lastTimes.put(series, time);
+			offset += LENGTH_SIZE + length;
+		}
+	}
+
+	/**
+	 * A decoded record.
+	 */
+	static class Record {
+
+		final String series;
+		final long time;
+		final DataValue value;
+		final byte[] bytes; // the encoded record without its length
+
+		private Record(String series, long time, DataValue value, byte[] bytes) {
+			this.series = series;
+			this.time = time;
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static boolean isSeries(ByteBuffer view, int offset, byte[] seriesBytes) {
+
+		int length = view.getShort(offset + SERIES_OFFSET) & 0xffff;
+		if (length != seriesBytes.length) return false;
+		for (int i = 0; i < length; i++) {
+			if (view.get(offset + SERIES_OFFSET + 2 + i) != seriesBytes[i]) return false;
+		}
+		return true;
+	}
+
+	private static DataValue decode(ByteBuffer view, int offset, long time) {
+
+		int position = offset + SERIES_OFFSET + 2 + (view.getShort(offset + SERIES_OFFSET) & 0xffff);
+		long serverTime = view.getLong(position);
+		int status = view.getInt(position + 8);
+		int valueLength = view.getInt(position + 12);
+
+		Variant value = null;
+		if (valueLength >= 0) {
+			byte[] bytes = new byte[valueLength];
+			ByteBuffer valueView = view.duplicate();
+			valueView.position(position + 16);
+			valueView.get(bytes);
+			value = new Variant(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return new DataValue(value, new StatusCode(status), DateTime.fromMillis(time), DateTime.fromMillis(serverTime));
+	}
+
+	/**
+	 * Encodes a value of a series as a record (without its length).
+	 *
+	 * @param seriesHash	Hash of the series name
+	 * @param series		The series name
+	 * @param time			The source time of the value
+	 * @param value			The value
+	 * @return The record
+	 */
+	static byte[] encode(String series, long time, DataValue value) {
+		return encode(BlockChangeDetector.hash(series), series, time, value);
+	}
+
+	static byte[] encode(long seriesHash, String series, long time, DataValue value) {
+
+		byte[] seriesBytes = series.getBytes(StandardCharsets.UTF_8);
+		Object content = (value.getValue() == null) ? null : value.getValue().getValue();
+		byte[] valueBytes = (content == null) ? null : content.toString().getBytes(StandardCharsets.UTF_8);
+		long serverTime = (value.getServerTimestamp() == null) ? time : value.getServerTimestamp().getTimeInMillis();
+		int status = (value.getStatusCode() == null) ? 0 : value.getStatusCode().getValueAsIntBits();
+
+		ByteBuffer record = ByteBuffer.allocate(8 + 8 + 2 + seriesBytes.length + 8 + 4 + 4 + ((valueBytes == null) ? 0 : valueBytes.length));
+		record.putLong(time);
+		record.putLong(seriesHash);
+		record.putShort((short) seriesBytes.length);
+		record.put(seriesBytes);
+		record.putLong(serverTime);
+		record.putInt(status);
+		if (valueBytes == null) record.putInt(-1);
+		else {
+			record.putInt(valueBytes.length);
+			record.put(valueBytes);
+		}
+		return record.array();
+	}
+
+	/**
+	 * Gets the lowest and highest source time of the committed records.
+	 *
+	 * @return Lowest and highest time, or null if the segment is empty
+	 */
+	synchronized long[] getTimeRange() {
+
+		long[] range = null;
+		for (long[] chunk : chunks) {
+			if (chunk[0] >= end) break;
+			if (range == null) range = new long[] { chunk[1], chunk[2] };
+			else {
+				range[0] = Math.min(range[0], chunk[1]);
+				range[1] = Math.max(range[1], chunk[2]);
+			}
+		}
+		return range;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the mapping of the segment file, which keeps the file's disk space in use until it is garbage collected.
+	 *
+	 * @return The mapped buffer
+	 */
+	Object getMapping() {
+		return buffer;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the size of the segment file.
+	 *
+	 * @return Number of bytes on disk
+	 */
+	long getFileSize() {
+		return size;
+	}
+
+	int getUsedBytes() {
+		return end;
+	}
+
+	void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
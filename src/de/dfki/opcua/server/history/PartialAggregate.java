@@ -0,0 +1,231 @@
+package de.dfki.opcua.server.history;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+import org.opcfoundation.ua.builtintypes.DateTime;
+import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.Variant;
+import org.opcfoundation.ua.core.StatusCodes;
+
+/**
+ * The summary of the values of one series within one processing interval, from which an {@link Aggregate} is computed. <br/>
+ * Partial aggregates of the same interval can be merged regardless of the order of their values, so every segment of the
+ * {@link HistoryLog} can be summarized on its own (and the summary kept for later queries). Values count as numeric if they
+ * parse as a number, "true" and "false" count as 1 and 0. Only DurationInStateNonZero needs the individual values and keeps
+ * their states.
+ *
+ * @author xekl01
+ *
+ */
+class PartialAggregate {
+
+	private long count = 0;
+	private long numericCount = 0;
+	private double sum = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private long firstTime = Long.MAX_VALUE;
+	private DataValue first = null;
+	private long lastTime = Long.MIN_VALUE;
+	private DataValue last = null;
+	private final TreeMap<Long, Boolean> states; // non-zero state by time (only for DurationInStateNonZero)
+
+	/**
+	 * Constructor.
+	 *
+	 * @param aggregate The aggregate to be computed
+	 */
+	PartialAggregate(Aggregate aggregate) {
+		this.states = (aggregate == Aggregate.DurationInStateNonZero) ? new TreeMap<Long, Boolean>() : null;
+	}
+
+	/**
+	 * Sorts values into processing intervals and summarizes each interval.
+	 *
+	 * @param values	The values by source time
+	 * @param aggregate	The aggregate to be computed
+	 * @param start		Start of the first interval in milliseconds
+	 * @param end		End of the last interval in milliseconds (exclusive)
+	 * @param interval	Length of an interval in milliseconds (0 for a single interval)
+	 * @return One summary per interval (null for intervals without values)
+	 */
+	static PartialAggregate[] bucket(NavigableMap<Long, DataValue> values, Aggregate aggregate, long start, long end, long interval) {
+
+		PartialAggregate[] partials = new PartialAggregate[countIntervals(start, end, interval)];
+		for (Map.Entry<Long, DataValue> value : values.subMap(start, true, end, false).entrySet()) {
+			int index = (interval <= 0) ? 0 : (int) ((value.getKey() - start) / interval);
+			if (partials[index] == null) partials[index] = new PartialAggregate(aggregate);
+			partials[index].add(value.getKey(), value.getValue());
+		}
+		return partials;
+	}
+
+	static int countIntervals(long start, long end, long interval) {
+		if (interval <= 0 || end <= start) return 1;
+		return (int) Math.min(Integer.MAX_VALUE, (end - start + interval - 1) / interval);
+	}
+
+	void add(long time, DataValue value) {
+
+		count++;
+		double number = numeric(value);
+		if (!Double.isNaN(number)) {
+			numericCount++;
+			sum += number;
+			min = Math.min(min, number);
+			max = Math.max(max, number);
+		}
+		if (time < firstTime) {
+			firstTime = time;
+			first = value;
+		}
+		if (time >= lastTime) {
+			lastTime = time;
+			last = value;
+		}
+		if (states != null) states.put(time, isNonZero(number));
+	}
+
+	/**
+	 * Adds the values summarized by another partial aggregate of the same interval (which is not changed).
+	 *
+	 * @param other The other partial aggregate
+	 */
+	void merge(PartialAggregate other) {
+
+		count += other.count;
+		numericCount += other.numericCount;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		if (other.firstTime < firstTime) {
+			firstTime = other.firstTime;
+			first = other.first;
+		}
+		if (other.lastTime >= lastTime) {
+			lastTime = other.lastTime;
+			last = other.last;
+		}
+		if (states != null && other.states != null) states.putAll(other.states);
+	}
+
+	/**
+	 * Estimates the heap used by the summary (to limit the summaries cached by the log).
+	 *
+	 * @return Number of bytes
+	 */
+	long getBytes() {
+
+		long bytes = 96 + bytesOf(first) + ((last != first) ? bytesOf(last) : 0);
+		if (states != null) bytes += 48 + 64L * states.size();
+		return bytes;
+	}
+
+	private static long bytesOf(DataValue value) {
+
+		if (value == null) return 0;
+		Object content = (value.getValue() != null) ? value.getValue().getValue() : null;
+		return 80 + ((content instanceof String) ? 40 + 2L * ((String) content).length() : 16);
+	}
+
+	/**
+	 * Computes the aggregate of an interval.
+	 *
+	 * @param partial		The summary of the interval (null if it has no values)
+	 * @param aggregate		The aggregate
+	 * @param start			Start of the interval in milliseconds
+	 * @param end			End of the interval in milliseconds (exclusive)
+	 * @param priorState	Whether the last value before the interval was non-zero
+	 * @return The aggregated value, timestamped with the start of the interval
+	 */
+	static DataValue result(PartialAggregate partial, Aggregate aggregate, long start, long end, boolean priorState) {
+
+		Object value = null;
+		switch (aggregate) {
+		case Count:
+			value = (partial == null) ? 0 : (int) partial.count;
+			break;
+		case Start:
+			if (partial != null && partial.first != null) value = partial.first.getValue().getValue();
+			break;
+		case End:
+			if (partial != null && partial.last != null) value = partial.last.getValue().getValue();
+			break;
+		case Minimum:
+			if (partial != null && partial.numericCount > 0) value = partial.min;
+			break;
+		case Maximum:
+			if (partial != null && partial.numericCount > 0) value = partial.max;
+			break;
+		case Average:
+			if (partial != null && partial.numericCount > 0) value = partial.sum / partial.numericCount;
+			break;
+		case DurationInStateNonZero:
+			value = (double) durationNonZero(partial, start, end, priorState);
+			break;
+		}
+
+		DateTime time = DateTime.fromMillis(start);
+		if (value == null) return new DataValue(null, new StatusCode(StatusCodes.Bad_NoData), time, DateTime.currentTime());
+		return new DataValue(new Variant(value), StatusCode.GOOD, time, DateTime.currentTime());
+	}
+
+	// time in milliseconds the series spent non-zero within the interval
+	private static long durationNonZero(PartialAggregate partial, long start, long end, boolean priorState) {
+
+		long duration = 0;
+		long since = start;
+		boolean state = priorState;
+		if (partial != null) {
+			for (Map.Entry<Long, Boolean> change : partial.states.entrySet()) {
+				if (state) duration += change.getKey() - since;
+				since = change.getKey();
+				state = change.getValue();
+			}
+		}
+		if (state) duration += end - since;
+		return duration;
+	}
+
+	/**
+	 * Gets whether the last value of the interval was non-zero.
+	 *
+	 * @param partial		The summary of the interval (null if it has no values)
+	 * @param priorState	Whether the last value before the interval was non-zero
+	 * @return The state at the end of the interval
+	 */
+	static boolean lastState(PartialAggregate partial, boolean priorState) {
+		return (partial == null || partial.last == null) ? priorState : isNonZero(numeric(partial.last));
+	}
+
+	/**
+	 * Parses a value as a number.
+	 *
+	 * @param value The value
+	 * @return The number (1 or 0 for "true" or "false"), or NaN if the value is not numeric
+	 */
+	static double numeric(DataValue value) {
+
+		if (value == null || value.getValue() == null || value.getValue().getValue() == null) return Double.NaN;
+		Object content = value.getValue().getValue();
+		if (content instanceof Number) return ((Number) content).doubleValue();
+		if (content instanceof Boolean) return ((Boolean) content) ? 1 : 0;
+
+		String text = content.toString().trim();
+		if (text.equalsIgnoreCase("true")) return 1;
+		if (text.equalsIgnoreCase("false")) return 0;
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	static boolean isNonZero(double number) {
+		return !Double.isNaN(number) && number != 0;
+	}
+
+}
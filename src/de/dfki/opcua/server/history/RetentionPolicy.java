@@ -0,0 +1,88 @@
+package de.dfki.opcua.server.history;
+
+/**
+ * Decides how long the values of a group of series stay in the {@link HistoryLog}. <br/>
+ * Values younger than the raw retention are kept as they are. Older values are downsampled: per series and downsampling
+ * interval, only one value remains (the average of numeric values, otherwise the last value), timestamped with the start
+ * of the interval. Values older than the maximum age are deleted. <br/>
+ * A policy applies either to all series starting with a prefix (e.g. the namespace of a memory or block) or to the series
+ * of all blocks of an OMM block type.
+ *
+ * @author xekl01
+ *
+ */
+public class RetentionPolicy {
+
+	/** What happens to a value during compaction. */
+	public enum Action { Keep, Downsample, Delete }
+
+	private final String seriesPrefix;
+	private final String blockType;
+	private final long rawRetention;
+	private final long downsampleInterval;
+	private final long maxAge;
+
+	private RetentionPolicy(String seriesPrefix, String blockType, long rawRetention, long downsampleInterval, long maxAge) {
+		this.seriesPrefix = seriesPrefix;
+		this.blockType = blockType;
+		this.rawRetention = rawRetention;
+		this.downsampleInterval = downsampleInterval;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Creates a policy for all series starting with a prefix.
+	 *
+	 * @param seriesPrefix			Prefix of the series, e.g. the namespace of a memory
+	 * @param rawRetention			Age in milliseconds up to which values are kept as they are
+	 * @param downsampleInterval	Length of a downsampling interval in milliseconds (0 to delete values instead of downsampling)
+	 * @param maxAge				Age in milliseconds after which values are deleted (0 to keep them forever)
+	 * @return The policy
+	 */
+	public static RetentionPolicy forSeries(String seriesPrefix, long rawRetention, long downsampleInterval, long maxAge) {
+		return new RetentionPolicy(seriesPrefix, null, rawRetention, downsampleInterval, maxAge);
+	}
+
+	/**
+	 * Creates a policy for the series of all blocks of an OMM block type.
+	 *
+	 * @param blockType				The block type (see the block variable "Type")
+	 * @param rawRetention			Age in milliseconds up to which values are kept as they are
+	 * @param downsampleInterval	Length of a downsampling interval in milliseconds (0 to delete values instead of downsampling)
+	 * @param maxAge				Age in milliseconds after which values are deleted (0 to keep them forever)
+	 * @return The policy
+	 */
+	public static RetentionPolicy forBlockType(String blockType, long rawRetention, long downsampleInterval, long maxAge) {
+		return new RetentionPolicy(null, blockType, rawRetention, downsampleInterval, maxAge);
+	}
+
+	/**
+	 * Checks whether the policy applies to a series.
+	 *
+	 * @param series	Name of the series
+	 * @param blockType	Type of the block the series belongs to (null if unknown)
+	 * @return true if the policy applies
+	 */
+	public boolean matches(String series, String blockType) {
+		if (seriesPrefix != null) return series.startsWith(seriesPrefix);
+		return this.blockType.equals(blockType);
+	}
+
+	/**
+	 * Decides what happens to a value of a given age.
+	 *
+	 * @param age Age of the value in milliseconds
+	 * @return The action
+	 */
+	public Action decide(long age) {
+
+		if (maxAge > 0 && age > maxAge) return Action.Delete;
+		if (age <= rawRetention) return Action.Keep;
+		return (downsampleInterval > 0) ? Action.Downsample : Action.Delete;
+	}
+
+	public long getDownsampleInterval() {
+		return downsampleInterval;
+	}
+
+}
@@ -5,6 +5,7 @@ import java.util.Locale;
 import org.opcfoundation.ua.builtintypes.DiagnosticInfo;
 import org.opcfoundation.ua.builtintypes.NodeId;
 import org.opcfoundation.ua.builtintypes.StatusCode;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
 import org.opcfoundation.ua.builtintypes.Variant;
 
 import com.prosysopc.ua.server.NodeManagerUaNode;
@@ -70,4 +71,14 @@ public abstract class OmsMethod extends PlainMethod {
 	 */
 	public abstract boolean execute();
 	
+	/**
+	 * Converts an unsigned input argument to an int.
+	 * 
+	 * @param value The argument (may be null)
+	 * @return The value, at most Integer.MAX_VALUE (0 for null)
+	 */
+	protected static int toInt(UnsignedInteger value) {
+		return (value == null) ? 0 : (int) Math.min(value.longValue(), Integer.MAX_VALUE);
+	}
+	
 }
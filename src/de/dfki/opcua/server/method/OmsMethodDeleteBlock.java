@@ -10,6 +10,7 @@ import de.dfki.omm.impl.rest.OMMRestImpl;
 import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.tools.OMMActionResultType;
 import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMRestAccessMode;
 
 /**
  * A method to delete a given block from an OMM. 
@@ -19,8 +20,8 @@ import de.dfki.omm.types.OMMEntity;
  */
 public class OmsMethodDeleteBlock extends OmsMethod {
 
-	private OMMRestImpl omm;
-	private OMMBlock block;
+	private String memoryURL;
+	private String blockId;
 
 	/**
 	 * Basic Constructor.
@@ -36,27 +37,35 @@ public class OmsMethodDeleteBlock extends OmsMethod {
 	
 	/**
 	 * Constructor with OMM and Block to be deleted. 
+	 * (The block is downloaded when the method is called, so no version of it is held until then.)
 	 * 
-	 * @param omm			The OMM containing the block
-	 * @param block			The block to be deleted
+	 * @param memoryURL		URL of the OMM containing the block
+	 * @param blockId		ID of the block to be deleted
 	 * @param parentNode	The node this method is a child of
 	 * @param methodNodeId	This method's node id
 	 * @param methodName	This method's display name for the OPC UA server
 	 * @param locale		Locale of the display name
 	 */
-	public OmsMethodDeleteBlock (OMMRestImpl omm, OMMBlock block, NodeManagerUaNode parentNode, NodeId methodNodeId, String methodName, Locale locale) {
+	public OmsMethodDeleteBlock (String memoryURL, String blockId, NodeManagerUaNode parentNode, NodeId methodNodeId, String methodName, Locale locale) {
 		super(parentNode, methodNodeId, methodName, locale);
-		this.omm = omm; 
-		this.block = block;
+		this.memoryURL = memoryURL; 
+		this.blockId = blockId;
 	}
 	
 	@Override
 	public boolean execute () {
 
+		OMMRestImpl omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.SingleAccess, null);
+		OMMBlock block = omm.getBlock(blockId);
+		if (block == null) {
+			System.err.println("Block \""+blockId+"\" could not be found.");
+			throw new RuntimeException("Block not found");
+		}
+		
 		OMMActionResultType result = omm.removeBlock(block, OMMEntity.getDummyEntity());
 		if (result == OMMActionResultType.OK) return true;
 		else {
-			System.err.println("Block \""+block.getID()+"\" could not be deleted. "+result.toString());
+			System.err.println("Block \""+blockId+"\" could not be deleted. "+result.toString());
 			throw new RuntimeException(result.toString());
 //			return false;
 		}
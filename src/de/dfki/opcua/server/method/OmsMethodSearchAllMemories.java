@@ -0,0 +1,138 @@
+package de.dfki.opcua.server.method;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import com.prosysopc.ua.server.MethodManager;
+import com.prosysopc.ua.server.NodeManagerUaNode;
+
+import de.dfki.opcua.server.search.MemorySearch;
+import de.dfki.opcua.server.search.SearchCursors;
+import de.dfki.opcua.server.search.SearchField;
+
+/**
+ * A method to search for blocks in all OMMs of the OMS by their contents. <br>
+ * <br>
+ * Arguments to hand to this method: <br>
+ * - query items for namespace, format, creator, title, description, type, subject, payload and link ({@link String},
+ * as for {@link OmsMethodSearchBlock}) <br>
+ * - maximum number of results ({@link UnsignedInteger}, 0 for all) <br>
+ * - maximum number of results per page ({@link UnsignedInteger}, 0 for all, optional) <br>
+ * - continuation token of the previous page ({@link String}, empty for a new search, optional) <br>
+ * - whether a block has to match all queried contents instead of any ({@link Boolean}, optional) <br>
+ * <br>
+ * Results: the names of the memories and the IDs of the matching blocks, in two arrays of the same length, the 
+ * continuation token for the next page (empty if there is none) and the names of the memories that could not be 
+ * downloaded and are missing from the results (with the first page only). <br>
+ * All memories are searched (up to the result limit) before the first page is returned; the further pages are served from
+ * the kept results (see {@link SearchCursors}), not produced while they are read.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsMethodSearchAllMemories extends OmsMethod {
+
+	private MemorySearch search;
+	private SearchCursors cursors;
+
+	private Variant[] output;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param search		Search over all memories of the OMS
+	 * @param cursors		Cursors of paged searches
+	 * @param parentNode	The node this method is a child of
+	 * @param methodNodeId	This method's node id
+	 * @param methodName	This method's display name for the OPC UA server
+	 * @param locale		Locale of the display name
+	 */
+	public OmsMethodSearchAllMemories (MemorySearch search, SearchCursors cursors, NodeManagerUaNode parentNode, NodeId methodNodeId, String methodName, Locale locale) {
+		super(parentNode, methodNodeId, methodName, locale);
+		this.search = search;
+		this.cursors = cursors;
+	}
+
+	@Override
+	public boolean execute () {
+
+		// check arguments (page size, continuation token and match mode may be omitted)
+		int fieldCount = SearchField.values().length;
+		Class<?>[] optionalFormats = new Class<?>[] { UnsignedInteger.class, String.class, Boolean.class };
+		int count = (inputArguments == null) ? fieldCount + 1 : Math.max(fieldCount + 1, Math.min(inputArguments.length, fieldCount + 1 + optionalFormats.length));
+		Class<?>[] inputFormats = new Class<?>[count];
+		for (int i = 0; i < count; i++) {
+			if (i < fieldCount) inputFormats[i] = String.class;
+			else if (i == fieldCount) inputFormats[i] = UnsignedInteger.class;
+			else inputFormats[i] = optionalFormats[i - fieldCount - 1];
+		}
+		try {
+			MethodManager.checkInputArguments(inputFormats, inputArguments, inputArgumentResults, inputArgumentDiagnosticInfos, false);
+		} catch (Exception e) {
+			System.err.println("Method could not be executed. Input arguments invalid.");
+			e.printStackTrace();
+			return false;
+		}
+
+		int pageSize = (count > fieldCount + 1) ? toInt((UnsignedInteger) inputArguments[fieldCount + 1].getValue()) : 0;
+		String token = (count > fieldCount + 2) ? (String) inputArguments[fieldCount + 2].getValue() : null;
+		boolean matchAll = (count > fieldCount + 3) && Boolean.TRUE.equals(inputArguments[fieldCount + 3].getValue());
+
+		// continue an earlier search
+		SearchCursors.Page page;
+		String[] unsearched = new String[0]; // reported with the first page only
+		if (token != null && token.length() > 0) {
+			page = cursors.next(token, pageSize);
+			if (page == null) {
+				System.err.println("Method could not be executed. Continuation token unknown or expired.");
+				return false;
+			}
+		}
+
+		// new search
+		else {
+			String[] queries = new String[fieldCount];
+			for (int i = 0; i < fieldCount; i++) queries[i] = (String) inputArguments[i].getValue();
+			MemorySearch.Result result = search.search(queries, matchAll, toInt((UnsignedInteger) inputArguments[fieldCount].getValue()));
+			List<MemorySearch.Match> matches = result.getMatches();
+			unsearched = result.getUnsearched().toArray(unsearched);
+			if (unsearched.length > 0) System.err.println("Memories could not be searched: "+result.getUnsearched());
+			if (matches.isEmpty() && unsearched.length == 0) return false;
+
+			ArrayList<String[]> rows = new ArrayList<String[]>(matches.size());
+			for (MemorySearch.Match match : matches) rows.add(new String[] { match.getMemoryName(), match.getBlockId() });
+			page = cursors.open(rows, pageSize);
+		}
+
+		// add search results to output
+		List<String[]> rows = page.getRows();
+		String[] memoryNames = new String[rows.size()];
+		String[] blockIds = new String[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			memoryNames[i] = rows.get(i)[0];
+			blockIds[i] = rows.get(i)[1];
+		}
+		output = new Variant[4];
+		output[0] = new Variant(memoryNames);
+		output[1] = new Variant(blockIds);
+		output[2] = new Variant((page.getContinuationToken() == null) ? "" : page.getContinuationToken());
+		output[3] = new Variant(unsearched);
+		return true;
+	}
+
+	/**
+	 * Calls this method's execute() method and returns its result (if there is any).
+	 *
+	 * @return Variant[] with the memory names, block IDs, the continuation token and the unsearched memories, or null
+	 */
+	public Variant[] executeWithOutput() {
+		if (execute()) return output;
+		else return null;
+	}
+
+}
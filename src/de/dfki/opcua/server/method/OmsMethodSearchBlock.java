@@ -1,10 +1,13 @@
 package de.dfki.opcua.server.method;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
 import org.opcfoundation.ua.builtintypes.Variant;
 
 import com.prosysopc.ua.server.MethodManager;
@@ -15,10 +18,19 @@ import de.dfki.omm.impl.rest.OMMRestImpl;
 import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.types.OMMRestAccessMode;
 // import de.dfki.oms.security.acl.OMMUsernamePasswordCredentials;
-import de.dfki.opcua.server.OmsParser;
+import de.dfki.opcua.server.search.BlockIndex;
+import de.dfki.opcua.server.search.BlockScan;
+import de.dfki.opcua.server.search.PayloadBloomFilters;
+import de.dfki.opcua.server.search.SearchCache;
+import de.dfki.opcua.server.search.SearchCursors;
+import de.dfki.opcua.server.search.SearchField;
 
 /**
  * A method to search for a block in an OMM by its contents. <br>
+ * If the memory's {@link BlockIndex} is complete, the search is answered from the index (or from the {@link SearchCache}
+ * if the same search was made since the last change of the memory), otherwise the blocks are downloaded and searched 
+ * by a {@link BlockScan}. Every scan downloads all blocks at once and builds the missing {@link PayloadBloomFilters}; later 
+ * scans for a payload only compare the payloads of the blocks whose filters do not rule out the payload query. <br>
  * <br>
  * Arguments to hand to this method: <br>
  * - query items for namespace ({@link String}) <br>
@@ -30,6 +42,12 @@ import de.dfki.opcua.server.OmsParser;
  * - query items for subject ({@link String}) <br>
  * - query items for payload ({@link String}) <br>
  * - query items for link({@link String}) <br>
+ * - maximum number of results per page ({@link UnsignedInteger}, 0 for all, optional) <br>
+ * - continuation token of the previous page ({@link String}, empty for a new search, optional) <br>
+ * - whether a block has to match all queried contents instead of any ({@link Boolean}, optional) <br>
+ * <br>
+ * Results: the IDs of the matching blocks and the continuation token for the next page (empty if there is none). 
+ * Further pages are kept by the server until they have not been requested for a while (see {@link SearchCursors}).
  * 
  * @author xekl01
  *
@@ -37,6 +55,10 @@ import de.dfki.opcua.server.OmsParser;
 public class OmsMethodSearchBlock extends OmsMethod {
 
 	private String memoryURL;
+	private BlockIndex index;
+	private SearchCursors cursors = new SearchCursors();
+	private SearchCache cache = null;
+	private PayloadBloomFilters filters = null;
 
 	private Variant[] output;
 	
@@ -66,11 +88,37 @@ public class OmsMethodSearchBlock extends OmsMethod {
 		this.memoryURL = memoryURL; 
 	}
 	
+	/**
+	 * Constructor with URL to the memory, the memory's block index, the cursors of paged searches, the search cache and the 
+	 * payload Bloom filters for scans. 
+	 * 
+	 * @param memoryURL		URL to the OMS
+	 * @param index			Index of the memory's blocks
+	 * @param cursors		Cursors of paged searches
+	 * @param cache			Cache of recent search results
+	 * @param filters		Payload Bloom filters of the blocks of memories that are not indexed
+	 * @param parentNode	The node this method is a child of
+	 * @param methodNodeId	This method's node id
+	 * @param methodName	This method's display name for the OPC UA server
+	 * @param locale		Locale of the display name
+	 */
+	public OmsMethodSearchBlock (String memoryURL, BlockIndex index, SearchCursors cursors, SearchCache cache, PayloadBloomFilters filters, NodeManagerUaNode parentNode, NodeId methodNodeId, String methodName, Locale locale) {
+		this(memoryURL, parentNode, methodNodeId, methodName, locale);
+		this.index = index;
+		this.cursors = cursors;
+		this.cache = cache;
+		this.filters = filters;
+	}
+	
 	@Override
 	public boolean execute () {
 
-		// check arguments 
-		Class<?>[] inputFormats = new Class<?>[] { String.class, String.class, String.class, String.class, String.class, String.class, String.class, String.class, String.class };
+		// check arguments (page size, continuation token and match mode may be omitted)
+		int fieldCount = SearchField.values().length;
+		Class<?>[] optionalFormats = new Class<?>[] { UnsignedInteger.class, String.class, Boolean.class };
+		int count = (inputArguments == null) ? fieldCount : Math.max(fieldCount, Math.min(inputArguments.length, fieldCount + optionalFormats.length));
+		Class<?>[] inputFormats = new Class<?>[count];
+		for (int i = 0; i < count; i++) inputFormats[i] = (i < fieldCount) ? String.class : optionalFormats[i - fieldCount];
 		try {
 			MethodManager.checkInputArguments(inputFormats, inputArguments, inputArgumentResults, inputArgumentDiagnosticInfos, false);
 		} catch (Exception e) {
@@ -78,6 +126,67 @@ public class OmsMethodSearchBlock extends OmsMethod {
 			e.printStackTrace();
 			return false;
 		}
+		int pageSize = (count > fieldCount) ? toInt((UnsignedInteger) inputArguments[fieldCount].getValue()) : 0;
+		String token = (count > fieldCount + 1) ? (String) inputArguments[fieldCount + 1].getValue() : null;
+		boolean matchAll = (count > fieldCount + 2) && Boolean.TRUE.equals(inputArguments[fieldCount + 2].getValue());
+		
+		// continue an earlier search
+		SearchCursors.Page page;
+		if (token != null && token.length() > 0) {
+			page = cursors.next(token, pageSize);
+			if (page == null) {
+				System.err.println("Method could not be executed. Continuation token unknown or expired.");
+				return false;
+			}
+		}
+		
+		// new search, answered from the index if it holds all blocks
+		else {
+			String[] queries = new String[fieldCount];
+			for (int i = 0; i < fieldCount; i++) queries[i] = (String) inputArguments[i].getValue();
+			Set<String> results = (index != null && index.isLoaded()) ? search(queries, matchAll) : scan(queries, matchAll);
+			if (results == null || results.isEmpty()) return false;
+			
+			ArrayList<String[]> rows = new ArrayList<String[]>(results.size());
+			for (String blockId : results) rows.add(new String[] { blockId });
+			page = cursors.open(rows, pageSize);
+		}
+		
+		// add search results to output
+		String[] blockIds = new String[page.getRows().size()];
+		for (int i = 0; i < blockIds.length; i++) blockIds[i] = page.getRows().get(i)[0];
+		output = new Variant[2];
+		output[0] = new Variant(blockIds);
+		output[1] = new Variant((page.getContinuationToken() == null) ? "" : page.getContinuationToken());
+		return true;
+	}
+	
+	/**
+	 * Searches the index of the memory, or takes the results from the cache if the memory has not changed since.
+	 * 
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @return IDs of the matching blocks
+	 */
+	private Set<String> search (String[] queries, boolean matchAll) {
+		
+		if (cache == null) return index.search(queries, matchAll);
+		long version = index.getVersion(); // read before searching, so results of a concurrent change are never tagged as current
+		Set<String> results = cache.get(memoryURL, queries, matchAll, version);
+		if (results != null) return results;
+		results = index.search(queries, matchAll);
+		cache.put(memoryURL, queries, matchAll, version, results);
+		return results;
+	}
+	
+	/**
+	 * Downloads all blocks of the memory and searches them for the queried contents.
+	 * 
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @return IDs of the matching blocks, or null if the memory has no blocks
+	 */
+	private HashSet<String> scan (String[] queries, boolean matchAll) {
 		
 		// handle authentication
 //		String authUser = null;
@@ -90,112 +199,36 @@ public class OmsMethodSearchBlock extends OmsMethod {
 		// create omm and get its blocks
 		OMSCredentials creds = null;
 //		if (authUser != null && authPw != null) creds = new OMMUsernamePasswordCredentials(authUser, authUser, authPw);
-		OMMRestImpl omm;
-		omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited, creds);
-		Collection<OMMBlock> blocks = null;
-		try {
-			blocks = omm.getAllBlocks();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
+		Collection<OMMBlock> blocks = downloadBlocks(creds);
 		
-		// search blocks for queried contents
+		// search blocks for queried contents in one pass per block
 		if (blocks != null && blocks.size() > 0) {
-			
-			String query;
-			HashSet<String> results = new HashSet<String>();
-			
-			// search for namespace (if queried)
-			query = (String) inputArguments[0].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseNamespace(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for format (if queried)
-			query = (String) inputArguments[1].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseFormat(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for creator (if queried)
-			query = (String) inputArguments[2].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseCreator(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for title (if queried)
-			query = (String) inputArguments[3].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseTitle(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for description (if queried)
-			query = (String) inputArguments[4].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseDescription(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for type (if queried)
-			query = (String) inputArguments[5].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseType(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for subject (if queried)
-			query = (String) inputArguments[6].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseSubject(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for payload (if queried)
-			query = (String) inputArguments[7].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parsePayload(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// search for link (if queried)
-			query = (String) inputArguments[8].getValue();
-			if (query != null && query.length() > 0) {
-				for (OMMBlock block : blocks) 
-					if (OmsParser.parseLink(block).contains(query))
-						results.add(block.getID());
-			}
-			
-			// add search results to output
-			if (!results.isEmpty()) {
-				output = new Variant[1];
-				output[0] = new Variant(results.toArray(new String[0]));
-				return true;
-			}
-			return false;
+			if (filters != null) filters.build(memoryURL, blocks); // the payloads have been downloaded anyway
+			return new HashSet<String>(new BlockScan(queries, matchAll, memoryURL, filters).scan(new ArrayList<OMMBlock>(blocks)));
 		}
 		
 		// there are no blocks
 		else 
-			return false;
+			return null;
+	}
+	
+	// downloads all blocks including their payloads in one request (null on failure)
+	private Collection<OMMBlock> downloadBlocks (OMSCredentials creds) {
+		
+		OMMRestImpl omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited, creds);
+		try {
+			return omm.getAllBlocks();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
 	}
 
 	/**
 	 * Calls this method's execute() method and returns its result (if there is any).
 	 * 
-	 * @return Variant[] with the method's result in the first slot, or null
+	 * @return Variant[] with the block IDs and the continuation token, or null
 	 */
 	public Variant[] executeWithOutput() {
 		if (execute()) return output;
@@ -0,0 +1,144 @@
+package de.dfki.opcua.server.method;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.opcfoundation.ua.builtintypes.NodeId;
+import org.opcfoundation.ua.builtintypes.UnsignedInteger;
+import org.opcfoundation.ua.builtintypes.Variant;
+
+import com.prosysopc.ua.server.MethodManager;
+import com.prosysopc.ua.server.NodeManagerUaNode;
+
+import de.dfki.opcua.server.OmsContext;
+import de.dfki.opcua.server.search.ConceptHierarchy;
+import de.dfki.opcua.server.search.MemorySearch;
+import de.dfki.opcua.server.search.SearchCursors;
+
+/**
+ * A method to search for blocks in all OMMs of the OMS by a subject concept. <br>
+ * Unlike the subject criterion of {@link OmsMethodSearchAllMemories}, the concept is not searched for in the rendered 
+ * subjects but looked up in the subject tags of the blocks, optionally together with all narrower concepts of the 
+ * concept hierarchy (see {@link ConceptHierarchy}). <br>
+ * <br>
+ * Arguments to hand to this method: <br>
+ * - the concept, e.g. the IRI of an ontology concept, or a text tag ({@link String}) <br>
+ * - whether blocks tagged with narrower concepts are found as well ({@link Boolean}) <br>
+ * - maximum number of results ({@link UnsignedInteger}, 0 for all) <br>
+ * - maximum number of results per page ({@link UnsignedInteger}, 0 for all, optional) <br>
+ * - continuation token of the previous page ({@link String}, empty for a new search, optional) <br>
+ * <br>
+ * Results: the names of the memories and the IDs of the matching blocks, in two arrays of the same length, the 
+ * continuation token for the next page (empty if there is none) and the names of the memories that could not be 
+ * downloaded and are missing from the results (with the first page only). <br>
+ * As for {@link OmsMethodSearchAllMemories}, the search completes before the first page is returned and the further pages 
+ * are served from its kept results.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsMethodSearchBySubject extends OmsMethod {
+
+	private MemorySearch search;
+	private OmsContext context;
+
+	private Variant[] output;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param search		Search over all memories of the OMS
+	 * @param context		Resources of the OMS (concept hierarchy and search cursors)
+	 * @param parentNode	The node this method is a child of
+	 * @param methodNodeId	This method's node id
+	 * @param methodName	This method's display name for the OPC UA server
+	 * @param locale		Locale of the display name
+	 */
+	public OmsMethodSearchBySubject (MemorySearch search, OmsContext context, NodeManagerUaNode parentNode, NodeId methodNodeId, String methodName, Locale locale) {
+		super(parentNode, methodNodeId, methodName, locale);
+		this.search = search;
+		this.context = context;
+	}
+
+	@Override
+	public boolean execute () {
+
+		// check arguments (page size and continuation token may be omitted)
+		Class<?>[] requiredFormats = new Class<?>[] { String.class, Boolean.class, UnsignedInteger.class };
+		Class<?>[] optionalFormats = new Class<?>[] { UnsignedInteger.class, String.class };
+		int count = (inputArguments == null) ? requiredFormats.length : Math.max(requiredFormats.length, Math.min(inputArguments.length, requiredFormats.length + optionalFormats.length));
+		Class<?>[] inputFormats = new Class<?>[count];
+		for (int i = 0; i < count; i++) inputFormats[i] = (i < requiredFormats.length) ? requiredFormats[i] : optionalFormats[i - requiredFormats.length];
+		try {
+			MethodManager.checkInputArguments(inputFormats, inputArguments, inputArgumentResults, inputArgumentDiagnosticInfos, false);
+		} catch (Exception e) {
+			System.err.println("Method could not be executed. Input arguments invalid.");
+			e.printStackTrace();
+			return false;
+		}
+
+		int pageSize = (count > 3) ? toInt((UnsignedInteger) inputArguments[3].getValue()) : 0;
+		String token = (count > 4) ? (String) inputArguments[4].getValue() : null;
+		SearchCursors cursors = context.getSearchCursors();
+
+		// continue an earlier search
+		SearchCursors.Page page;
+		String[] unsearched = new String[0]; // reported with the first page only
+		if (token != null && token.length() > 0) {
+			page = cursors.next(token, pageSize);
+			if (page == null) {
+				System.err.println("Method could not be executed. Continuation token unknown or expired.");
+				return false;
+			}
+		}
+
+		// new search
+		else {
+			String concept = (String) inputArguments[0].getValue();
+			if (concept == null || concept.trim().length() == 0) {
+				System.err.println("Method could not be executed. No concept given.");
+				return false;
+			}
+			boolean narrower = Boolean.TRUE.equals(inputArguments[1].getValue());
+			Set<String> concepts = narrower ? context.getConceptHierarchy().expand(concept) : Collections.singleton(ConceptHierarchy.normalize(concept));
+			MemorySearch.Result result = search.searchSubjects(concepts, toInt((UnsignedInteger) inputArguments[2].getValue()));
+			List<MemorySearch.Match> matches = result.getMatches();
+			unsearched = result.getUnsearched().toArray(unsearched);
+			if (unsearched.length > 0) System.err.println("Memories could not be searched: "+result.getUnsearched());
+			if (matches.isEmpty() && unsearched.length == 0) return false;
+
+			ArrayList<String[]> rows = new ArrayList<String[]>(matches.size());
+			for (MemorySearch.Match match : matches) rows.add(new String[] { match.getMemoryName(), match.getBlockId() });
+			page = cursors.open(rows, pageSize);
+		}
+
+		// add search results to output
+		List<String[]> rows = page.getRows();
+		String[] memoryNames = new String[rows.size()];
+		String[] blockIds = new String[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			memoryNames[i] = rows.get(i)[0];
+			blockIds[i] = rows.get(i)[1];
+		}
+		output = new Variant[4];
+		output[0] = new Variant(memoryNames);
+		output[1] = new Variant(blockIds);
+		output[2] = new Variant((page.getContinuationToken() == null) ? "" : page.getContinuationToken());
+		output[3] = new Variant(unsearched);
+		return true;
+	}
+
+	/**
+	 * Calls this method's execute() method and returns its result (if there is any).
+	 *
+	 * @return Variant[] with the memory names, block IDs, the continuation token and the unsearched memories, or null
+	 */
+	public Variant[] executeWithOutput() {
+		if (execute()) return output;
+		else return null;
+	}
+
+}
@@ -0,0 +1,451 @@
+package de.dfki.opcua.server.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.dfki.omm.interfaces.OMMBlock;
+
+/**
+ * An inverted index over the searchable fields of the blocks of one memory. <br/>
+ * For every field but the payload, the index keeps the rendered text of each block and the blocks containing each token (a
+ * run of letters and digits). Payloads are not kept, candidates are compared to the current payload obtained from the
+ * {@link PayloadSource} instead (outside of the index lock). The index is updated block by block with the variables found
+ * changed by change detection, so searches are answered without contacting the OMS. <br/>
+ * Searches keep the contract of the search methods: a block matches if the field contains the query. Since every run of
+ * letters and digits of the query lies within one token of a matching block, the candidates are the blocks of the tokens
+ * containing the longest such run; only their texts are compared to the whole query. Finding these tokens compares the run
+ * to every distinct token of the field, so a query costs time in the size of the field's vocabulary. This is cheap for
+ * namespace, format, creator, type, subject and link, whose values repeat across blocks. Title, description and payload are
+ * long texts with many distinct tokens, so they are looked up by their trigrams instead (see {@link TrigramIndex}). <br/>
+ * If all queries have to match, the candidates of every query are looked up first and intersected starting with the
+ * smallest set, so the texts are compared only for the blocks left in the intersection, fields with short texts first. <br/>
+ * Besides, the subject tags of the blocks are indexed as they are (see {@link SubjectIndex}), so blocks can be found by
+ * ontology concepts with set operations instead of comparing the rendered subjects.
+ *
+ * @author xekl01
+ *
+ */
+public class BlockIndex {
+
+	private static final SearchField[] FIELDS = SearchField.values();
+
+	private static final int PAYLOAD = SearchField.Payload.ordinal();
+
+	/**
+	 * Provides the current payloads of the indexed blocks, e.g. from the payload store.
+	 */
+	public interface PayloadSource {
+
+		/**
+		 * Gets the current payload of a block, without contacting the OMS.
+		 *
+		 * @param blockId ID of the block
+		 * @return The payload, or null if the block or its payload is not known (the block is then not matched)
+		 */
+		String getPayload(String blockId);
+	}
+
+	private final PayloadSource payloads;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final HashMap<String, String[]> texts = new HashMap<String, String[]>(); // rendered fields by block ID (without payload)
+	private final ArrayList<HashMap<String, HashSet<String>>> postings = new ArrayList<HashMap<String, HashSet<String>>>(); // block IDs by token, per field
+	private final TrigramIndex trigrams = new TrigramIndex();
+	private final SubjectIndex subjects = new SubjectIndex();
+	private final long[] textLengths = new long[FIELDS.length]; // total length of the kept texts, per field
+	private volatile boolean loaded = false;
+	private static final AtomicLong VERSIONS = new AtomicLong(); // shared by all indexes, so a new index never repeats a version
+	private volatile long version = VERSIONS.incrementAndGet(); // written under the write lock
+
+	/**
+	 * Constructor.
+	 *
+	 * @param payloads Provides the payloads to compare candidates of payload queries to
+	 */
+	public BlockIndex(PayloadSource payloads) {
+		this.payloads = payloads;
+		for (int i = 0; i < FIELDS.length; i++) postings.add(new HashMap<String, HashSet<String>>());
+	}
+
+	/**
+	 * Indexes all fields of a block (replacing an earlier version).
+	 *
+	 * @param blockId	ID of the block
+	 * @param block		The block
+	 */
+	public void add(String blockId, OMMBlock block) {
+		update(blockId, block, null);
+	}
+
+	/**
+	 * Indexes the changed fields of a block again.
+	 *
+	 * @param blockId	ID of the block
+	 * @param block		The block in its new version
+	 * @param variables	Names of the changed block variables (null for all)
+	 */
+	public void update(String blockId, OMMBlock block, Collection<String> variables) {
+
+		// render outside of the lock
+		String[] rendered = new String[FIELDS.length];
+		for (SearchField field : FIELDS) {
+			if (variables == null || variables.contains(field.name())) rendered[field.ordinal()] = field.render(block);
+		}
+		Set<String> tags = (variables == null || variables.contains(SearchField.Subject.name())) ? SubjectIndex.tags(block) : null;
+
+		lock.writeLock().lock();
+		try {
+			String[] known = texts.get(blockId);
+			if (known == null) {
+				known = new String[FIELDS.length];
+				texts.put(blockId, known);
+			}
+			for (int i = 0; i < FIELDS.length; i++) {
+				if (rendered[i] == null) continue;
+				if (TrigramIndex.covers(FIELDS[i])) trigrams.index(blockId, FIELDS[i], rendered[i]);
+				if (i == PAYLOAD) continue; // only its trigrams are kept
+				if (known[i] != null) unindex(i, blockId, known[i]);
+				known[i] = rendered[i];
+				index(i, blockId, rendered[i]);
+			}
+			if (tags != null) subjects.update(blockId, tags);
+			version = VERSIONS.incrementAndGet();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a block from the index.
+	 *
+	 * @param blockId ID of the block
+	 */
+	public void remove(String blockId) {
+
+		lock.writeLock().lock();
+		try {
+			String[] known = texts.remove(blockId);
+			if (known == null) return;
+			trigrams.remove(blockId);
+			subjects.remove(blockId);
+			version = VERSIONS.incrementAndGet();
+			for (int i = 0; i < FIELDS.length; i++) {
+				if (known[i] != null) unindex(i, blockId, known[i]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void index(int field, String blockId, String text) {
+
+		textLengths[field] += text.length();
+		if (TrigramIndex.covers(FIELDS[field])) return;
+		HashMap<String, HashSet<String>> fieldPostings = postings.get(field);
+		for (String token : tokenize(text)) {
+			HashSet<String> blocks = fieldPostings.get(token);
+			if (blocks == null) {
+				blocks = new HashSet<String>();
+				fieldPostings.put(token, blocks);
+			}
+			blocks.add(blockId);
+		}
+	}
+
+	private void unindex(int field, String blockId, String text) {
+
+		textLengths[field] -= text.length();
+		if (TrigramIndex.covers(FIELDS[field])) return;
+		HashMap<String, HashSet<String>> fieldPostings = postings.get(field);
+		for (String token : tokenize(text)) {
+			HashSet<String> blocks = fieldPostings.get(token);
+			if (blocks == null) continue;
+			blocks.remove(blockId);
+			if (blocks.isEmpty()) fieldPostings.remove(token);
+		}
+	}
+
+	/**
+	 * Finds the blocks matching any of the queries of the search methods.
+	 *
+	 * @param queries One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @return IDs of the matching blocks
+	 */
+	public Set<String> search(String[] queries) {
+		return search(queries, false);
+	}
+
+	/**
+	 * Finds the blocks matching any or all of the queries of the search methods.
+	 *
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @return IDs of the matching blocks
+	 */
+	public Set<String> search(String[] queries, boolean matchAll) {
+
+		if (!matchAll) {
+			HashSet<String> results = new HashSet<String>();
+			for (SearchField field : FIELDS) {
+				String query = queries[field.ordinal()];
+				if (query != null && query.length() > 0) results.addAll(search(field, query));
+			}
+			return results;
+		}
+
+		HashSet<String> results;
+		Criterion payloadCriterion = null;
+		lock.readLock().lock();
+		try {
+			// look up the candidates of every query
+			ArrayList<Criterion> criteria = new ArrayList<Criterion>();
+			for (SearchField field : FIELDS) {
+				String query = queries[field.ordinal()];
+				if (query == null || query.length() == 0) continue;
+				Criterion criterion = new Criterion(field, query);
+				if (criterion.candidates != null && criterion.candidates.isEmpty()) return new HashSet<String>();
+				criteria.add(criterion);
+			}
+			if (criteria.isEmpty()) return new HashSet<String>();
+
+			// intersect the candidates, smallest set first
+			Collections.sort(criteria, new Comparator<Criterion>() {
+				@Override
+				public int compare(Criterion c1, Criterion c2) {
+					return Integer.compare(c1.estimate(), c2.estimate());
+				}
+			});
+			results = new HashSet<String>((criteria.get(0).candidates != null) ? criteria.get(0).candidates : texts.keySet());
+			for (int i = 1; i < criteria.size() && !results.isEmpty(); i++) {
+				if (criteria.get(i).candidates != null) results.retainAll(criteria.get(i).candidates);
+			}
+
+			// compare the texts of the remaining blocks, cheapest field first (payloads last, after the lock is released)
+			ArrayList<Criterion> comparisons = new ArrayList<Criterion>();
+			for (Criterion criterion : criteria) {
+				if (criterion.exact) continue;
+				if (criterion.field == PAYLOAD) payloadCriterion = criterion;
+				else comparisons.add(criterion);
+			}
+			Collections.sort(comparisons, new Comparator<Criterion>() {
+				@Override
+				public int compare(Criterion c1, Criterion c2) {
+					return Long.compare(textLengths[c1.field], textLengths[c2.field]);
+				}
+			});
+			Iterator<String> blockIds = results.iterator();
+			while (blockIds.hasNext()) {
+				String[] text = texts.get(blockIds.next());
+				for (Criterion criterion : comparisons) {
+					if (!criterion.matches(text)) {
+						blockIds.remove();
+						break;
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		if (payloadCriterion != null) retainPayloadMatches(results, payloadCriterion.query);
+		return results;
+	}
+
+	/**
+	 * Finds the blocks whose field contains a query.
+	 *
+	 * @param field	The field
+	 * @param query	The query (not empty)
+	 * @return IDs of the matching blocks
+	 */
+	public Set<String> search(SearchField field, String query) {
+
+		HashSet<String> results = new HashSet<String>();
+
+		lock.readLock().lock();
+		try {
+			Criterion criterion = new Criterion(field, query);
+			if (field == SearchField.Payload) {
+				// compared after the lock is released
+				results.addAll((criterion.candidates != null) ? criterion.candidates : texts.keySet());
+				if (criterion.exact) return results;
+			}
+			else if (criterion.candidates == null) {
+				// nothing to look up, compare all texts
+				for (Map.Entry<String, String[]> text : texts.entrySet()) {
+					if (criterion.matches(text.getValue())) results.add(text.getKey());
+				}
+			}
+			else if (criterion.exact) results.addAll(criterion.candidates);
+			else {
+				for (String blockId : criterion.candidates) {
+					if (criterion.matches(texts.get(blockId))) results.add(blockId);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		if (field == SearchField.Payload) retainPayloadMatches(results, query);
+		return results;
+	}
+
+	// compares the current payloads of the candidates to a query (without holding the lock, the payload source may update the index)
+	private void retainPayloadMatches(Set<String> candidates, String query) {
+
+		Iterator<String> blockIds = candidates.iterator();
+		while (blockIds.hasNext()) {
+			String payload = payloads.getPayload(blockIds.next());
+			if (payload == null || !payload.contains(query)) blockIds.remove();
+		}
+	}
+
+	/**
+	 * Finds the blocks tagged with any of the given subject concepts.
+	 *
+	 * @param concepts The concepts, e.g. a concept and all narrower concepts (see {@link ConceptHierarchy#expand(String)})
+	 * @return IDs of the tagged blocks
+	 */
+	public Set<String> searchSubjects(Collection<String> concepts) {
+
+		lock.readLock().lock();
+		try {
+			return subjects.search(concepts);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// one query of a search and its candidates (looked up under the read lock)
+	private class Criterion {
+
+		private final int field;
+		private final String query;
+		private Set<String> candidates = null; // all blocks if null
+		private boolean exact = false; // whether all candidates match
+
+		private Criterion(SearchField field, String query) {
+
+			this.field = field.ordinal();
+			this.query = query;
+
+			// title, description and payload: trigrams of the query
+			if (TrigramIndex.covers(field)) {
+				if (query.length() < TrigramIndex.GRAM_LENGTH) return;
+				candidates = trigrams.candidates(field, query);
+				exact = query.length() == TrigramIndex.GRAM_LENGTH;
+				return;
+			}
+
+			// other fields: tokens containing the longest fragment of the query (one comparison per distinct token)
+			String fragment = longestFragment(query);
+			if (fragment == null) return;
+			HashSet<String> blocks = new HashSet<String>();
+			for (Map.Entry<String, HashSet<String>> token : postings.get(this.field).entrySet()) {
+				if (token.getKey().contains(fragment)) blocks.addAll(token.getValue());
+			}
+			candidates = blocks;
+			exact = fragment.length() == query.length();
+		}
+
+		private int estimate() {
+			return (candidates != null) ? candidates.size() : texts.size();
+		}
+
+		// compares the kept text (not for payloads, see retainPayloadMatches)
+		private boolean matches(String[] text) {
+			return text[field] != null && text[field].contains(query);
+		}
+	}
+
+	/**
+	 * Marks the index as complete, i.e. all blocks of the memory have been added.
+	 */
+	public void setLoaded() {
+		loaded = true;
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Gets the version of the index, which changes whenever a block is added, changed or removed. Versions are unique across
+	 * all indexes, so results tagged with the version of an index are not taken for results of a later index of the memory.
+	 *
+	 * @return The version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of indexed blocks.
+	 *
+	 * @return Number of blocks
+	 */
+	public int size() {
+
+		lock.readLock().lock();
+		try {
+			return texts.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the memory used by the trigram postings.
+	 *
+	 * @return Number of bytes
+	 */
+	public long getTrigramBytes() {
+
+		lock.readLock().lock();
+		try {
+			return trigrams.getPostingBytes();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Splits a text into its distinct tokens (runs of letters and digits).
+	 *
+	 * @param text The text
+	 * @return The tokens
+	 */
+	static Set<String> tokenize(String text) {
+
+		HashSet<String> tokens = new HashSet<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (tokenChar && start < 0) start = i;
+			else if (!tokenChar && start >= 0) {
+				tokens.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	// the longest run of letters and digits of a query, or null if there is none
+	private static String longestFragment(String query) {
+
+		String longest = null;
+		for (String token : tokenize(query)) {
+			if (longest == null || token.length() > longest.length()) longest = token;
+		}
+		return longest;
+	}
+
+}
@@ -0,0 +1,133 @@
+package de.dfki.opcua.server.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.opcua.server.OmsParser;
+
+/**
+ * Searches downloaded blocks that are not indexed. <br/>
+ * Every block is checked against all queried fields in a single pass: only the queried fields are rendered, each at most
+ * once, and the checks stop as soon as the result is known (the first match if any query has to match, the first mismatch
+ * if all have to). The payload is checked last, since it is the most expensive field to render; its
+ * {@link PayloadBloomFilters} may rule it out without reading it. <br/>
+ * The blocks are split into ranges that are searched in parallel by a shared fork-join pool.
+ *
+ * @author xekl01
+ *
+ */
+public class BlockScan {
+
+	private static final int SPLIT_THRESHOLD = 64; // blocks searched by one task without splitting further
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private final SearchField[] fields; // queried fields, payload last
+	private final String[] queries; // in the order of fields
+	private final boolean matchAll;
+	private final String memory;
+	private final PayloadBloomFilters filters;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @param memory	The memory the blocks belong to (e.g. its URL)
+	 * @param filters	Payload filters of the memory's blocks (null to always read the payloads)
+	 */
+	public BlockScan(String[] queries, boolean matchAll, String memory, PayloadBloomFilters filters) {
+
+		ArrayList<SearchField> queried = new ArrayList<SearchField>();
+		for (SearchField field : SearchField.values()) {
+			String query = queries[field.ordinal()];
+			if (query != null && query.length() > 0 && field != SearchField.Payload) queried.add(field);
+		}
+		String payloadQuery = queries[SearchField.Payload.ordinal()];
+		if (payloadQuery != null && payloadQuery.length() > 0) queried.add(SearchField.Payload);
+
+		this.fields = queried.toArray(new SearchField[queried.size()]);
+		this.queries = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) this.queries[i] = queries[fields[i].ordinal()];
+		this.matchAll = matchAll;
+		this.memory = memory;
+		this.filters = filters;
+	}
+
+	/**
+	 * Searches blocks.
+	 *
+	 * @param blocks The blocks
+	 * @return IDs of the matching blocks
+	 */
+	public Set<String> scan(List<OMMBlock> blocks) {
+
+		HashSet<String> results = new HashSet<String>();
+		if (fields.length == 0 || blocks.isEmpty()) return results;
+		results.addAll(POOL.invoke(new Range(blocks, 0, blocks.size())));
+		return results;
+	}
+
+	/**
+	 * Checks one block against all queries.
+	 *
+	 * @param block The block
+	 * @return true if the block matches any query, or all queries if all have to match
+	 */
+	public boolean matches(OMMBlock block) {
+
+		for (int i = 0; i < fields.length; i++) {
+			boolean match = (fields[i] == SearchField.Payload) ? payloadContains(block, queries[i]) : fields[i].render(block).contains(queries[i]);
+			if (match != matchAll) return match;
+		}
+		return matchAll && fields.length > 0;
+	}
+
+	private boolean payloadContains(OMMBlock block, String query) {
+
+		if (filters == null) return OmsParser.parsePayload(block).contains(query);
+		String payload = filters.readIfMatching(memory, block, query);
+		return payload != null && payload.contains(query);
+	}
+
+	// searches a range of blocks, splitting it in halves while it is large
+	private class Range extends RecursiveTask<List<String>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<OMMBlock> blocks;
+		private final int from;
+		private final int to;
+
+		private Range(List<OMMBlock> blocks, int from, int to) {
+			this.blocks = blocks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<String> compute() {
+
+			if (to - from <= SPLIT_THRESHOLD) {
+				ArrayList<String> matching = new ArrayList<String>();
+				for (int i = from; i < to; i++) {
+					OMMBlock block = blocks.get(i);
+					if (matches(block)) matching.add(block.getID());
+				}
+				return matching;
+			}
+
+			int middle = (from + to) >>> 1;
+			Range left = new Range(blocks, from, middle);
+			left.fork();
+			List<String> matching = new Range(blocks, middle, to).compute();
+			matching.addAll(left.join());
+			return matching;
+		}
+	}
+
+}
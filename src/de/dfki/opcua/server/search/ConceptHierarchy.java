@@ -0,0 +1,147 @@
+package de.dfki.opcua.server.search;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The hierarchy of the concepts used as ontology subject tags of blocks. <br/>
+ * The hierarchy is given by pairs of a broader and a narrower concept (e.g. from an RDF ontology) and is closed once when it
+ * is created: for every concept, the set of the concept itself and all concepts below it is computed in advance, so expanding
+ * a query is a single lookup. Concepts are compared as normalized by {@link #normalize(String)}.
+ *
+ * @author xekl01
+ *
+ */
+public class ConceptHierarchy {
+
+	private static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+	private static final String RDFS_SUBCLASS_OF = "http://www.w3.org/2000/01/rdf-schema#subClassOf";
+	private static final Pattern TRIPLE = Pattern.compile("^\\s*<([^>]*)>\\s+<([^>]*)>\\s+<([^>]*)>\\s*\\.\\s*$");
+
+	private final HashMap<String, Set<String>> closure = new HashMap<String, Set<String>>(); // concept and all narrower concepts
+
+	/**
+	 * Constructor.
+	 *
+	 * @param narrower The directly narrower concepts by concept
+	 */
+	public ConceptHierarchy(Map<String, ? extends Collection<String>> narrower) {
+
+		HashMap<String, HashSet<String>> edges = new HashMap<String, HashSet<String>>();
+		for (Map.Entry<String, ? extends Collection<String>> concept : narrower.entrySet()) {
+			HashSet<String> children = new HashSet<String>();
+			for (String child : concept.getValue()) children.add(normalize(child));
+			String broader = normalize(concept.getKey());
+			if (edges.containsKey(broader)) edges.get(broader).addAll(children);
+			else edges.put(broader, children);
+		}
+
+		// walk down from every concept (cycles in the ontology end where a concept is reached again)
+		for (String concept : edges.keySet()) {
+			HashSet<String> reached = new HashSet<String>();
+			ArrayDeque<String> open = new ArrayDeque<String>();
+			reached.add(concept);
+			open.add(concept);
+			while (!open.isEmpty()) {
+				HashSet<String> children = edges.get(open.poll());
+				if (children == null) continue;
+				for (String child : children) {
+					if (reached.add(child)) open.add(child);
+				}
+			}
+			closure.put(concept, Collections.unmodifiableSet(reached));
+		}
+	}
+
+	/**
+	 * Loads a hierarchy from an RDF file in N-Triples format. <br/>
+	 * Triples with the predicates skos:broader, skos:broaderTransitive, skos:narrower, skos:narrowerTransitive and
+	 * rdfs:subClassOf between two IRIs are used, all other lines are ignored.
+	 *
+	 * @param file The file
+	 * @return The hierarchy
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ConceptHierarchy load(File file) throws IOException {
+
+		HashMap<String, HashSet<String>> narrower = new HashMap<String, HashSet<String>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher triple = TRIPLE.matcher(line);
+				if (!triple.matches()) continue;
+				String subject = triple.group(1);
+				String predicate = triple.group(2);
+				String object = triple.group(3);
+				if (predicate.equals(SKOS+"broader") || predicate.equals(SKOS+"broaderTransitive") || predicate.equals(RDFS_SUBCLASS_OF)) 
+					add(narrower, object, subject);
+				else if (predicate.equals(SKOS+"narrower") || predicate.equals(SKOS+"narrowerTransitive")) 
+					add(narrower, subject, object);
+			}
+		} finally {
+			reader.close();
+		}
+		return new ConceptHierarchy(narrower);
+	}
+
+	private static void add(HashMap<String, HashSet<String>> narrower, String broader, String concept) {
+
+		HashSet<String> children = narrower.get(broader);
+		if (children == null) {
+			children = new HashSet<String>();
+			narrower.put(broader, children);
+		}
+		children.add(concept);
+	}
+
+	/**
+	 * Expands a concept to itself and all concepts below it.
+	 *
+	 * @param concept The concept
+	 * @return The concept and all narrower concepts (only the concept if it has none)
+	 */
+	public Set<String> expand(String concept) {
+
+		String normalized = normalize(concept);
+		Set<String> expanded = closure.get(normalized);
+		return (expanded != null) ? expanded : Collections.singleton(normalized);
+	}
+
+	/**
+	 * Gets the number of concepts that have narrower concepts.
+	 *
+	 * @return Number of concepts
+	 */
+	public int size() {
+		return closure.size();
+	}
+
+	/**
+	 * Normalizes a concept or subject tag, i.e. removes surrounding whitespace and the angle brackets around IRIs.
+	 *
+	 * @param concept The concept
+	 * @return The normalized concept
+	 */
+	public static String normalize(String concept) {
+
+		String normalized = concept.trim();
+		if (normalized.length() >= 2 && normalized.charAt(0) == '<' && normalized.charAt(normalized.length() - 1) == '>')
+			normalized = normalized.substring(1, normalized.length() - 1).trim();
+		return normalized;
+	}
+
+}
@@ -0,0 +1,351 @@
+package de.dfki.opcua.server.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.dfki.omm.interfaces.OMMBlock;
+
+/**
+ * Searches the blocks of many memories at once. <br/>
+ * Every memory is searched by a task of its own, so a fixed number of memories is searched in parallel. Memories whose
+ * blocks are loaded are searched in their {@link BlockIndex}; the blocks of all other memories are downloaded and checked
+ * one by one, without being loaded or kept, so a search does not pin the whole OMS in memory. Memories that cannot be
+ * downloaded are reported as unsearched. With a result limit, every task claims its matches from a shared counter: once
+ * the limit has been claimed, running tasks stop and memories not searched yet are skipped. <br/>
+ * Every download is also indexed without its payloads, and the indexes of the last {@link #MAX_DOWNLOADED_MEMORIES}
+ * memories are kept for the refresh interval of the {@link Source}. Searches that do not query payloads are answered
+ * from such an index instead of downloading the memory again. Payload queries always download the memory, as its payloads
+ * are not kept (and the OMS offers no download of all blocks without their payloads).
+ *
+ * @author xekl01
+ *
+ */
+public class MemorySearch {
+
+	public static final int DEFAULT_PARALLELISM = 8;
+	public static final int MAX_DOWNLOADED_MEMORIES = 64;
+
+	// the fields indexed for downloaded memories
+	private static final List<String> METADATA_FIELDS = new ArrayList<String>();
+	static {
+		for (SearchField field : SearchField.values()) {
+			if (field != SearchField.Payload) METADATA_FIELDS.add(field.name());
+		}
+	}
+
+	/**
+	 * Provides the memories to be searched.
+	 */
+	public interface Source {
+
+		/**
+		 * Gets the names of all memories.
+		 *
+		 * @return Memory names
+		 */
+		List<String> getMemoryNames();
+
+		/**
+		 * Gets the block index of a memory if it is complete already, without loading the memory's blocks.
+		 *
+		 * @param memoryName Name of the memory
+		 * @return The block index, or null if the memory's blocks have not been loaded
+		 */
+		BlockIndex getIndex(String memoryName);
+
+		/**
+		 * Downloads the blocks of a memory without keeping them.
+		 *
+		 * @param memoryName Name of the memory
+		 * @return The blocks, or null if they cannot be downloaded
+		 */
+		Collection<OMMBlock> getBlocks(String memoryName);
+
+		/**
+		 * Gets how long the blocks of a memory may be searched before the memory has to be downloaded again.
+		 *
+		 * @return Time in milliseconds
+		 */
+		long getRefreshInterval();
+	}
+
+	/**
+	 * A matching block.
+	 */
+	public static class Match {
+
+		private final String memoryName;
+		private final String blockId;
+
+		public Match(String memoryName, String blockId) {
+			this.memoryName = memoryName;
+			this.blockId = blockId;
+		}
+
+		public String getMemoryName() {
+			return memoryName;
+		}
+
+		public String getBlockId() {
+			return blockId;
+		}
+	}
+
+	/**
+	 * The matches of a search and the memories that could not be searched.
+	 */
+	public static class Result {
+
+		private final List<Match> matches;
+		private final List<String> unsearched;
+
+		public Result(List<Match> matches, List<String> unsearched) {
+			this.matches = matches;
+			this.unsearched = unsearched;
+		}
+
+		public List<Match> getMatches() {
+			return matches;
+		}
+
+		/**
+		 * Gets the memories whose blocks could not be downloaded (their matches are missing).
+		 *
+		 * @return Names of the memories
+		 */
+		public List<String> getUnsearched() {
+			return unsearched;
+		}
+	}
+
+	// a search in the index of one memory, or in its downloaded blocks
+	private interface Query {
+		Set<String> run(BlockIndex index);
+		boolean matches(OMMBlock block);
+		boolean needsPayloads();
+	}
+
+	// the index of a downloaded memory, without payloads
+	private static class Download {
+
+		private final BlockIndex index;
+		private final long time;
+
+		private Download(BlockIndex index, long time) {
+			this.index = index;
+			this.time = time;
+		}
+	}
+
+	private final Source source;
+	private final ExecutorService executor;
+	private final LinkedHashMap<String, Download> downloads = new LinkedHashMap<String, Download>(16, 0.75f, true) { // least recently searched first
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Download> eldest) {
+			return size() > MAX_DOWNLOADED_MEMORIES;
+		}
+	};
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source		The memories to be searched
+	 * @param parallelism	Number of memories searched at the same time
+	 */
+	public MemorySearch(Source source, int parallelism) {
+
+		this.source = source;
+		this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS memory search "+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Searches all memories for blocks matching any or all of the queries.
+	 *
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @param limit		Maximum number of matches (0 for all)
+	 * @return The matches and unsearched memories
+	 */
+	public Result search(final String[] queries, final boolean matchAll, int limit) {
+
+		final BlockScan scan = new BlockScan(queries, matchAll, null, null);
+		return search(new Query() {
+			@Override
+			public Set<String> run(BlockIndex index) {
+				return index.search(queries, matchAll);
+			}
+			@Override
+			public boolean matches(OMMBlock block) {
+				return scan.matches(block);
+			}
+			@Override
+			public boolean needsPayloads() {
+				String payloadQuery = queries[SearchField.Payload.ordinal()];
+				return payloadQuery != null && payloadQuery.length() > 0;
+			}
+		}, limit);
+	}
+
+	/**
+	 * Searches all memories for blocks tagged with any of the given subject concepts.
+	 *
+	 * @param concepts	The concepts, e.g. a concept and all narrower concepts (see {@link ConceptHierarchy#expand(String)})
+	 * @param limit		Maximum number of matches (0 for all)
+	 * @return The matches and unsearched memories
+	 */
+	public Result searchSubjects(final Set<String> concepts, int limit) {
+
+		return search(new Query() {
+			@Override
+			public Set<String> run(BlockIndex index) {
+				return index.searchSubjects(concepts);
+			}
+			@Override
+			public boolean matches(OMMBlock block) {
+				return !Collections.disjoint(SubjectIndex.tags(block), concepts);
+			}
+			@Override
+			public boolean needsPayloads() {
+				return false;
+			}
+		}, limit);
+	}
+
+	private Result search(final Query query, int limit) {
+
+		final int maxMatches = (limit > 0) ? limit : Integer.MAX_VALUE;
+		final AtomicInteger claimed = new AtomicInteger();
+		final List<String> unsearched = new CopyOnWriteArrayList<String>();
+
+		ExecutorCompletionService<List<Match>> completion = new ExecutorCompletionService<List<Match>>(executor);
+		ArrayList<Future<List<Match>>> tasks = new ArrayList<Future<List<Match>>>();
+		for (final String memoryName : source.getMemoryNames()) {
+			tasks.add(completion.submit(new Callable<List<Match>>() {
+				@Override
+				public List<Match> call() {
+
+					ArrayList<Match> matches = new ArrayList<Match>();
+					if (claimed.get() >= maxMatches) return matches;
+					try {
+						BlockIndex index = source.getIndex(memoryName);
+						if (index == null && !query.needsPayloads()) index = getDownloadedIndex(memoryName);
+						if (index != null) {
+							for (String blockId : query.run(index)) {
+								if (claimed.incrementAndGet() > maxMatches) break;
+								matches.add(new Match(memoryName, blockId));
+							}
+							return matches;
+						}
+						
+						// not loaded: check the downloaded blocks one by one and drop them (only their index is kept)
+						Collection<OMMBlock> blocks = source.getBlocks(memoryName);
+						if (blocks == null) {
+							unsearched.add(memoryName);
+							return matches;
+						}
+						putDownloadedIndex(memoryName, blocks);
+						for (OMMBlock block : blocks) {
+							if (claimed.get() >= maxMatches) break;
+							if (!query.matches(block)) continue;
+							if (claimed.incrementAndGet() > maxMatches) break;
+							matches.add(new Match(memoryName, block.getID()));
+						}
+					} catch (RuntimeException e) {
+						System.err.println("Memory "+memoryName+" could not be searched.");
+						e.printStackTrace();
+						unsearched.add(memoryName);
+					}
+					return matches;
+				}
+			}));
+		}
+
+		// collect the matches until all memories are searched or the limit is reached
+		ArrayList<Match> results = new ArrayList<Match>();
+		for (int i = 0; i < tasks.size() && results.size() < maxMatches; i++) {
+			try {
+				results.addAll(completion.take().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				System.err.println("A memory could not be searched.");
+				e.printStackTrace();
+			}
+		}
+		for (Future<List<Match>> task : tasks) task.cancel(false); // skips the memories not searched yet
+
+		return new Result(results, new ArrayList<String>(unsearched));
+	}
+
+	// the index of a memory downloaded recently enough (null if there is none)
+	private BlockIndex getDownloadedIndex(String memoryName) {
+
+		synchronized (downloads) {
+			Download download = downloads.get(memoryName);
+			if (download == null) return null;
+			if (System.currentTimeMillis() - download.time <= source.getRefreshInterval()) return download.index;
+			downloads.remove(memoryName);
+			return null;
+		}
+	}
+
+	// indexes the downloaded blocks of a memory without their payloads
+	private void putDownloadedIndex(String memoryName, Collection<OMMBlock> blocks) {
+
+		long time = System.currentTimeMillis();
+		BlockIndex index = new BlockIndex(new BlockIndex.PayloadSource() {
+			@Override
+			public String getPayload(String blockId) {
+				return null; // not kept, payload queries download the memory
+			}
+		});
+		for (OMMBlock block : blocks) index.update(block.getID(), block, METADATA_FIELDS);
+		index.setLoaded();
+		synchronized (downloads) {
+			downloads.put(memoryName, new Download(index, time));
+		}
+	}
+
+	/**
+	 * Drops the index of a downloaded memory (e.g. after the memory has been deleted).
+	 *
+	 * @param memoryName Name of the memory
+	 */
+	public void removeMemory(String memoryName) {
+		synchronized (downloads) {
+			downloads.remove(memoryName);
+		}
+	}
+
+	/**
+	 * Stops the search threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,109 @@
+package de.dfki.opcua.server.search;
+
+import java.util.HashSet;
+
+/**
+ * A Bloom filter over the trigrams (three consecutive characters) of a block's payload. <br/>
+ * A payload can only contain a query of at least three characters if it contains all trigrams of the query, so a filter
+ * that rules out any of them rules out the whole query without looking at the payload. The filter has about ten bits per
+ * distinct trigram (at most 128 KB) and sets {@link #HASH_COUNT} bits per trigram, i.e. about 1% of the blocks that do
+ * not contain a trigram are still reported as possible matches.
+ *
+ * @author xekl01
+ *
+ */
+public class PayloadBloomFilter {
+
+	private static final int HASH_COUNT = 7;
+	private static final int BITS_PER_GRAM = 10;
+	private static final int MIN_BITS = 64;
+	private static final int MAX_BITS = 1 << 20;
+
+	private final long[] bits;
+	private final int mask;
+
+	private PayloadBloomFilter(int bitCount) {
+		bits = new long[bitCount >>> 6];
+		mask = bitCount - 1;
+	}
+
+	/**
+	 * Builds the filter of a payload.
+	 *
+	 * @param payload The payload as a String
+	 * @return The filter
+	 */
+	public static PayloadBloomFilter build(String payload) {
+
+		HashSet<Long> grams = new HashSet<Long>();
+		for (int i = 0; i + TrigramIndex.GRAM_LENGTH <= payload.length(); i++) grams.add(gram(payload, i));
+
+		int bitCount = MIN_BITS;
+		while (bitCount < MAX_BITS && bitCount < (long) grams.size() * BITS_PER_GRAM) bitCount <<= 1;
+		PayloadBloomFilter filter = new PayloadBloomFilter(bitCount);
+		for (Long gram : grams) filter.add(gram);
+		return filter;
+	}
+
+	/**
+	 * Checks whether the payload might contain a query.
+	 *
+	 * @param query The query
+	 * @return false if the payload certainly does not contain the query (always true for queries shorter than three characters)
+	 */
+	public boolean mightContain(String query) {
+
+		for (int i = 0; i + TrigramIndex.GRAM_LENGTH <= query.length(); i++) {
+			if (!contains(gram(query, i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the memory used by the filter.
+	 *
+	 * @return Number of bytes
+	 */
+	public int getBytes() {
+		return bits.length * 8;
+	}
+
+	private void add(long gram) {
+
+		long hash = mix(gram);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	private boolean contains(long gram) {
+
+		long hash = mix(gram);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+		}
+		return true;
+	}
+
+	private static long gram(String text, int i) {
+		return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+	}
+
+	// spreads the bits of a trigram over the whole hash (finalizer of MurmurHash3)
+	private static long mix(long value) {
+
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+}
@@ -0,0 +1,233 @@
+package de.dfki.opcua.server.search;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opcfoundation.ua.builtintypes.DateTime;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.opcua.server.OmsParser;
+
+/**
+ * Keeps the {@link PayloadBloomFilter} of every block found by searches of memories that are not indexed. <br/>
+ * The filters are built when the blocks of a memory are downloaded as a whole (see {@link #build(String, Collection)}),
+ * while their payloads are at hand anyway, and belong to the version of the block they were built from. As in change
+ * detection, the version is told by the number of contributors and the time of last change, so checking it does not touch
+ * the payload. Later searches only compare the payloads of blocks whose filter does not rule out the query. <br/>
+ * The filters of all memories are limited in size: if they exceed it, the filters of the least recently searched memories
+ * are dropped, and then single filters of the most recently searched one. The filters of deleted memories are dropped
+ * with {@link #removeMemory(String)}.
+ *
+ * @author xekl01
+ *
+ */
+public class PayloadBloomFilters {
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024; // 32 MB
+
+	private static class Entry {
+
+		private final String version;
+		private final PayloadBloomFilter filter;
+
+		private Entry(String version, PayloadBloomFilter filter) {
+			this.version = version;
+			this.filter = filter;
+		}
+	}
+
+	// the filters of one memory by block ID
+	private static class MemoryFilters {
+
+		private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+		private final AtomicLong bytes = new AtomicLong();
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, MemoryFilters> memories = new LinkedHashMap<String, MemoryFilters>(16, 0.75f, true); // least recently searched first
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong scanned = new AtomicLong();
+
+	/**
+	 * Constructor. Limits the filters to 32 MB.
+	 */
+	public PayloadBloomFilters() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBytes Maximum memory used by the filters of all memories
+	 */
+	public PayloadBloomFilters(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Builds the filters of downloaded blocks that have no filter for their current version, and drops the filters of blocks
+	 * that are no longer in the memory.
+	 *
+	 * @param memory	The memory (e.g. its URL)
+	 * @param blocks	All blocks of the memory, including their payloads
+	 */
+	public void build(String memory, Collection<OMMBlock> blocks) {
+
+		retain(memory, blocks);
+		MemoryFilters filters = filters(memory);
+		for (OMMBlock block : blocks) {
+			String version = version(block);
+			Entry entry = filters.entries.get(block.getID());
+			if (entry == null || !entry.version.equals(version)) put(filters, block.getID(), new Entry(version, PayloadBloomFilter.build(OmsParser.parsePayload(block))));
+		}
+		evict();
+	}
+
+	/**
+	 * Checks whether the payload of a block might contain a query, and reads it if so.
+	 *
+	 * @param memory	The memory (e.g. its URL)
+	 * @param block		The fetched block
+	 * @param query		The query
+	 * @return The payload, or null if the block's filter rules out the query
+	 */
+	public String readIfMatching(String memory, OMMBlock block, String query) {
+
+		MemoryFilters filters = filters(memory);
+		String version = version(block);
+		Entry entry = filters.entries.get(block.getID());
+		if (entry != null && entry.version.equals(version)) {
+			if (!entry.filter.mightContain(query)) {
+				skipped.incrementAndGet();
+				return null;
+			}
+		}
+		else entry = null;
+
+		String payload = OmsParser.parsePayload(block);
+		scanned.incrementAndGet();
+		if (entry == null) {
+			put(filters, block.getID(), new Entry(version, PayloadBloomFilter.build(payload)));
+			evict();
+		}
+		return payload;
+	}
+
+	/**
+	 * Drops the filters of the blocks that are no longer in a memory.
+	 *
+	 * @param memory	The memory (e.g. its URL)
+	 * @param blocks	All blocks of the memory
+	 */
+	public void retain(String memory, Collection<OMMBlock> blocks) {
+
+		MemoryFilters filters;
+		synchronized (this) {
+			filters = memories.get(memory);
+		}
+		if (filters == null) return;
+		HashSet<String> blockIds = new HashSet<String>();
+		for (OMMBlock block : blocks) blockIds.add(block.getID());
+		Iterator<Map.Entry<String, Entry>> iterator = filters.entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			if (blockIds.contains(entry.getKey())) continue;
+			iterator.remove();
+			account(filters, -entry.getValue().filter.getBytes());
+		}
+	}
+
+	/**
+	 * Drops all filters of a memory (e.g. after the memory has been deleted).
+	 *
+	 * @param memory The memory (e.g. its URL)
+	 */
+	public synchronized void removeMemory(String memory) {
+
+		MemoryFilters filters = memories.remove(memory);
+		if (filters != null) bytes.addAndGet(-filters.bytes.get());
+	}
+
+	private synchronized MemoryFilters filters(String memory) {
+
+		MemoryFilters filters = memories.get(memory); // marks the memory as recently searched
+		if (filters == null) {
+			filters = new MemoryFilters();
+			memories.put(memory, filters);
+		}
+		return filters;
+	}
+
+	private void put(MemoryFilters filters, String blockId, Entry entry) {
+
+		Entry old = filters.entries.put(blockId, entry);
+		account(filters, entry.filter.getBytes() - ((old != null) ? old.filter.getBytes() : 0));
+	}
+
+	private void account(MemoryFilters filters, long delta) {
+		filters.bytes.addAndGet(delta);
+		bytes.addAndGet(delta);
+	}
+
+	// drops the filters of the least recently searched memories until the limit is met, then single filters of the last one
+	private synchronized void evict() {
+
+		Iterator<MemoryFilters> iterator = memories.values().iterator();
+		while (bytes.get() > maxBytes && iterator.hasNext()) {
+			MemoryFilters filters = iterator.next();
+			if (iterator.hasNext()) {
+				bytes.addAndGet(-filters.bytes.get());
+				iterator.remove();
+				continue;
+			}
+			Iterator<Entry> entries = filters.entries.values().iterator();
+			while (bytes.get() > maxBytes && entries.hasNext()) {
+				long entryBytes = entries.next().filter.getBytes();
+				entries.remove();
+				account(filters, -entryBytes);
+			}
+		}
+	}
+
+	private static String version(OMMBlock block) {
+
+		OMMEntityCollection contributors = block.getContributors();
+		DateTime timeOfLastChange = OmsParser.getTimeOfLastChange(block);
+		return ((contributors == null) ? 0 : contributors.size())+"@"+timeOfLastChange;
+	}
+
+	/**
+	 * Gets the number of payloads skipped because their filter ruled out the query.
+	 *
+	 * @return Number of skipped payloads
+	 */
+	public long getSkipCount() {
+		return skipped.get();
+	}
+
+	/**
+	 * Gets the number of payloads read because there was no filter or it did not rule out the query.
+	 *
+	 * @return Number of read payloads
+	 */
+	public long getScanCount() {
+		return scanned.get();
+	}
+
+	/**
+	 * Gets the memory used by all filters.
+	 *
+	 * @return Number of bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+}
@@ -0,0 +1,131 @@
+package de.dfki.opcua.server.search;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the results of recent searches. <br/>
+ * Results are cached by memory and normalized criteria (the queries, with missing queries as empty ones, and the match
+ * mode) and tagged with the version of the memory's {@link BlockIndex} they were found in. Any change to a block of the
+ * memory changes that version, so all cached results of the memory are invalid from then on; they are replaced by the
+ * next search with the same criteria or dropped as the least recently used results once the cache is full.
+ *
+ * @author xekl01
+ *
+ */
+public class SearchCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static class Entry {
+
+		private final long version;
+		private final Set<String> results;
+
+		private Entry(long version, Set<String> results) {
+			this.version = version;
+			this.results = results;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Gets the cached results of a search.
+	 *
+	 * @param memory	The memory (e.g. its URL)
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @param version	The current version of the memory's index
+	 * @return IDs of the matching blocks, or null if the search is not cached for this version
+	 */
+	public synchronized Set<String> get(String memory, String[] queries, boolean matchAll, long version) {
+
+		Entry entry = entries.get(key(memory, queries, matchAll));
+		if (entry == null || entry.version != version) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.results;
+	}
+
+	/**
+	 * Caches the results of a search.
+	 *
+	 * @param memory	The memory (e.g. its URL)
+	 * @param queries	One query per field in the order of {@link SearchField} (null or empty if the field is not queried)
+	 * @param matchAll	Whether a block has to match all queries instead of any
+	 * @param version	The version of the memory's index read before the search
+	 * @param results	IDs of the matching blocks
+	 */
+	public synchronized void put(String memory, String[] queries, boolean matchAll, long version, Set<String> results) {
+		entries.put(key(memory, queries, matchAll), new Entry(version, Collections.unmodifiableSet(new HashSet<String>(results))));
+	}
+
+	// memory, match mode and queries, separated by a character that does not occur in queries typed by users
+	private static String key(String memory, String[] queries, boolean matchAll) {
+
+		StringBuilder key = new StringBuilder(memory).append('\u0000').append(matchAll ? '&' : '|');
+		for (String query : queries) key.append('\u0000').append((query == null) ? "" : query);
+		return key.toString();
+	}
+
+	/**
+	 * Drops the cached results of a memory (e.g. after the memory has been deleted).
+	 *
+	 * @param memory The memory (e.g. its URL)
+	 */
+	public synchronized void removeMemory(String memory) {
+
+		String prefix = memory + '\u0000';
+		Iterator<String> keys = entries.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().startsWith(prefix)) keys.remove();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of cached searches.
+	 *
+	 * @param maxEntries Maximum number of searches
+	 */
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the share of searches answered from the cache.
+	 *
+	 * @return Hit rate between 0 and 1 (0 if there were no searches yet)
+	 */
+	public synchronized double getHitRate() {
+		return (hits + misses == 0) ? 0 : (double) hits / (hits + misses);
+	}
+
+}
@@ -0,0 +1,183 @@
+package de.dfki.opcua.server.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves the results of a search page by page. <br/>
+ * If the results do not fit into one page, the remaining results are kept in a cursor, which is identified by a random
+ * continuation token handed to the client with the first page. A cursor expires once it has not been read for the expiry
+ * time (expired cursors are dropped whenever a search opens or reads a cursor) or once all its results have been read.
+ * If the maximum number of cursors is reached, the least recently read cursor is dropped. <br/>
+ * Cursors page the results of a search, they do not stream them: the search has completed (up to its result limit) before
+ * the first page is returned, and the cursor holds all further results until they have been read or it expires. Paging
+ * bounds the size of a response, not the time to the first page or the memory used by the search.
+ *
+ * @author xekl01
+ *
+ */
+public class SearchCursors {
+
+	public static final long DEFAULT_EXPIRY = 60 * 1000; // 1 min
+	public static final int DEFAULT_MAX_CURSORS = 1000;
+
+	/**
+	 * One page of search results.
+	 */
+	public static class Page {
+
+		private final List<String[]> rows;
+		private final String continuationToken;
+
+		private Page(List<String[]> rows, String continuationToken) {
+			this.rows = rows;
+			this.continuationToken = continuationToken;
+		}
+
+		/**
+		 * Gets the results of this page.
+		 *
+		 * @return The results (e.g. block IDs, or memory names and block IDs)
+		 */
+		public List<String[]> getRows() {
+			return rows;
+		}
+
+		/**
+		 * Gets the token for the next page.
+		 *
+		 * @return The continuation token, or null if this is the last page
+		 */
+		public String getContinuationToken() {
+			return continuationToken;
+		}
+	}
+
+	private static class Cursor {
+
+		private final List<String[]> rows;
+		private int position = 0;
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		private Cursor(List<String[]> rows) {
+			this.rows = rows;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Cursor> cursors = new ConcurrentHashMap<String, Cursor>();
+	private volatile long expiry = DEFAULT_EXPIRY;
+	private volatile int maxCursors = DEFAULT_MAX_CURSORS;
+
+	/**
+	 * Gets the first page of search results and keeps the remaining results for further pages. The results are kept as a
+	 * whole (see above), so the search has to be limited to bound them.
+	 *
+	 * @param rows		All results
+	 * @param pageSize	Maximum number of results per page (0 for all)
+	 * @return The first page
+	 */
+	public Page open(List<String[]> rows, int pageSize) {
+
+		expire();
+		if (pageSize <= 0 || rows.size() <= pageSize) return new Page(rows, null);
+
+		Cursor cursor = new Cursor(rows);
+		String token = UUID.randomUUID().toString();
+		if (cursors.size() >= maxCursors) dropLeastRecent();
+		cursors.put(token, cursor);
+		return read(token, cursor, pageSize);
+	}
+
+	/**
+	 * Gets the next page of a search.
+	 *
+	 * @param token		The continuation token of the previous page
+	 * @param pageSize	Maximum number of results per page (0 for all remaining results)
+	 * @return The next page, or null if the token is unknown or has expired
+	 */
+	public Page next(String token, int pageSize) {
+
+		expire();
+		Cursor cursor = cursors.get(token);
+		if (cursor == null) return null;
+		return read(token, cursor, pageSize);
+	}
+
+	/**
+	 * Drops the cursor of a search whose further pages are not needed.
+	 *
+	 * @param token The continuation token
+	 */
+	public void close(String token) {
+		cursors.remove(token);
+	}
+
+	private Page read(String token, Cursor cursor, int pageSize) {
+
+		synchronized (cursor) {
+			int from = cursor.position;
+			int to = (pageSize <= 0) ? cursor.rows.size() : Math.min(cursor.rows.size(), from + pageSize);
+			cursor.position = to;
+			cursor.lastAccess = System.currentTimeMillis();
+			List<String[]> rows = new ArrayList<String[]>(cursor.rows.subList(from, to));
+			if (to < cursor.rows.size()) return new Page(rows, token);
+
+			cursors.remove(token);
+			return new Page(rows, null);
+		}
+	}
+
+	private void expire() {
+
+		long now = System.currentTimeMillis();
+		Iterator<Cursor> iterator = cursors.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().lastAccess > expiry) iterator.remove();
+		}
+	}
+
+	private void dropLeastRecent() {
+
+		String leastRecent = null;
+		long oldest = Long.MAX_VALUE;
+		for (Map.Entry<String, Cursor> cursor : cursors.entrySet()) {
+			if (cursor.getValue().lastAccess < oldest) {
+				oldest = cursor.getValue().lastAccess;
+				leastRecent = cursor.getKey();
+			}
+		}
+		if (leastRecent != null) cursors.remove(leastRecent);
+	}
+
+	/**
+	 * Sets the time after which an unread cursor expires.
+	 *
+	 * @param expiry Expiry time in milliseconds
+	 */
+	public void setExpiry(long expiry) {
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Sets the maximum number of cursors kept at the same time.
+	 *
+	 * @param maxCursors Maximum number of cursors
+	 */
+	public void setMaxCursors(int maxCursors) {
+		this.maxCursors = maxCursors;
+	}
+
+	/**
+	 * Gets the number of open cursors.
+	 *
+	 * @return Number of cursors
+	 */
+	public int size() {
+		return cursors.size();
+	}
+
+}
@@ -0,0 +1,52 @@
+package de.dfki.opcua.server.search;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.opcua.server.OmsParser;
+
+/**
+ * The block contents that can be searched for, in the order of the arguments of the search methods.
+ *
+ * @author xekl01
+ *
+ */
+public enum SearchField {
+
+	Namespace,
+	Format,
+	Creator,
+	Title,
+	Description,
+	Type,
+	Subject,
+	Payload,
+	Link;
+
+	/**
+	 * Renders the field of a block as it is searched.
+	 *
+	 * @param block The block
+	 * @return The rendered field (empty if the block does not have it)
+	 */
+	public String render(OMMBlock block) {
+
+		switch (this) {
+		case Payload:	return OmsParser.parsePayload(block);
+		default:		return OmsParser.parseVariable(block, name());
+		}
+	}
+
+	/**
+	 * Gets the field of a block variable.
+	 *
+	 * @param variable Name of the block variable (see {@link de.dfki.opcua.server.cache.BlockChangeDetector#VARIABLES})
+	 * @return The field, or null if the variable is not searchable
+	 */
+	public static SearchField fromVariable(String variable) {
+
+		for (SearchField field : values()) {
+			if (field.name().equals(variable)) return field;
+		}
+		return null;
+	}
+
+}
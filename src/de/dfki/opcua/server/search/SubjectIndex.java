@@ -0,0 +1,106 @@
+package de.dfki.opcua.server.search;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+
+/**
+ * An index of the subject tags of the blocks of one memory. <br/>
+ * Every tag of a block, including the more specific child tags of a tag, is indexed by its value (for ontology tags the
+ * concept IRI) as normalized by {@link ConceptHierarchy#normalize(String)}. A query for a set of concepts, e.g. a concept
+ * expanded by a {@link ConceptHierarchy}, is the union of their postings. <br/>
+ * Not thread-safe, the {@link BlockIndex} guards it by its lock.
+ *
+ * @author xekl01
+ *
+ */
+class SubjectIndex {
+
+	private final HashMap<String, HashSet<String>> postings = new HashMap<String, HashSet<String>>(); // block IDs by tag
+	private final HashMap<String, Set<String>> tags = new HashMap<String, Set<String>>(); // tags by block ID
+
+	/**
+	 * Collects the normalized subject tags of a block.
+	 *
+	 * @param block The block
+	 * @return The tags
+	 */
+	static Set<String> tags(OMMBlock block) {
+
+		OMMSubjectCollection subjects = block.getSubject();
+		if (subjects == null || subjects.isEmpty()) return Collections.emptySet();
+
+		HashSet<String> blockTags = new HashSet<String>();
+		for (OMMSubjectTag subject : subjects) {
+			for (OMMSubjectTag tag = subject; tag != null; tag = tag.getChild()) {
+				if (tag.getValue() != null && tag.getValue().trim().length() > 0) blockTags.add(ConceptHierarchy.normalize(tag.getValue()));
+			}
+		}
+		return blockTags;
+	}
+
+	/**
+	 * Indexes the tags of a block (replacing the earlier ones).
+	 *
+	 * @param blockId	ID of the block
+	 * @param blockTags	The tags
+	 */
+	void update(String blockId, Set<String> blockTags) {
+
+		remove(blockId);
+		if (blockTags.isEmpty()) return;
+		tags.put(blockId, blockTags);
+		for (String tag : blockTags) {
+			HashSet<String> blocks = postings.get(tag);
+			if (blocks == null) {
+				blocks = new HashSet<String>();
+				postings.put(tag, blocks);
+			}
+			blocks.add(blockId);
+		}
+	}
+
+	/**
+	 * Removes the tags of a block.
+	 *
+	 * @param blockId ID of the block
+	 */
+	void remove(String blockId) {
+
+		Set<String> blockTags = tags.remove(blockId);
+		if (blockTags == null) return;
+		for (String tag : blockTags) {
+			HashSet<String> blocks = postings.get(tag);
+			if (blocks == null) continue;
+			blocks.remove(blockId);
+			if (blocks.isEmpty()) postings.remove(tag);
+		}
+	}
+
+	/**
+	 * Finds the blocks tagged with any of the concepts.
+	 *
+	 * @param concepts The normalized concepts
+	 * @return IDs of the tagged blocks
+	 */
+	Set<String> search(Collection<String> concepts) {
+
+		HashSet<String> results = new HashSet<String>();
+		for (String concept : concepts) {
+			HashSet<String> blocks = postings.get(concept);
+			if (blocks != null) results.addAll(blocks);
+		}
+		return results;
+	}
+
+	int size() {
+		return postings.size();
+	}
+
+}
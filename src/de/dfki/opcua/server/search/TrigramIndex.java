@@ -0,0 +1,265 @@
+package de.dfki.opcua.server.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A trigram index over the long text fields of the blocks of one memory (title, description and payload). <br/>
+ * Every field of a block gets a document number; for every trigram (three consecutive characters) of a field, the index keeps
+ * the ascending numbers of the documents containing it, delta-encoded as variable-length integers, 7 bits per byte. A
+ * substring query of at least three characters is answered by intersecting the postings of its trigrams, shortest first, so
+ * only the remaining candidates have to be compared to the query. The texts themselves are not kept. <br/>
+ * Postings are only ever appended to: a changed field is indexed again under a new document number, and the old number
+ * is marked as deleted. Once there are more deleted than live documents, the postings are compacted by numbering the live
+ * documents consecutively again, which needs no texts. <br/>
+ * Not thread-safe, the {@link BlockIndex} guards it by its lock.
+ *
+ * @author xekl01
+ *
+ */
+class TrigramIndex {
+
+	/** Queries need to be at least this long to be looked up. */
+	static final int GRAM_LENGTH = 3;
+
+	private static final int MIN_DELETED_FOR_REBUILD = 1024;
+
+	private final HashMap<Long, Postings> postings = new HashMap<Long, Postings>(); // by field and trigram
+	private final HashMap<String, int[]> documents = new HashMap<String, int[]>(); // document numbers per field by block ID (-1 if none)
+	private final ArrayList<String> blockIds = new ArrayList<String>(); // block ID by document number (null if deleted)
+	private int deleted = 0;
+
+	/**
+	 * Checks whether a field is covered by the trigram index.
+	 *
+	 * @param field The field
+	 * @return true for title, description and payload
+	 */
+	static boolean covers(SearchField field) {
+		return field == SearchField.Title || field == SearchField.Description || field == SearchField.Payload;
+	}
+
+	/**
+	 * Indexes a covered field of a block under a new document number (replacing an earlier version of the field).
+	 *
+	 * @param blockId	ID of the block
+	 * @param field		The field (covered by the index)
+	 * @param text		The rendered field
+	 */
+	void index(String blockId, SearchField field, String text) {
+
+		int[] blockDocuments = documents.get(blockId);
+		if (blockDocuments == null) {
+			blockDocuments = new int[SearchField.values().length];
+			Arrays.fill(blockDocuments, -1);
+			documents.put(blockId, blockDocuments);
+		}
+		delete(blockDocuments, field.ordinal());
+		if (deleted >= MIN_DELETED_FOR_REBUILD && deleted > blockIds.size() - deleted) compact();
+
+		int document = blockIds.size();
+		blockIds.add(blockId);
+		blockDocuments[field.ordinal()] = document;
+
+		HashSet<Long> grams = new HashSet<Long>();
+		for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) grams.add(key(field, text, i));
+		for (Long gram : grams) {
+			Postings gramPostings = postings.get(gram);
+			if (gramPostings == null) {
+				gramPostings = new Postings();
+				postings.put(gram, gramPostings);
+			}
+			gramPostings.add(document);
+		}
+	}
+
+	/**
+	 * Marks the documents of all fields of a block as deleted.
+	 *
+	 * @param blockId ID of the block
+	 */
+	void remove(String blockId) {
+
+		int[] blockDocuments = documents.remove(blockId);
+		if (blockDocuments == null) return;
+		for (int i = 0; i < blockDocuments.length; i++) delete(blockDocuments, i);
+	}
+
+	private void delete(int[] blockDocuments, int field) {
+
+		if (blockDocuments[field] < 0) return;
+		blockIds.set(blockDocuments[field], null);
+		blockDocuments[field] = -1;
+		deleted++;
+	}
+
+	// numbers the live documents consecutively and drops the deleted ones from the postings (the order is kept)
+	private void compact() {
+
+		int[] renumbered = new int[blockIds.size()];
+		int live = 0;
+		for (int document = 0; document < renumbered.length; document++) {
+			String blockId = blockIds.get(document);
+			if (blockId == null) renumbered[document] = -1;
+			else {
+				renumbered[document] = live;
+				blockIds.set(live++, blockId);
+			}
+		}
+		blockIds.subList(live, blockIds.size()).clear();
+		blockIds.trimToSize();
+		for (int[] blockDocuments : documents.values()) {
+			for (int i = 0; i < blockDocuments.length; i++) {
+				if (blockDocuments[i] >= 0) blockDocuments[i] = renumbered[blockDocuments[i]];
+			}
+		}
+
+		Iterator<Map.Entry<Long, Postings>> it = postings.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Postings> gram = it.next();
+			Postings compacted = new Postings();
+			for (int document : gram.getValue().decode()) {
+				if (renumbered[document] >= 0) compacted.add(renumbered[document]);
+			}
+			if (compacted.count == 0) it.remove();
+			else {
+				compacted.trim();
+				gram.setValue(compacted);
+			}
+		}
+		deleted = 0;
+	}
+
+	/**
+	 * Finds the blocks whose field contains all trigrams of a query.
+	 *
+	 * @param field	The field (covered by the index)
+	 * @param query	The query (at least {@link #GRAM_LENGTH} characters)
+	 * @return IDs of the candidate blocks (their fields contain the query if it is a single trigram)
+	 */
+	Set<String> candidates(SearchField field, String query) {
+
+		HashSet<Long> grams = new HashSet<Long>();
+		for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) grams.add(key(field, query, i));
+
+		ArrayList<Postings> lists = new ArrayList<Postings>(grams.size());
+		for (Long gram : grams) {
+			Postings gramPostings = postings.get(gram);
+			if (gramPostings == null) return new HashSet<String>();
+			lists.add(gramPostings);
+		}
+		Collections.sort(lists, new Comparator<Postings>() {
+			@Override
+			public int compare(Postings p1, Postings p2) {
+				return Integer.compare(p1.count, p2.count);
+			}
+		});
+
+		int[] matches = lists.get(0).decode();
+		int count = matches.length;
+		for (int i = 1; i < lists.size() && count > 0; i++) count = lists.get(i).retain(matches, count);
+
+		HashSet<String> candidates = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			String blockId = blockIds.get(matches[i]);
+			if (blockId != null) candidates.add(blockId);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Gets the memory used by the postings.
+	 *
+	 * @return Number of bytes of the encoded postings
+	 */
+	long getPostingBytes() {
+
+		long bytes = 0;
+		for (Postings gramPostings : postings.values()) bytes += gramPostings.data.length;
+		return bytes;
+	}
+
+	private static long key(SearchField field, String text, int i) {
+		return ((long) field.ordinal() << 48) | ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+	}
+
+	/**
+	 * Ascending document numbers, delta-encoded as variable-length integers.
+	 */
+	private static class Postings {
+
+		private byte[] data = new byte[4];
+		private int length = 0;
+		private int count = 0;
+		private int last = -1;
+
+		void add(int document) {
+
+			if (length + 5 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+			int delta = document - last;
+			while ((delta & ~0x7f) != 0) {
+				data[length++] = (byte) ((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			data[length++] = (byte) delta;
+			last = document;
+			count++;
+		}
+
+		void trim() {
+			data = Arrays.copyOf(data, length);
+		}
+
+		int[] decode() {
+
+			int[] documents = new int[count];
+			int document = -1;
+			int position = 0;
+			for (int i = 0; i < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+				document += delta;
+				documents[i] = document;
+			}
+			return documents;
+		}
+
+		// keeps the first count documents of the sorted array that are also in these postings, returns their number
+		int retain(int[] documents, int count) {
+
+			int kept = 0;
+			int candidate = 0;
+			int document = -1;
+			int position = 0;
+			for (int i = 0; i < this.count && candidate < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[position++];
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+				document += delta;
+
+				while (candidate < count && documents[candidate] < document) candidate++;
+				if (candidate < count && documents[candidate] == document) documents[kept++] = documents[candidate++];
+			}
+			return kept;
+		}
+	}
+
+}
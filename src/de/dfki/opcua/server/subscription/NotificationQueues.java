@@ -0,0 +1,156 @@
+package de.dfki.opcua.server.subscription;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opcfoundation.ua.builtintypes.DataValue;
+
+import com.prosysopc.ua.server.MonitoredDataItem;
+import com.prosysopc.ua.server.Subscription;
+
+/**
+ * Hands the data changes of monitored block variables to their monitored items and counts the values offered to them. <br/>
+ * Every monitored item already has a queue of its own in the SDK, sized by the queue size the client requested and
+ * discarding the oldest or newest value (with the overflow bit set) as requested. Values are therefore passed to the item
+ * right away instead of being queued a second time. <br/>
+ * The SDK does not expose the fill level or the overflows of that queue, so the metrics kept here are offer rates, not
+ * backlogs: the values offered to an item within the current publishing interval of its subscription, and the values
+ * offered beyond the item's queue size within one interval so far. The latter are discarded by the SDK if the client
+ * publishes once per interval; a client that publishes less often loses more values, which is not visible here. The
+ * metrics therefore show producers that outpace the requested queue sizes, but cannot detect slow consumers.
+ *
+ * @author xekl01
+ *
+ */
+public class NotificationQueues {
+
+	// the values offered to one item, counted per publishing interval
+	private static class QueueCounter {
+
+		private int capacity;
+		private long window = -1; // number of the current publishing interval
+		private int count = 0; // values offered in the current publishing interval
+		private long excess = 0; // values offered beyond the queue size within one interval
+
+		private QueueCounter(int capacity) {
+			this.capacity = capacity;
+		}
+
+		private synchronized void count(long window) {
+
+			if (window != this.window) {
+				this.window = window;
+				count = 0;
+			}
+			count++;
+			if (count > capacity) excess++;
+		}
+
+		private synchronized int getOffered(long window) {
+			return (window == this.window) ? count : 0;
+		}
+
+		private synchronized long getExcessCount() {
+			return excess;
+		}
+	}
+
+	private final ConcurrentHashMap<MonitoredDataItem, QueueCounter> counters = new ConcurrentHashMap<MonitoredDataItem, QueueCounter>();
+	private final LinkedHashMap<Subscription, ArrayList<MonitoredDataItem>> subscriptions = new LinkedHashMap<Subscription, ArrayList<MonitoredDataItem>>();
+
+	/**
+	 * Starts counting the values offered to a new monitored item or applies the changed queue size of an existing one.
+	 *
+	 * @param item The monitored item
+	 */
+	public synchronized void add(MonitoredDataItem item) {
+
+		int capacity = (item.getQueueSize() == null) ? 1 : Math.max(1, item.getQueueSize().intValue());
+		QueueCounter counter = counters.get(item);
+		if (counter != null) {
+			synchronized (counter) {
+				counter.capacity = capacity;
+			}
+			return;
+		}
+		counters.put(item, new QueueCounter(capacity));
+
+		Subscription subscription = item.getSubscription();
+		ArrayList<MonitoredDataItem> items = subscriptions.get(subscription);
+		if (items == null) {
+			items = new ArrayList<MonitoredDataItem>();
+			subscriptions.put(subscription, items);
+		}
+		items.add(item);
+	}
+
+	/**
+	 * Stops counting the values offered to a deleted monitored item.
+	 *
+	 * @param item The monitored item
+	 */
+	public synchronized void remove(MonitoredDataItem item) {
+
+		if (counters.remove(item) == null) return;
+
+		ArrayList<MonitoredDataItem> items = subscriptions.get(item.getSubscription());
+		if (items == null) return;
+		items.remove(item);
+		if (items.isEmpty()) subscriptions.remove(item.getSubscription());
+	}
+
+	/**
+	 * Passes a data change to a monitored item, which queues it for the next publishing cycle.
+	 *
+	 * @param item	The monitored item
+	 * @param value	The new value
+	 */
+	public void offer(MonitoredDataItem item, DataValue value) {
+
+		QueueCounter counter = counters.get(item);
+		if (counter == null) return;
+		counter.count(window(item.getSubscription()));
+		try {
+			item.notifyDataChange(value);
+		} catch (Exception e) {
+			// an exception would stop the notification of all further items
+			e.printStackTrace();
+		}
+	}
+
+	// number of the current publishing interval of a subscription
+	private static long window(Subscription subscription) {
+		long interval = Math.max(1, (long) Math.ceil(subscription.getPublishingInterval()));
+		return System.currentTimeMillis() / interval;
+	}
+
+	/**
+	 * Gets the number of values offered in the current publishing interval and of values offered beyond the queue size so
+	 * far, for every session with monitored block variables (offer rates, not the fill levels of the SDK's queues).
+	 *
+	 * @return Pairs of offered and excess count by session name
+	 */
+	public synchronized Map<String, long[]> getSessionMetrics() {
+
+		LinkedHashMap<String, long[]> metrics = new LinkedHashMap<String, long[]>();
+		for (Map.Entry<Subscription, ArrayList<MonitoredDataItem>> subscription : subscriptions.entrySet()) {
+			String session = (subscription.getKey().getSession() == null) ? "unknown" : subscription.getKey().getSession().getSessionName();
+			long[] sessionMetrics = metrics.get(session);
+			if (sessionMetrics == null) {
+				sessionMetrics = new long[2];
+				metrics.put(session, sessionMetrics);
+			}
+			long window = window(subscription.getKey());
+			for (MonitoredDataItem item : subscription.getValue()) {
+				QueueCounter counter = counters.get(item);
+				if (counter == null) continue;
+				sessionMetrics[0] += counter.getOffered(window);
+				sessionMetrics[1] += counter.getExcessCount();
+			}
+		}
+		return metrics;
+	}
+
+}
@@ -0,0 +1,235 @@
+package de.dfki.opcua.server.subscription;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.Server;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.Method;
+import org.restlet.data.Protocol;
+import org.restlet.data.Status;
+
+import de.dfki.opcua.server.NodeManagerOms;
+import de.dfki.opcua.server.NodeManagerOmm;
+
+/**
+ * A small HTTP endpoint through which an OMS (or a stand-in) reports changes, so they do not have to be found by polling. <br/>
+ * Changes are POSTed as a JSON object or an array of JSON objects of the form
+ * <code>{"memory": "myMemory", "block": "myBlock", "change": "modified"}</code>, where "block" may be left out for changes
+ * of the memory as a whole and "change" is one of "modified" (default), "created" or "deleted". <br/>
+ * Notifications are acknowledged right away (202 Accepted) and applied in the background in the order they arrived:
+ * the affected blocks are downloaded again, which updates the caches and notifies monitored items. Notifications for
+ * memories that have not been accessed yet are ignored as there is nothing cached for them. A notification that is already
+ * waiting to be applied is not queued a second time. An array is validated as a whole before any of its notifications is
+ * queued, so a malformed request (400 Bad Request) has no effect. <br/>
+ * The endpoint can be protected by a shared secret, which clients send as the password of HTTP basic authentication (the
+ * user name is ignored); requests without it are answered with 401 Unauthorized. Without a secret, the endpoint only
+ * listens on the local host.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsChangeEndpoint {
+
+	private final NodeManagerOms omsNodeManager;
+	private final Server server;
+	private final ExecutorService worker;
+	private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+	private final byte[] secret; // null if any local request is accepted
+
+	/**
+	 * Constructor.
+	 *
+	 * @param omsNodeManager	The node manager of the OMS whose changes are reported
+	 * @param address			The address to listen on (e.g. "localhost" to accept local notifications only)
+	 * @param port				The port to listen on
+	 * @param secret			The secret clients have to send (null to listen on the local host only, whatever the address)
+	 */
+	public OmsChangeEndpoint(NodeManagerOms omsNodeManager, String address, int port, String secret) {
+
+		if (secret == null && !isLocal(address)) {
+			System.err.println("Change notifications without a secret are only accepted from the local host, listening on localhost instead of "+address+".");
+			address = "localhost";
+		}
+		this.omsNodeManager = omsNodeManager;
+		this.secret = (secret == null) ? null : secret.getBytes(StandardCharsets.UTF_8);
+		this.server = new Server(Protocol.HTTP, address, port, new Restlet() {
+			@Override
+			public void handle(Request request, Response response) {
+				receive(request, response);
+			}
+		});
+		this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS change ingestion");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static boolean isLocal(String address) {
+		try {
+			return InetAddress.getByName(address).isLoopbackAddress();
+		} catch (UnknownHostException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Starts listening for notifications.
+	 *
+	 * @throws Exception if the HTTP server could not be started
+	 */
+	public void start() throws Exception {
+		server.start();
+	}
+
+	/**
+	 * Stops listening for notifications. Notifications already received are dropped.
+	 */
+	public void stop() {
+		try {
+			server.stop();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		worker.shutdownNow();
+	}
+
+	// parses the notifications of a request and queues them
+	private void receive(Request request, Response response) {
+
+		if (!Method.POST.equals(request.getMethod())) {
+			response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+			return;
+		}
+		if (!isAuthorized(request)) {
+			response.setStatus(Status.CLIENT_ERROR_UNAUTHORIZED);
+			return;
+		}
+
+		// parse all notifications before queuing any
+		ArrayList<Notification> notifications = new ArrayList<Notification>();
+		try {
+			String text = request.getEntityAsText();
+			if (text == null) throw new JSONException("Empty notification.");
+			text = text.trim();
+			if (text.startsWith("[")) {
+				JSONArray array = new JSONArray(text);
+				for (int i = 0; i < array.length(); i++) notifications.add(parse(array.getJSONObject(i)));
+			}
+			else notifications.add(parse(new JSONObject(text)));
+		} catch (JSONException e) {
+			response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+			return;
+		}
+
+		for (Notification notification : notifications) queue(notification.memoryName, notification.blockId, notification.structural);
+		response.setStatus(Status.SUCCESS_ACCEPTED);
+	}
+
+	// compares the password of the request's basic authentication to the secret (in constant time)
+	private boolean isAuthorized(Request request) {
+
+		if (secret == null) return true;
+		ChallengeResponse credentials = request.getChallengeResponse();
+		if (credentials == null || credentials.getSecret() == null) return false;
+		return MessageDigest.isEqual(secret, new String(credentials.getSecret()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	// a validated notification
+	private static class Notification {
+
+		private final String memoryName;
+		private final String blockId;
+		private final boolean structural;
+
+		private Notification(String memoryName, String blockId, boolean structural) {
+			this.memoryName = memoryName;
+			this.blockId = blockId;
+			this.structural = structural;
+		}
+	}
+
+	private static Notification parse(JSONObject notification) {
+
+		String memoryName = notification.getString("memory");
+		String blockId = notification.has("block") ? notification.getString("block") : null;
+		String change = notification.optString("change", "modified");
+		if (!change.equals("modified") && !change.equals("created") && !change.equals("deleted"))
+			throw new JSONException("Unknown change type: "+change);
+		return new Notification(memoryName, blockId, !change.equals("modified"));
+	}
+
+	private void queue(final String memoryName, final String blockId, final boolean structural) {
+
+		received.incrementAndGet();
+		final String key = memoryName+"\n"+blockId+"\n"+structural;
+		if (pending.putIfAbsent(key, Boolean.TRUE) != null) return; // the same change is applied anyway
+
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				pending.remove(key);
+				try {
+					apply(memoryName, blockId, structural);
+				} catch (Exception e) {
+					System.err.println("Change notification for memory "+memoryName+" could not be applied.");
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	// updates the cached memory or block
+	private void apply(String memoryName, String blockId, boolean structural) {
+
+		// a created or deleted memory changes the memory list
+		if (blockId == null && structural) {
+			omsNodeManager.getMemoryNames();
+			return;
+		}
+
+		NodeManagerOmm memoryNodeManager = omsNodeManager.findMemoryNodeManager(memoryName);
+		if (memoryNodeManager == null) return;
+		memoryNodeManager.applyChange(blockId, structural);
+		applied.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of notifications received so far.
+	 *
+	 * @return Number of notifications
+	 */
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	/**
+	 * Gets the number of notifications that led to an update of cached data.
+	 *
+	 * @return Number of notifications
+	 */
+	public long getAppliedCount() {
+		return applied.get();
+	}
+
+}
@@ -0,0 +1,200 @@
+package de.dfki.opcua.server.subscription;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls the OMS on behalf of subscribed clients. <br/>
+ * Every poll target (usually one memory) is polled by a single task, however many subscribers it has. The task runs at the
+ * shortest sampling interval requested by any of the subscribers (but not faster than the minimum polling interval), so each
+ * target is polled at most once per effective interval. Tasks start at a random offset within their interval, which spreads
+ * the polls of many targets instead of sending them to the OMS all at once.
+ *
+ * @author xekl01
+ *
+ */
+public class OmsPollingScheduler {
+
+	public static final long DEFAULT_MIN_INTERVAL = 500; // ms
+	public static final int DEFAULT_THREADS = 4;
+
+	private final ScheduledExecutorService executor;
+	private final LinkedHashMap<String, PollTarget> targets = new LinkedHashMap<String, PollTarget>();
+	private final Random random = new Random();
+	private final AtomicLong polls = new AtomicLong();
+	private volatile long minInterval = DEFAULT_MIN_INTERVAL;
+
+	/**
+	 * Constructor using {@link #DEFAULT_THREADS} polling threads.
+	 */
+	public OmsPollingScheduler() {
+		this(DEFAULT_THREADS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threads Number of threads polling in parallel
+	 */
+	public OmsPollingScheduler(int threads) {
+
+		executor = Executors.newScheduledThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OMS polling "+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Registers (or updates) a subscriber's interest in a poll target.
+	 *
+	 * @param key				Name of the poll target (e.g. the memory name)
+	 * @param poll				The poll to be run for this target (only used if the target is not polled yet)
+	 * @param subscriber		The subscriber (e.g. a block node manager)
+	 * @param samplingInterval	The sampling interval requested by the subscriber in milliseconds
+	 */
+	public synchronized void subscribe(String key, Runnable poll, Object subscriber, double samplingInterval) {
+
+		PollTarget target = targets.get(key);
+		if (target == null) {
+			target = new PollTarget(poll);
+			targets.put(key, target);
+		}
+
+		target.subscribers.put(subscriber, (long) Math.ceil(samplingInterval));
+		schedule(target);
+	}
+
+	/**
+	 * Removes a subscriber from a poll target. A target without subscribers is no longer polled.
+	 *
+	 * @param key			Name of the poll target
+	 * @param subscriber	The subscriber
+	 */
+	public synchronized void unsubscribe(String key, Object subscriber) {
+
+		PollTarget target = targets.get(key);
+		if (target == null || target.subscribers.remove(subscriber) == null) return;
+
+		if (target.subscribers.isEmpty()) {
+			target.future.cancel(false);
+			targets.remove(key);
+		}
+		else schedule(target);
+	}
+
+	/**
+	 * Stops polling a target regardless of its subscribers (e.g. after the memory has been deleted).
+	 *
+	 * @param key Name of the poll target
+	 */
+	public synchronized void unsubscribeAll(String key) {
+
+		PollTarget target = targets.remove(key);
+		if (target != null && target.future != null) target.future.cancel(false);
+	}
+
+	// (re)schedules a target's poll task if its effective interval has changed
+	private void schedule(PollTarget target) {
+
+		long interval = Long.MAX_VALUE;
+		for (long samplingInterval : target.subscribers.values()) interval = Math.min(interval, samplingInterval);
+		interval = Math.max(minInterval, interval);
+
+		if (target.future != null) {
+			if (interval == target.interval) return;
+			target.future.cancel(false);
+		}
+
+		// start at a random offset so that targets with equal intervals are not polled at the same time
+		long delay = (long) (random.nextDouble() * interval);
+		target.interval = interval;
+		target.future = executor.scheduleAtFixedRate(target, delay, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the lower bound for all polling intervals.
+	 *
+	 * @return Interval in milliseconds
+	 */
+	public long getMinInterval() {
+		return minInterval;
+	}
+
+	/**
+	 * Sets the lower bound for all polling intervals. Applies to targets subscribed or changed afterwards.
+	 *
+	 * @param minInterval Interval in milliseconds
+	 */
+	public void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * Gets the effective polling interval of every polled target.
+	 *
+	 * @return Intervals in milliseconds by target name
+	 */
+	public synchronized Map<String, Long> getIntervals() {
+
+		LinkedHashMap<String, Long> intervals = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, PollTarget> target : targets.entrySet()) intervals.put(target.getKey(), target.getValue().interval);
+		return intervals;
+	}
+
+	/**
+	 * Gets the number of polls run so far.
+	 *
+	 * @return Number of polls
+	 */
+	public long getPollCount() {
+		return polls.get();
+	}
+
+	/**
+	 * Stops all polling.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A polled target with its subscribers and their requested sampling intervals.
+	 */
+	private class PollTarget implements Runnable {
+
+		private final Runnable poll;
+		private final IdentityHashMap<Object, Long> subscribers = new IdentityHashMap<Object, Long>();
+		private long interval;
+		private ScheduledFuture<?> future;
+
+		private PollTarget(Runnable poll) {
+			this.poll = poll;
+		}
+
+		@Override
+		public void run() {
+			polls.incrementAndGet();
+			try {
+				poll.run();
+			} catch (Exception e) {
+				// an exception would cancel all further polls of this target
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
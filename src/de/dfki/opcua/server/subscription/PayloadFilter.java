@@ -0,0 +1,103 @@
+package de.dfki.opcua.server.subscription;
+
+import org.opcfoundation.ua.core.DataChangeFilter;
+import org.opcfoundation.ua.core.DeadbandType;
+import org.opcfoundation.ua.core.MonitoringFilter;
+
+import de.dfki.opcua.server.cache.BlockChangeDetector;
+
+/**
+ * Decides whether a new payload is reported to one monitored item. <br/>
+ * By default a payload is only reported if its content hash differs from the last reported one, so payloads rewritten
+ * with the same content do not cause notifications. If the item's DataChangeFilter requests a deadband and the payloads are
+ * numbers, a payload is only reported if it differs from the last reported number by more than the deadband: by an
+ * absolute value, or (as payloads have no engineering unit range) by a percentage of the last reported number. <br/>
+ * Hashing and parsing a payload happens once per poll in a {@link Sample}, which is then checked against every item.
+ *
+ * @author xekl01
+ *
+ */
+public class PayloadFilter {
+
+	private final int deadbandType;
+	private final double deadbandValue;
+
+	// last reported payload
+	private boolean reported = false;
+	private long lastHash;
+	private double lastNumber = Double.NaN;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param filter The filter requested for the monitored item (may be null)
+	 */
+	public PayloadFilter(MonitoringFilter filter) {
+
+		int type = DeadbandType.None.getValue();
+		double value = 0;
+		if (filter instanceof DataChangeFilter) {
+			DataChangeFilter dataChangeFilter = (DataChangeFilter) filter;
+			if (dataChangeFilter.getDeadbandType() != null) type = dataChangeFilter.getDeadbandType().intValue();
+			if (dataChangeFilter.getDeadbandValue() != null) value = dataChangeFilter.getDeadbandValue();
+		}
+		this.deadbandType = type;
+		this.deadbandValue = value;
+	}
+
+	/**
+	 * Checks whether a payload has to be reported and remembers it as the last reported one if so.
+	 *
+	 * @param sample The payload sample
+	 * @return true if the payload is to be reported
+	 */
+	public synchronized boolean accept(Sample sample) {
+
+		if (reported) {
+			if (deadbandType != DeadbandType.None.getValue() && !Double.isNaN(sample.number) && !Double.isNaN(lastNumber)) {
+				double limit = (deadbandType == DeadbandType.Percent.getValue()) ? deadbandValue / 100 * Math.abs(lastNumber) : deadbandValue;
+				if (Math.abs(sample.number - lastNumber) <= limit) return false;
+			}
+			else if (sample.hash == lastHash) return false;
+		}
+
+		reported = true;
+		lastHash = sample.hash;
+		lastNumber = sample.number;
+		return true;
+	}
+
+	/**
+	 * The hash and (if the payload is a number) the numeric value of a payload.
+	 */
+	public static class Sample {
+
+		private final long hash;
+		private final double number;
+
+		private Sample(long hash, double number) {
+			this.hash = hash;
+			this.number = number;
+		}
+
+		/**
+		 * Hashes and parses a payload.
+		 *
+		 * @param payload The payload (may be null)
+		 * @return The sample
+		 */
+		public static Sample of(String payload) {
+
+			double number = Double.NaN;
+			if (payload != null) {
+				try {
+					number = Double.parseDouble(payload.trim());
+				} catch (NumberFormatException e) {
+					// not a numeric payload, only the hash is compared
+				}
+			}
+			return new Sample(BlockChangeDetector.hash(payload), number);
+		}
+	}
+
+}